@@ -27,7 +27,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
-import android.graphics.Matrix;
 import android.graphics.drawable.BitmapDrawable;
 import android.net.Uri;
 import android.os.Bundle;
@@ -51,8 +50,11 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
 import androidx.core.view.MenuCompat;
 
+import com.github.lorentz83.alps.utils.BitmapLoader;
+import com.github.lorentz83.alps.utils.EditPipeline;
 import com.github.lorentz83.alps.utils.LogUtility;
 import com.github.lorentz83.alps.utils.OverlayBuilder;
+import com.github.lorentz83.alps.utils.OverlayMask;
 
 import java.io.IOException;
 import java.io.OutputStream;
@@ -72,6 +74,11 @@ public class EditImageActivity extends AppCompatActivity {
 
     private ImageView _preview;
     private Bitmap _bmp;
+    // Edits not applied to _bmp yet.
+    private final EditPipeline _pipeline = new EditPipeline();
+    // Reduced copy of _bmp used while the user interacts.
+    private Bitmap _previewSource = null;
+    private Bitmap _previewSourceOf = null;
     private Uri _uri;
 
     @Override
@@ -90,32 +97,31 @@ public class EditImageActivity extends AppCompatActivity {
 
         ImageButton rotateCW = findViewById(R.id.rotate_clockwise);
         rotateCW.setOnClickListener(c -> {
-            Matrix matrix = new Matrix();
-            matrix.postRotate(90);
-            applyMatrix(matrix);
+            _pipeline.rotateClockwise();
+            updatePreview();
         });
 
         ImageButton rotateCCW = findViewById(R.id.rotate_counterclockwise);
         rotateCCW.setOnClickListener(c -> {
-            Matrix matrix = new Matrix();
-            matrix.postRotate(-90);
-            applyMatrix(matrix);
+            _pipeline.rotateCounterclockwise();
+            updatePreview();
         });
 
         ImageButton mirrorH = findViewById(R.id.horizontal_mirror);
         mirrorH.setOnClickListener(c -> {
-            Matrix matrix = new Matrix();
-            matrix.preScale(-1, 1);
-            applyMatrix(matrix);
+            _pipeline.mirrorHorizontally();
+            updatePreview();
         });
 
         ImageButton mirrorW = findViewById(R.id.vertical_mirror);
         mirrorW.setOnClickListener(c -> {
-            Matrix matrix = new Matrix();
-            matrix.preScale(1, -1);
-            applyMatrix(matrix);
+            _pipeline.mirrorVertically();
+            updatePreview();
         });
 
+        ImageButton addOverlay = findViewById(R.id.add_overlay);
+        addOverlay.setOnClickListener(c -> stackOverlay());
+
         ImageButton externalEdit = findViewById(R.id.external_edit);
         externalEdit.setOnClickListener(v -> {
             callExternalEditor();
@@ -142,14 +148,19 @@ public class EditImageActivity extends AppCompatActivity {
 
         SeekBar.OnSeekBarChangeListener paramListener = new SeekBar.OnSeekBarChangeListener() {
             @Override
-            public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {}
+            public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+                if (fromUser) {
+                    // Cheap enough to follow the finger.
+                    updatePreview();
+                }
+            }
 
             @Override
             public void onStartTrackingTouch(SeekBar seekBar) {}
 
             @Override
             public void onStopTrackingTouch(SeekBar seekBar) {
-                setBitmap(_bmp);
+                updatePreview();
             }
         };
 
@@ -162,7 +173,7 @@ public class EditImageActivity extends AppCompatActivity {
                 boolean enableParams = position != 0;
                 _overlayParam1.setEnabled(enableParams);
                 _overlayParam2.setEnabled(enableParams);
-                setBitmap(_bmp);
+                updatePreview();
             }
 
             @Override
@@ -172,34 +183,96 @@ public class EditImageActivity extends AppCompatActivity {
         try {
             _uri = getIntent().getData();
             log.i("get stream %s", _uri);
-            setBitmap(MediaStore.Images.Media.getBitmap(getContentResolver(), _uri));
+            setBitmap(decode(_uri));
         } catch (IOException e) {
             // TODO handle it.
             log.w("NO IMAGE");
         }
     }
 
-    private void applyMatrix(Matrix matrix) {
-        setBitmap(Bitmap.createBitmap(_bmp, 0, 0, _bmp.getWidth(), _bmp.getHeight(), matrix, true));
+    // Edits and exports must stay good if the stick length is increased later.
+    private Bitmap decode(Uri uri) throws IOException {
+        return BitmapLoader.decodeForAnyStick(getContentResolver(), uri);
+    }
+
+    // Keeps the selected overlay, so another one can be selected on top of it.
+    private void stackOverlay() {
+        OverlayBuilder.Overlayer overlayer = (OverlayBuilder.Overlayer) _overlay.getSelectedItem();
+        if (overlayer.isDummy()) {
+            return;
+        }
+        OverlayMask mask = overlayer.mask();
+        if (mask != null) {
+            _pipeline.addOverlay(mask, _overlayParam1.getProgress() + 1, _overlayParam2.getProgress() + 1);
+        } else {
+            // It can only be drawn on a bitmap, bake everything done so far.
+            _bmp = getOverlaidBitmap(_bmp);
+            _pipeline.reset();
+        }
+        _overlay.setSelection(0);
+        setBitmap(_bmp);
     }
 
     private void setBitmap(Bitmap bmp) {
         _bmp = bmp;
+        updatePreview();
+    }
 
-        Bitmap overlaid = getOverlaidBitmap();
+    // Shows the edits applied to a reduced copy of the image, the full image is edited only when saved.
+    private void updatePreview() {
+        Bitmap overlaid = getOverlaidBitmap(previewSource());
 
         BitmapDrawable myBitmapDrawable = new BitmapDrawable(getResources(), overlaid);
         myBitmapDrawable.getPaint().setFilterBitmap(false);
         _preview.setImageDrawable(myBitmapDrawable);
     }
 
-    private Bitmap getOverlaidBitmap() {
+    // Returns _bmp scaled down to what the screen can show, but still big enough for the stick.
+    private Bitmap previewSource() {
+        if (_previewSourceOf == _bmp) {
+            return _previewSource;
+        }
+        int w = _bmp.getWidth();
+        int h = _bmp.getHeight();
+        int maxSide = getResources().getDisplayMetrics().widthPixels;
+        int minSide = Preferences.getInstance().getStickLength() * BitmapLoader.STICK_OVERSAMPLING;
+        double scale = Math.min(1, Math.max((double) maxSide / Math.max(w, h), (double) minSide / Math.min(w, h)));
+        _previewSourceOf = _bmp;
+        if (scale < 1) {
+            _previewSource = Bitmap.createScaledBitmap(_bmp,
+                    Math.max(1, (int) Math.round(w * scale)), Math.max(1, (int) Math.round(h * scale)), true);
+        } else {
+            _previewSource = _bmp;
+        }
+        return _previewSource;
+    }
+
+    // Applies the pipeline and the selected overlay.
+    private Bitmap getOverlaidBitmap(Bitmap source) {
         OverlayBuilder.Overlayer overlayer = (OverlayBuilder.Overlayer) _overlay.getSelectedItem();
-        Bitmap bmp = _bmp;
+        int p1 = _overlayParam1.getProgress() + 1;
+        int p2 = _overlayParam2.getProgress() + 1;
+
+        EditPipeline pipeline = _pipeline;
+        OverlayMask mask = overlayer.mask();
+        if (mask != null) {
+            pipeline = _pipeline.copy();
+            pipeline.addOverlay(mask, p1, p2);
+        }
+
+        Bitmap bmp = source;
+        if (pipeline.isIdentity() && overlayer.isDummy()) {
+            return bmp;
+        }
 
-        if ( ! overlayer.isDummy() ) {
+        if (pipeline.hasOverlays() || !overlayer.isDummy()) {
+            // Overlays are sized in stick pixels, scale the image to the stick first.
             int w = bmp.getWidth();
             int h = bmp.getHeight();
+            if (pipeline.swapsAxes()) {
+                w = bmp.getHeight();
+                h = bmp.getWidth();
+            }
 
             int len = Preferences.getInstance().getStickLength();
             // TODO should we consider getWidthMultiplier() ?
@@ -208,12 +281,31 @@ public class EditImageActivity extends AppCompatActivity {
 
             // bilinear scaling down, nearest neighbor scaling up.
             // TODO this is pretty much copy and paste from PreviewFragment, refactor it out.
-            boolean useBilinear = _bmp.getHeight() > h;
+            boolean useBilinear = (pipeline.swapsAxes() ? source.getWidth() : source.getHeight()) > h;
 
-            bmp = Bitmap.createScaledBitmap(bmp, w, h, useBilinear);
+            // Scaled in the orientation of the source, it is rotated later.
+            bmp = pipeline.swapsAxes() ?
+                    Bitmap.createScaledBitmap(bmp, h, w, useBilinear) :
+                    Bitmap.createScaledBitmap(bmp, w, h, useBilinear);
         }
 
-        return overlayer.apply(bmp, _overlayParam1.getProgress() + 1, _overlayParam2.getProgress() + 1);
+        // Orientation and all the overlays, in one pass.
+        int w = bmp.getWidth();
+        int h = bmp.getHeight();
+        int[] pixels = new int[w * h];
+        bmp.getPixels(pixels, 0, w, 0, 0, w, h);
+        pixels = pipeline.render(pixels, w, h);
+        if (pipeline.swapsAxes()) {
+            w = bmp.getHeight();
+            h = bmp.getWidth();
+        }
+        bmp = Bitmap.createBitmap(pixels, w, h, Bitmap.Config.ARGB_8888);
+
+        if (mask == null && !overlayer.isDummy()) {
+            // Overlays without a mask can only be drawn on a Canvas.
+            bmp = overlayer.apply(bmp, p1, p2);
+        }
+        return bmp;
     }
 
     @Override
@@ -253,10 +345,15 @@ public class EditImageActivity extends AppCompatActivity {
 
     private void saveBitmapToUri() throws IOException {
         log.i("writing temporary file on %s", _uri);
+        // Full quality, only once.
+        Bitmap edited = getOverlaidBitmap(_bmp);
         try(OutputStream os = getContentResolver().openOutputStream(_uri)) {
-            getOverlaidBitmap().compress(Bitmap.CompressFormat.PNG, 100, os);
+            edited.compress(Bitmap.CompressFormat.PNG, 100, os);
         }
-        _overlay.setSelection(0); // No overlay, otherwise it'll be applied twice.
+        // The edits are in the file now, otherwise they'll be applied twice.
+        _bmp = edited;
+        _pipeline.reset();
+        _overlay.setSelection(0);
     }
 
     private void callExternalEditor() {
@@ -305,7 +402,10 @@ public class EditImageActivity extends AppCompatActivity {
         }
 
         try {
-            setBitmap(MediaStore.Images.Media.getBitmap(getContentResolver(), uri));
+            Bitmap bmp = decode(uri);
+            // The edited image already contains everything.
+            _pipeline.reset();
+            setBitmap(bmp);
         } catch (IOException e) {
             showToast("Error loading the new image");
             log.e("cannot load edited image", e);
@@ -29,17 +29,15 @@ import android.content.Intent;
 import android.content.IntentSender;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.graphics.Canvas;
-import android.graphics.Paint;
 import android.graphics.Typeface;
 import android.graphics.drawable.AnimationDrawable;
 import android.net.Uri;
 import android.os.Bundle;
-import android.provider.MediaStore;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.widget.Toast;
 
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.app.AppCompatDelegate;
 import androidx.appcompat.widget.Toolbar;
@@ -48,20 +46,34 @@ import androidx.core.view.MenuCompat;
 import androidx.viewpager.widget.ViewPager;
 
 import com.github.lorentz83.alps.communication.Protocol;
+import com.github.lorentz83.alps.sources.GeneratorColumnSource;
+import com.github.lorentz83.alps.sources.GifColumnSource;
+import com.github.lorentz83.alps.sources.PaintGlyphRenderer;
+import com.github.lorentz83.alps.sources.PatternGenerator;
+import com.github.lorentz83.alps.sources.TextColumnSource;
 import com.github.lorentz83.alps.ui.AboutWindow;
 import com.github.lorentz83.alps.ui.ColorPicker;
 import com.github.lorentz83.alps.ui.MyPagerAdapter;
 import com.github.lorentz83.alps.ui.ReshowSettingsDialog;
+import com.github.lorentz83.alps.ui.fragments.PreviewFragment;
+import com.github.lorentz83.alps.utils.BitmapLoader;
 import com.github.lorentz83.alps.utils.BluetoothHelper;
 import com.github.lorentz83.alps.utils.CustomTextResult;
+import com.github.lorentz83.alps.utils.GifDecoder;
 import com.github.lorentz83.alps.utils.LogUtility;
 import com.google.android.material.tabs.TabLayout;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
 
 
 public class MainActivity extends AppCompatActivity {
@@ -71,6 +83,9 @@ public class MainActivity extends AppCompatActivity {
     private static final int REQUEST_CUSTOM_TEXT = 41;
     private static final int REQUEST_EDIT_IMAGE = 42;
 
+    // How long generated patterns are, in stick lengths. The patterns repeat seamlessly after it.
+    private static final double PATTERN_LENGTH = 4;
+
     private static final int REQUEST_ENABLE_BT = 871;
     private static final int SELECT_DEVICE_REQUEST_CODE = 872;
 
@@ -79,12 +94,21 @@ public class MainActivity extends AppCompatActivity {
 
     private BluetoothHelper _btHelper;
     private BluetoothSocket _socket = null;
+    // The sticks used together with the main one, in the order they were added.
+    private Map<BluetoothSocket, Protocol> _extraSticks = new LinkedHashMap<>();
+    // If the device being paired is an extra stick.
+    private boolean _addingStick = false;
     private Preferences _sharedPref;
     private MyPagerAdapter _myPagerAdapter;
     private MenuItem _actionBt;
     private ReshowSettingsDialog _reshowSettingsDialog;
 
     private File _editedFile = null;
+    // Incremented every time a new image is shown, an image decoded in background is shown
+    // only if no other image was shown in the meantime. Only accessed by the UI thread.
+    private int _imageRequest = 0;
+    // The pattern currently shown, it is read while the columns are sent.
+    private final AtomicReference<PatternGenerator> _pattern = new AtomicReference<>();
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -119,14 +143,12 @@ public class MainActivity extends AppCompatActivity {
 
         _colorPicker = new ColorPicker(this);
         _reshowSettingsDialog = new ReshowSettingsDialog(this, (pref)->{
-            BluetoothSocket dev = _sharedPref.getConnectedBluetooth();
-            if (dev == null) {
+            Protocol p = _sharedPref.getConnectedStick();
+            if (p == null) {
                 showToast("Bluetooth is disconnected");
                 return false;
             }
-            Protocol p = new Protocol();
             try {
-                p.initializeConnection(dev);
                 p.replaySettings(pref.delay, pref.brightness, pref.loop);
                 return true;
             } catch (IOException e) {
@@ -142,16 +164,37 @@ public class MainActivity extends AppCompatActivity {
         getMenuInflater().inflate(R.menu.menu_main, menu);
         MenuCompat.setGroupDividerEnabled(menu, true);
         _actionBt = menu.findItem(R.id.action_toggle_bt);
+        menu.findItem(R.id.action_mirror_sticks).setChecked(_sharedPref.getMirrorSticks());
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        // Generated images, like texts, have no bitmap to edit.
+        menu.findItem(R.id.action_edit_image).setEnabled(_myPagerAdapter.getPreviewFragment().getImage() != null);
+        return super.onPrepareOptionsMenu(menu);
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         int id = item.getItemId();
         switch (id) {
             case R.id.action_find_device:
+                _addingStick = false;
                 findNewDevice();
                 return true;
+            case R.id.action_add_stick:
+                _addingStick = true;
+                findNewDevice();
+                return true;
+            case R.id.action_forget_sticks:
+                _sharedPref.clearExtraBluetoothAddresses();
+                disconnectExtraSticks();
+                return true;
+            case R.id.action_mirror_sticks:
+                item.setChecked(!item.isChecked());
+                _sharedPref.setMirrorSticks(item.isChecked());
+                return true;
             case R.id.action_toggle_bt:
                 toggleBluetooth();
                 return true;
@@ -164,6 +207,9 @@ public class MainActivity extends AppCompatActivity {
             case R.id.action_fill_color:
                 colorPicker();
                 return true;
+            case R.id.action_pattern:
+                patternPicker();
+                return true;
             case R.id.action_reshow_settings:
                 _reshowSettingsDialog.show();
                 return true;
@@ -185,35 +231,60 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void colorPicker() {
-        _colorPicker.show(color -> {
-            Bitmap image = Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888);
-            Canvas canvas = new Canvas(image);
-            canvas.drawColor(color);
-            openImage(image);
-        });
+        _colorPicker.show(color -> showPattern(PatternGenerator.solid(color), 1));
     }
 
-    private void writeText(String text, int backgroundColor, int textColor, Typeface face) {
-        // https://stackoverflow.com/questions/8799290/convert-string-text-to-bitmap
-        float textSize = 300;
-
-        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
-        paint.setTextSize(textSize);
-        paint.setColor(textColor);
-        paint.setTextAlign(Paint.Align.LEFT);
-        paint.setTypeface(face);
-
-        float baseline = -paint.ascent(); // ascent() is negative
-        int width = (int) paint.measureText(text);
-        int height = (int) (baseline + paint.descent());
+    private void patternPicker() {
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_pattern)
+                .setItems(R.array.patterns, (dialog, which) -> showPattern(pattern(which), PATTERN_LENGTH))
+                .show();
+    }
 
-        Bitmap image = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    // Returns the pattern at the position in R.array.patterns.
+    // The periods divide PATTERN_LENGTH, so the patterns can be shown in loop.
+    private static PatternGenerator pattern(int which) {
+        switch (which) {
+            case 0:
+                return PatternGenerator.rainbow(PATTERN_LENGTH);
+            case 1:
+                return PatternGenerator.horizontalGradient(0xffff0000, 0xff0000ff, 2);
+            case 2:
+                return PatternGenerator.verticalGradient(0xffff8000, 0xff8000ff);
+            case 3:
+                return PatternGenerator.stripes(new int[]{0xffff0000, 0xffffffff, 0xff0000ff, 0xffffffff}, 0.25, true);
+            case 4:
+                return PatternGenerator.noise(0xff00ff80, 0.25, PATTERN_LENGTH, 1);
+            case 5:
+                return PatternGenerator.plasma(PATTERN_LENGTH);
+            default:
+                return PatternGenerator.sineBands(0xff00c0ff, 3, 1);
+        }
+    }
 
-        Canvas canvas = new Canvas(image);
-        canvas.drawColor(backgroundColor);
-        canvas.drawText(text, 0, baseline, paint);
+    /**
+     * Shows a generated pattern.
+     * <p>
+     * If a pattern is already being sent, it is replaced immediately.
+     *
+     * @param pattern the pattern to show.
+     * @param length  how long the image is, in stick lengths.
+     */
+    private void showPattern(PatternGenerator pattern, double length) {
+        _imageRequest++;
+        _pattern.set(pattern);
+        _myPagerAdapter.getPreviewFragment().setColumnSource((h, widthMultiplier) ->
+                new GeneratorColumnSource(_pattern::get, h, widthMultiplier, length));
+        _myPagerAdapter.switchToPreviewFragment();
+    }
 
-        openImage(image);
+    private void writeText(String text, int backgroundColor, int textColor, Typeface face) {
+        _imageRequest++;
+        // Each character is drawn once at the stick height and the text is streamed column by
+        // column, so its length doesn't matter.
+        _myPagerAdapter.getPreviewFragment().setColumnSource((h, widthMultiplier) ->
+                new TextColumnSource(text, h, new PaintGlyphRenderer(h, widthMultiplier, backgroundColor, textColor, face)));
+        _myPagerAdapter.switchToPreviewFragment();
     }
 
     private void launchOpenImageDialog() {
@@ -240,12 +311,25 @@ public class MainActivity extends AppCompatActivity {
             } catch (IOException e) {
                 log.w("error closing bluetooth", e);
             }
-            _sharedPref.setConnectedBluetooth(null);
+            _sharedPref.setConnectedStick(null);
             _socket = null;
         }
+        disconnectExtraSticks();
         _actionBt.setIcon(R.drawable.ic_bt_disconnected);
     }
 
+    private void disconnectExtraSticks() {
+        for (BluetoothSocket s : _extraSticks.keySet()) {
+            try {
+                s.close();
+            } catch (IOException e) {
+                log.w("error closing bluetooth", e);
+            }
+        }
+        _extraSticks = new LinkedHashMap<>();
+        _sharedPref.setExtraConnectedSticks(Collections.emptyList());
+    }
+
     private void connectBluetooth() {
         String btAddr = _sharedPref.getBluetoothAddress();
         if (btAddr.isEmpty()) {
@@ -290,9 +374,15 @@ public class MainActivity extends AppCompatActivity {
 
         _executor.execute(() -> {
             try {
-                _socket = _btHelper.connectDevice(device);
+                BluetoothSocket socket = _btHelper.connectDevice(device);
+                // The protocol is negotiated once per connection, here to keep it off the UI thread.
+                Protocol stick = connectStick(socket);
+                Map<BluetoothSocket, Protocol> extra = connectExtraSticks(_sharedPref.getExtraBluetoothAddresses());
                 runOnUiThread(() -> {
-                    _sharedPref.setConnectedBluetooth(_socket);
+                    _socket = socket;
+                    _sharedPref.setConnectedStick(stick);
+                    _extraSticks = extra;
+                    _sharedPref.setExtraConnectedSticks(new ArrayList<>(extra.values()));
                     _actionBt.setIcon(R.drawable.ic_bt_connected);
                 });
             } catch (IOException e) {
@@ -303,6 +393,59 @@ public class MainActivity extends AppCompatActivity {
         });
     }
 
+    // Runs in background, closes the socket if the stick doesn't answer.
+    private Protocol connectStick(BluetoothSocket socket) throws IOException {
+        Protocol p = new Protocol();
+        try {
+            p.initializeConnection(socket);
+        } catch (IOException e) {
+            try {
+                socket.close();
+            } catch (IOException ex) {
+                log.w("error closing bluetooth", ex);
+            }
+            throw e;
+        }
+        return p;
+    }
+
+    // Runs in background, the sticks which cannot be connected or negotiated are skipped.
+    private Map<BluetoothSocket, Protocol> connectExtraSticks(List<String> addrs) {
+        Map<BluetoothSocket, Protocol> sticks = new LinkedHashMap<>();
+        for (String addr : addrs) {
+            BluetoothDevice dev = _btHelper.getDevice(addr);
+            if (dev == null) {
+                showToast(String.format("The stick %s is not paired", addr));
+                continue;
+            }
+            try {
+                BluetoothSocket socket = _btHelper.connectDevice(dev);
+                sticks.put(socket, connectStick(socket));
+            } catch (IOException e) {
+                showToast(String.format("error connecting to the stick %s: %s", addr, e.getMessage()));
+                log.w("cannot connect to bluetooth", e);
+            }
+        }
+        return sticks;
+    }
+
+    private void addStick(BluetoothDevice device) {
+        _sharedPref.addExtraBluetoothAddress(device.getAddress());
+        if (_socket == null) {
+            // It will be connected together with the main stick.
+            return;
+        }
+        _executor.execute(() -> {
+            Map<BluetoothSocket, Protocol> added = connectExtraSticks(Collections.singletonList(device.getAddress()));
+            runOnUiThread(() -> {
+                Map<BluetoothSocket, Protocol> all = new LinkedHashMap<>(_extraSticks);
+                all.putAll(added);
+                _extraSticks = all;
+                _sharedPref.setExtraConnectedSticks(new ArrayList<>(all.values()));
+            });
+        });
+    }
+
     @Override
     public void onActivityResult(int requestCode, int resultCode, Intent data) {
         super.onActivityResult(requestCode, resultCode, data);
@@ -316,9 +459,14 @@ public class MainActivity extends AppCompatActivity {
                     BluetoothDevice deviceToPair =
                             data.getParcelableExtra(CompanionDeviceManager.EXTRA_DEVICE);
                     boolean newBond = deviceToPair.createBond();
+                    log.i("createBond = %s", newBond);
+                    if (_addingStick) {
+                        _addingStick = false;
+                        addStick(deviceToPair);
+                        break;
+                    }
                     _sharedPref.setBluetoothAddress(deviceToPair.getAddress());
 
-                    log.i("createBond = %s", newBond);
                     if ( !newBond ) {
                         connectBluetooth(deviceToPair);
                     }
@@ -340,12 +488,7 @@ public class MainActivity extends AppCompatActivity {
                     showToast("No image selected");
                     return;
                 }
-                try {
-                    openImage(data.getData());
-                } catch (IOException e) {
-                    log.w("cannot open image", e);
-                    showToast("Cannot open image");
-                }
+                openImage(data.getData());
                 log.i("open image: %d %s", resultCode, data.getData());
                 break;
             }
@@ -381,13 +524,66 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
-    public void openImage(Uri uri) throws IOException {
+    /**
+     * Opens the image and shows it in the preview.
+     * <p>
+     * The image is decoded in background, errors are shown in a toast.
+     *
+     * @param uri the image to open.
+     */
+    public void openImage(Uri uri) {
         log.i("opening image %s", uri);
-        // https://stackoverflow.com/questions/3879992/how-to-get-bitmap-from-an-uri
-        openImage(MediaStore.Images.Media.getBitmap(getContentResolver(), uri));
+        int request = ++_imageRequest;
+        _executor.execute(() -> {
+            try {
+                Runnable show = decodeImage(uri);
+                runOnUiThread(() -> {
+                    if (request == _imageRequest) {
+                        show.run();
+                        _myPagerAdapter.switchToPreviewFragment();
+                    }
+                });
+            } catch (IOException | OutOfMemoryError e) {
+                log.w("cannot open image", e);
+                showToast("Cannot open image");
+            }
+        });
+    }
+
+    // Runs in background, returns what to run on the UI thread to show the image.
+    private Runnable decodeImage(Uri uri) throws IOException {
+        BitmapFactory.Options bounds = BitmapLoader.readBounds(getContentResolver(), uri);
+        int w = bounds.outWidth;
+        int h = bounds.outHeight;
+        GifDecoder.StreamOpener opener = () -> getContentResolver().openInputStream(uri);
+        if ("image/gif".equals(bounds.outMimeType) && GifDecoder.isAnimated(opener)) {
+            log.i("animated GIF %dx%d", w, h);
+            // The frames are decoded while they are sent, one after the other.
+            return () -> _myPagerAdapter.getPreviewFragment().setColumnSource((len, widthMultiplier) ->
+                    new GifColumnSource(opener, w, h, len, widthMultiplier));
+        }
+        // No need to decode more pixels than the longest stick can show, the stick length can
+        // increase later without decoding the image again.
+        int sampleSize = BitmapLoader.sampleSizeForStick(w, h, BitmapLoader.MAX_STICK_LENGTH, 1);
+        if (w / sampleSize > BitmapLoader.MAX_DECODED_COLUMNS) {
+            // Too wide to keep it in memory, the stick gets it a strip at a time. The preview
+            // is decoded only as big as the stick shows it.
+            int previewSampleSize = BitmapLoader.sampleSizeForPreview(w, h);
+            log.i("large image %dx%d, preview sample size %d", w, h, previewSampleSize);
+            Bitmap preview = BitmapLoader.decodeSampled(getContentResolver(), uri, previewSampleSize);
+            return () -> _myPagerAdapter.getPreviewFragment().setLargeImage(preview, uri, w, h);
+        }
+
+        log.i("image %dx%d, sample size %d", w, h, sampleSize);
+        // The size is a cheap check that the content behind the uri didn't change.
+        String sourceId = String.format("%s %dx%d/%d", uri, w, h, sampleSize);
+        // Not decoded if the image scaled with the current settings is already in the cache.
+        return () -> _myPagerAdapter.getPreviewFragment().setImage(
+                () -> BitmapLoader.decodeSampled(getContentResolver(), uri, sampleSize), sourceId);
     }
 
     private void openImage(Bitmap img) {
+        _imageRequest++;
         _myPagerAdapter.getPreviewFragment().setBitmap(img);
         _myPagerAdapter.switchToPreviewFragment();
     }
@@ -414,9 +610,9 @@ public class MainActivity extends AppCompatActivity {
     private boolean editImage() {
         // TODO passing and reading back files to/from different activities is done already in EditImageActivity.
         // Remove some duplication.
-        Bitmap bmp = _myPagerAdapter.getPreviewFragment().getBitmap();
+        PreviewFragment.BitmapDecoder image = _myPagerAdapter.getPreviewFragment().getImage();
 
-        if (bmp == null) {
+        if (image == null) {
             log.w("nothing to edit");
             return false;
         }
@@ -424,25 +620,32 @@ public class MainActivity extends AppCompatActivity {
         // https://codestringz.com/share-intent-for-a-bitmap-without-saving-a-file/
         // https://stackoverflow.com/questions/15699299/android-edit-image-intent
 
+        // The image may not be decoded yet, and compressing it takes a while anyway.
+        _executor.execute(() -> {
+            File edited;
+            try {
+                Bitmap bmp = image.decode();
+                edited = getNewTempFile();
+                log.i("writing temporary file on %s", edited.getAbsolutePath());
+                FileOutputStream fos = new FileOutputStream(edited);
+                bmp.compress(Bitmap.CompressFormat.PNG, 100, fos);
+                fos.close();
+            } catch (IOException e) {
+                log.e("cannot write temporary file", e);
+                showToast("ERROR: writing temporary file");
+                return;
+            }
 
-        try {
-            _editedFile = getNewTempFile();
-            log.i("writing temporary file on %s", _editedFile.getAbsolutePath());
-            FileOutputStream fos = new FileOutputStream(_editedFile);
-            bmp.compress(Bitmap.CompressFormat.PNG, 100, fos);
-            fos.close();
-        } catch (IOException e) {
-            log.e("cannot write temporary file", e);
-            showToast("ERROR: writing temporary file");
-            return true;
-        }
-
-        Uri uri = FileProvider.getUriForFile(this, getPackageName() + ".provider", _editedFile);
+            runOnUiThread(() -> {
+                _editedFile = edited;
+                Uri uri = FileProvider.getUriForFile(this, getPackageName() + ".provider", _editedFile);
 
-        Intent intent = new Intent(this, EditImageActivity.class);
-        intent.setDataAndType(uri, "image/png");
-        log.i("sending uri %s, intent %s", uri, intent);
-        startActivityForResult(intent, REQUEST_EDIT_IMAGE);
+                Intent intent = new Intent(this, EditImageActivity.class);
+                intent.setDataAndType(uri, "image/png");
+                log.i("sending uri %s, intent %s", uri, intent);
+                startActivityForResult(intent, REQUEST_EDIT_IMAGE);
+            });
+        });
         return true;
     }
 }
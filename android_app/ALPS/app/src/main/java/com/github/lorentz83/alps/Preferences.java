@@ -20,12 +20,18 @@
 
 package com.github.lorentz83.alps;
 
-import android.bluetooth.BluetoothSocket;
 import android.content.SharedPreferences;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import com.github.lorentz83.alps.communication.Protocol;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 public class Preferences {
     private static final String STICK_LENGTH = "stick_length";
     private static final String BT_PAIRED_ADDRESS = "bt_paired_address";
@@ -35,11 +41,14 @@ public class Preferences {
     private static final String WIDTH_MULTIPLIER = "width_multiplier";
     private static final String USE_BILINEAR_FILTER = "use_bilinear_filter";
     private static final String ANTI_ALIASING = "anti_aliasing";
+    private static final String BT_EXTRA_ADDRESSES = "bt_extra_addresses";
+    private static final String MIRROR_STICKS = "mirror_sticks";
 
     private final SharedPreferences _sharedPref;
     private static Preferences _instance;
 
-    private BluetoothSocket _dev;
+    private Protocol _stick;
+    private List<Protocol> _extraSticks = Collections.emptyList();
 
     public Preferences(@NonNull SharedPreferences sharedPref) {
         _sharedPref = sharedPref;
@@ -54,6 +63,26 @@ public class Preferences {
         return _instance;
     }
 
+    /**
+     * Registers a callback to be invoked when any preference changes.
+     * <p>
+     * NOTE: the listener is stored as a weak reference, the caller must keep a reference to it.
+     *
+     * @param listener the callback to register.
+     */
+    public void registerOnChangeListener(@NonNull SharedPreferences.OnSharedPreferenceChangeListener listener) {
+        _sharedPref.registerOnSharedPreferenceChangeListener(listener);
+    }
+
+    /**
+     * Unregisters a callback previously registered with registerOnChangeListener.
+     *
+     * @param listener the callback to unregister.
+     */
+    public void unregisterOnChangeListener(@NonNull SharedPreferences.OnSharedPreferenceChangeListener listener) {
+        _sharedPref.unregisterOnSharedPreferenceChangeListener(listener);
+    }
+
     public void setWaitTimeMs(int ms) {
         SharedPreferences.Editor editor = _sharedPref.edit();
         editor.putInt(WAIT_TIME_MS, ms);
@@ -114,13 +143,76 @@ public class Preferences {
         return _sharedPref.getFloat(WIDTH_MULTIPLIER, 1);
     }
 
-    public void setConnectedBluetooth(@Nullable BluetoothSocket dev) {
-        _dev = dev;
+    /**
+     * Sets the connection to the main stick.
+     *
+     * @param stick the protocol, already initialized, or null if disconnected.
+     */
+    public void setConnectedStick(@Nullable Protocol stick) {
+        _stick = stick;
     }
 
     public @Nullable
-    BluetoothSocket getConnectedBluetooth() {
-        return _dev;
+    Protocol getConnectedStick() {
+        return _stick;
+    }
+
+    /**
+     * Returns the addresses of the sticks used together with the main one.
+     *
+     * @return the bluetooth addresses, in the order they were added.
+     */
+    public @NonNull List<String> getExtraBluetoothAddresses() {
+        String addrs = _sharedPref.getString(BT_EXTRA_ADDRESSES, "");
+        if (addrs.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return Arrays.asList(addrs.split(","));
+    }
+
+    public void addExtraBluetoothAddress(@NonNull String addr) {
+        List<String> addrs = new ArrayList<>(getExtraBluetoothAddresses());
+        if (addrs.contains(addr) || addr.equals(getBluetoothAddress())) {
+            return;
+        }
+        addrs.add(addr);
+        SharedPreferences.Editor editor = _sharedPref.edit();
+        editor.putString(BT_EXTRA_ADDRESSES, String.join(",", addrs));
+        editor.apply();
+    }
+
+    public void clearExtraBluetoothAddresses() {
+        SharedPreferences.Editor editor = _sharedPref.edit();
+        editor.remove(BT_EXTRA_ADDRESSES);
+        editor.apply();
+    }
+
+    /**
+     * Sets the connections to the sticks used together with the main one.
+     *
+     * @param sticks the protocols, already initialized, in the order of the sticks.
+     */
+    public void setExtraConnectedSticks(@NonNull List<Protocol> sticks) {
+        _extraSticks = Collections.unmodifiableList(new ArrayList<>(sticks));
+    }
+
+    public @NonNull List<Protocol> getExtraConnectedSticks() {
+        return _extraSticks;
+    }
+
+    /**
+     * Returns if all the sticks show the whole image, otherwise each shows a slice of it.
+     *
+     * @return true to mirror the image.
+     */
+    public boolean getMirrorSticks() {
+        return _sharedPref.getBoolean(MIRROR_STICKS, false);
+    }
+
+    public void setMirrorSticks(boolean val) {
+        SharedPreferences.Editor editor = _sharedPref.edit();
+        editor.putBoolean(MIRROR_STICKS, val);
+        editor.apply();
     }
 
     public boolean getUseBilinearFilter(){
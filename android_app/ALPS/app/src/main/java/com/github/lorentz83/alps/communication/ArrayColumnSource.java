@@ -0,0 +1,75 @@
+/**
+ *  Copyright 2020-2021 Lorenzo Bossi
+ *
+ *  This file is part of ALPS (Another Light Painting Stick).
+ *
+ *  ALPS is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  ALPS is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with ALPS.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.github.lorentz83.alps.communication;
+
+import androidx.annotation.NonNull;
+
+/**
+ * A ColumnSource which reads from an array of pixels already ordered in columns.
+ */
+public class ArrayColumnSource implements ColumnSource {
+    private final int _w;
+    private final int _h;
+    private final int[] _pixels;
+    private int _x = 0;
+
+    /**
+     * Creates the source.
+     *
+     * @param w the width of the image.
+     * @param h the height of the image.
+     * @param pixels the color of the pixels in ARGB format, ordered in columns.
+     * @throws IllegalArgumentException if the number of pixels is not aligned with the image size.
+     */
+    public ArrayColumnSource(int w, int h, @NonNull int[] pixels) {
+        if (pixels.length != w*h) {
+            throw new IllegalArgumentException("number of pixels doesn't match the image size");
+        }
+        _w = w;
+        _h = h;
+        _pixels = pixels;
+    }
+
+    @Override
+    public int getHeight() {
+        return _h;
+    }
+
+    @Override
+    public int getWidth() {
+        return _w;
+    }
+
+    @Override
+    public boolean nextColumn(@NonNull int[] column) {
+        if (_x >= _w) {
+            return false;
+        }
+        System.arraycopy(_pixels, _x * _h, column, 0, _h);
+        _x++;
+        return true;
+    }
+
+    @Override
+    public void rewind() {
+        _x = 0;
+    }
+}
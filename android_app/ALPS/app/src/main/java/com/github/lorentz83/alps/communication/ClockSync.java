@@ -0,0 +1,166 @@
+/**
+ *  Copyright 2020-2021 Lorenzo Bossi
+ *
+ *  This file is part of ALPS (Another Light Painting Stick).
+ *
+ *  ALPS is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  ALPS is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with ALPS.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.github.lorentz83.alps.communication;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Estimates the clock of the stick from the host clock, NTP style.
+ * <p>
+ * Each sample is a request sent at hostSend, answered with the stick time, and received at
+ * hostReceive. Assuming the request and the answer take the same time, the stick time
+ * corresponds to the middle of the round trip. The samples with the shortest round trip are the
+ * most accurate, the others are discarded. With samples spread over enough time, the drift
+ * between the clocks is estimated too.
+ */
+public class ClockSync {
+    // Samples kept, the oldest ones are dropped.
+    private static final int MAX_SAMPLES = 32;
+    // Below this time span, the drift can't be told from the noise of the round trips.
+    private static final long MIN_DRIFT_SPAN_MS = 1000;
+
+    private static class Sample {
+        final double host;
+        final double offset;
+        final long roundTrip;
+
+        Sample(double host, double offset, long roundTrip) {
+            this.host = host;
+            this.offset = offset;
+            this.roundTrip = roundTrip;
+        }
+    }
+
+    private final List<Sample> _samples = new ArrayList<>();
+
+    // The estimate: stick = host + _offset + _drift * (host - _origin).
+    private double _origin = 0;
+    private double _offset = 0;
+    private double _drift = 0;
+
+    /**
+     * Adds a measurement.
+     *
+     * @param hostSend    when the request was sent, in ms of the host clock.
+     * @param stick       the time returned by the stick, in ms of its clock.
+     * @param hostReceive when the answer was received, in ms of the host clock.
+     * @throws IllegalArgumentException if the answer is received before the request is sent.
+     */
+    public synchronized void addSample(long hostSend, long stick, long hostReceive) {
+        if (hostReceive < hostSend) {
+            throw new IllegalArgumentException("answer received before the request");
+        }
+        double mid = (hostSend + hostReceive) / 2.0;
+        _samples.add(new Sample(mid, stick - mid, hostReceive - hostSend));
+        if (_samples.size() > MAX_SAMPLES) {
+            _samples.remove(0);
+        }
+        estimate();
+    }
+
+    /**
+     * Returns if there is at least a sample.
+     *
+     * @return true if the stick time can be estimated.
+     */
+    public synchronized boolean isSynchronized() {
+        return !_samples.isEmpty();
+    }
+
+    /**
+     * Removes all the samples.
+     */
+    public synchronized void reset() {
+        _samples.clear();
+        _offset = 0;
+        _drift = 0;
+    }
+
+    /**
+     * Converts a time of the host clock to the stick clock.
+     *
+     * @param host the time in ms of the host clock.
+     * @return the time in ms of the stick clock.
+     */
+    public synchronized long toStick(long host) {
+        return Math.round(host + _offset + _drift * (host - _origin));
+    }
+
+    /**
+     * Returns the shortest round trip measured, which bounds the error of the estimate.
+     *
+     * @return the round trip in ms.
+     */
+    public synchronized long roundTrip() {
+        long min = Long.MAX_VALUE;
+        for (Sample s : _samples) {
+            min = Math.min(min, s.roundTrip);
+        }
+        return _samples.isEmpty() ? 0 : min;
+    }
+
+    /**
+     * Returns how fast the stick clock runs compared to the host one.
+     *
+     * @return the drift, for example 0.001 if the stick gains 1 ms every second.
+     */
+    public synchronized double drift() {
+        return _drift;
+    }
+
+    private void estimate() {
+        // Only the best half of the samples, with the shortest round trips.
+        List<Sample> best = new ArrayList<>(_samples);
+        Collections.sort(best, Comparator.comparingLong(s -> s.roundTrip));
+        best = best.subList(0, (best.size() + 1) / 2);
+
+        double minHost = Double.MAX_VALUE;
+        double maxHost = -Double.MAX_VALUE;
+        double meanHost = 0;
+        double meanOffset = 0;
+        for (Sample s : best) {
+            minHost = Math.min(minHost, s.host);
+            maxHost = Math.max(maxHost, s.host);
+            meanHost += s.host;
+            meanOffset += s.offset;
+        }
+        meanHost /= best.size();
+        meanOffset /= best.size();
+
+        double drift = 0;
+        if (maxHost - minHost >= MIN_DRIFT_SPAN_MS) {
+            // Least squares fit of the offset over time.
+            double num = 0;
+            double den = 0;
+            for (Sample s : best) {
+                num += (s.host - meanHost) * (s.offset - meanOffset);
+                den += (s.host - meanHost) * (s.host - meanHost);
+            }
+            drift = num / den;
+        }
+        _origin = meanHost;
+        _offset = meanOffset;
+        _drift = drift;
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ *  Copyright 2020-2021 Lorenzo Bossi
+ *
+ *  This file is part of ALPS (Another Light Painting Stick).
+ *
+ *  ALPS is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  ALPS is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with ALPS.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.github.lorentz83.alps.communication;
+
+import androidx.annotation.NonNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A source of columns to show on the stick.
+ * <p>
+ * Columns are pulled one at a time while they are sent, therefore the whole image doesn't need
+ * to be in memory and it can be generated on the fly or even be infinite.
+ * <p>
+ * The source is closed by whoever sends it, after the last column is sent.
+ */
+public interface ColumnSource extends Closeable {
+    /**
+     * Returned by getWidth when the number of columns is not known in advance.
+     */
+    int UNKNOWN_WIDTH = -1;
+
+    /**
+     * Returns the number of pixels of each column.
+     *
+     * @return the height of the image.
+     */
+    int getHeight();
+
+    /**
+     * Returns the number of columns.
+     *
+     * @return the width of the image, or UNKNOWN_WIDTH if it is not known in advance or infinite.
+     */
+    int getWidth();
+
+    /**
+     * Reads the next column.
+     *
+     * @param column where to write the color of the pixels in ARGB format, it is getHeight() long.
+     *               The 1st pixel is the bottom of the image.
+     * @return false if there are no more columns, in this case column is not modified.
+     * @throws IOException if the column cannot be read.
+     */
+    boolean nextColumn(@NonNull int[] column) throws IOException;
+
+    /**
+     * Restarts from the 1st column.
+     * <p>
+     * It is used to show the image in loop.
+     *
+     * @throws IOException if the source cannot be restarted.
+     */
+    void rewind() throws IOException;
+
+    /**
+     * Releases the resources used to read the columns.
+     * <p>
+     * By default there is nothing to release.
+     *
+     * @throws IOException in case of error.
+     */
+    @Override
+    default void close() throws IOException {}
+}
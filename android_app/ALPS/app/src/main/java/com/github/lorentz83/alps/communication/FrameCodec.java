@@ -0,0 +1,219 @@
+/**
+ *  Copyright 2020-2021 Lorenzo Bossi
+ *
+ *  This file is part of ALPS (Another Light Painting Stick).
+ *
+ *  ALPS is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  ALPS is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with ALPS.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.github.lorentz83.alps.communication;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.zip.CRC32;
+
+/**
+ * Encodes and decodes the frames of the V3 protocol.
+ * <p>
+ * A frame is a flag, a header (sequence number, length of the payload in little endian, check
+ * byte), the payload, and another flag. The flag never appears in between, because the header
+ * and the payload are escaped. Therefore whatever happens on the wire, the next flag is always
+ * the boundary of a frame.
+ * <p>
+ * The frames sent by the host end with the crc32 of the payload, so the stick can reject a
+ * corrupted batch before showing it. The answers don't, the host checks them anyway.
+ */
+final class FrameCodec {
+    static final int FLAG = 0x7E;
+    static final int ESCAPE = 0x7D;
+
+    // The largest payload which fits in the length field.
+    static final int MAX_PAYLOAD = 0xFFFF;
+
+    // Returned by readUnescaped when it finds a flag.
+    private static final int END = -1;
+
+    // Passed to readFrame to wait for a frame as long as it takes.
+    static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    private FrameCodec() {
+    }
+
+    /**
+     * Returns the size of the buffer needed to encode a payload.
+     *
+     * @param len the length of the payload.
+     * @return the maximum length of the frame, if every byte is escaped.
+     */
+    static int maxFrameLength(int len) {
+        return 2 * (len + 8) + 2;
+    }
+
+    static byte headerCheck(int seq, int len) {
+        return (byte) ~(seq + (len & 0xFF) + (len >> 8 & 0xFF));
+    }
+
+    /**
+     * Writes a frame.
+     *
+     * @param seq the sequence number, only the lowest 8 bits are used.
+     * @param payload the message.
+     * @param len the length of the message.
+     * @param withCrc if the frame ends with the crc32 of the message.
+     * @param out where to write the frame, at least maxFrameLength(len) long.
+     * @return the length of the frame.
+     * @throws IllegalArgumentException if the payload is too long.
+     */
+    static int encode(int seq, byte[] payload, int len, boolean withCrc, byte[] out) {
+        if (len > MAX_PAYLOAD) {
+            throw new IllegalArgumentException("payload too long: " + len);
+        }
+        int idx = 0;
+        out[idx++] = FLAG;
+        idx = escape(seq, out, idx);
+        idx = escape(len, out, idx);
+        idx = escape(len >> 8, out, idx);
+        idx = escape(headerCheck(seq, len), out, idx);
+        for (int i = 0; i < len; i++) {
+            idx = escape(payload[i], out, idx);
+        }
+        if (withCrc) {
+            CRC32 crc = new CRC32();
+            crc.update(payload, 0, len);
+            long v = crc.getValue();
+            for (int i = 0; i < 4; i++) {
+                idx = escape((int) v, out, idx);
+                v >>= 8;
+            }
+        }
+        out[idx++] = FLAG;
+        return idx;
+    }
+
+    private static int escape(int b, byte[] out, int idx) {
+        b &= 0xFF;
+        if (b == FLAG || b == ESCAPE) {
+            out[idx++] = ESCAPE;
+            b ^= 0x20;
+        }
+        out[idx++] = (byte) b;
+        return idx;
+    }
+
+    /**
+     * Blocks until a valid frame without crc, with a payload of the given length, is received.
+     * <p>
+     * Broken frames, and frames of another length, are skipped.
+     *
+     * @param in where to read from.
+     * @param payload filled with the payload of the frame.
+     * @return the sequence number of the frame.
+     * @throws IOException in case of IO error.
+     * @throws EOFException if the stream closes.
+     */
+    static int readFrame(InputStream in, byte[] payload) throws IOException {
+        return readFrame(in, payload, NO_DEADLINE);
+    }
+
+    /**
+     * Waits until a valid frame without crc, with a payload of the given length, is received.
+     * <p>
+     * Broken frames, and frames of another length, are skipped. Since a broken frame is never
+     * answered, the deadline is the only way to know that it was lost.
+     *
+     * @param in where to read from.
+     * @param payload filled with the payload of the frame.
+     * @param deadline when to give up, in ms of System.nanoTime, or NO_DEADLINE.
+     * @return the sequence number of the frame.
+     * @throws IOException in case of IO error.
+     * @throws EOFException if the stream closes.
+     * @throws ProtocolException if the deadline passes.
+     */
+    static int readFrame(InputStream in, byte[] payload, long deadline) throws IOException {
+        boolean flagSeen = false;
+        frames:
+        while (true) {
+            if (!flagSeen) {
+                while (readByte(in, deadline) != FLAG) {
+                    // Skip what is left of a broken frame.
+                }
+            }
+            flagSeen = false;
+
+            int[] header = new int[4];
+            for (int i = 0; i < header.length; ) {
+                int c = readUnescaped(in, deadline);
+                if (c == END) {
+                    // Consecutive flags, the frame starts after the last one.
+                    i = 0;
+                    continue;
+                }
+                header[i++] = c;
+            }
+            int seq = header[0];
+            int len = header[1] | header[2] << 8;
+            if ((byte) header[3] != headerCheck(seq, len) || len != payload.length) {
+                continue;
+            }
+            for (int i = 0; i < len; i++) {
+                int c = readUnescaped(in, deadline);
+                if (c == END) {
+                    // Too short, the flag can be the beginning of the next frame.
+                    flagSeen = true;
+                    continue frames;
+                }
+                payload[i] = (byte) c;
+            }
+            if (readUnescaped(in, deadline) == END) {
+                return seq;
+            }
+        }
+    }
+
+    private static int readUnescaped(InputStream in, long deadline) throws IOException {
+        int c = readByte(in, deadline);
+        if (c == ESCAPE) {
+            c = readByte(in, deadline);
+            if (c != FLAG) {
+                return c ^ 0x20;
+            }
+        }
+        return c == FLAG ? END : c;
+    }
+
+    private static int readByte(InputStream in, long deadline) throws IOException {
+        if (deadline != NO_DEADLINE) {
+            // The streams of a bluetooth socket have no read timeout.
+            while (in.available() == 0) {
+                if (System.nanoTime() / 1_000_000 >= deadline) {
+                    throw new ProtocolException("answer timed out");
+                }
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted while waiting for the answer");
+                }
+            }
+        }
+        int c = in.read();
+        if (c < 0) {
+            throw new EOFException();
+        }
+        return c;
+    }
+}
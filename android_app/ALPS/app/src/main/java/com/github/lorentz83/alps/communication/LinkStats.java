@@ -0,0 +1,112 @@
+/**
+ *  Copyright 2020-2021 Lorenzo Bossi
+ *
+ *  This file is part of ALPS (Another Light Painting Stick).
+ *
+ *  ALPS is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  ALPS is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with ALPS.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.github.lorentz83.alps.communication;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts how the messages sent to the stick went.
+ */
+public class LinkStats {
+    private final AtomicLong _messages = new AtomicLong();
+    private final AtomicLong _retries = new AtomicLong();
+    private final AtomicLong _failures = new AtomicLong();
+    private final AtomicLong _pixelBytes = new AtomicLong();
+    private final AtomicLong _wireBytes = new AtomicLong();
+
+    void messageSent() {
+        _messages.incrementAndGet();
+    }
+
+    void retried() {
+        _retries.incrementAndGet();
+    }
+
+    void failed() {
+        _failures.incrementAndGet();
+    }
+
+    /**
+     * Counts a batch of columns.
+     *
+     * @param pixelBytes the length of the columns.
+     * @param wireBytes how many bytes have been sent for them, less if compressed.
+     */
+    void batchSent(int pixelBytes, int wireBytes) {
+        _pixelBytes.addAndGet(pixelBytes);
+        _wireBytes.addAndGet(wireBytes);
+    }
+
+    /**
+     * Adds the counters of other to these ones.
+     *
+     * @param other the counters to add.
+     */
+    void add(LinkStats other) {
+        _messages.addAndGet(other.getMessages());
+        _retries.addAndGet(other.getRetries());
+        _failures.addAndGet(other.getFailures());
+        _pixelBytes.addAndGet(other.getPixelBytes());
+        _wireBytes.addAndGet(other.getWireBytes());
+    }
+
+    /**
+     * Returns how many messages have been acknowledged.
+     */
+    public long getMessages() {
+        return _messages.get();
+    }
+
+    /**
+     * Returns how many times a message has been sent again because it got lost or corrupted.
+     */
+    public long getRetries() {
+        return _retries.get();
+    }
+
+    /**
+     * Returns how many messages failed even after the retries.
+     */
+    public long getFailures() {
+        return _failures.get();
+    }
+
+    /**
+     * Returns the length of the columns sent.
+     */
+    public long getPixelBytes() {
+        return _pixelBytes.get();
+    }
+
+    /**
+     * Returns how many bytes have been sent for the columns, less than getPixelBytes if they
+     * have been compressed.
+     */
+    public long getWireBytes() {
+        return _wireBytes.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d messages, %d retries, %d failures, %d/%d pixel bytes sent",
+                getMessages(), getRetries(), getFailures(), getWireBytes(), getPixelBytes());
+    }
+}
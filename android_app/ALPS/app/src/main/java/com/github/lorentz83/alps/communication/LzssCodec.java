@@ -0,0 +1,276 @@
+/**
+ *  Copyright 2020-2021 Lorenzo Bossi
+ *
+ *  This file is part of ALPS (Another Light Painting Stick).
+ *
+ *  ALPS is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  ALPS is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with ALPS.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.github.lorentz83.alps.communication;
+
+import java.util.Arrays;
+
+/**
+ * Compresses the batches of columns with a LZSS variant small enough to be decoded by the stick.
+ * <p>
+ * The data is a sequence of groups: a control byte, and 8 tokens, one for each bit of the
+ * control byte starting from the least significant. If the bit is 1 the token is a literal
+ * byte, otherwise it is a match: 2 bytes with a distance (12 bits, the lowest 8 in the 1st
+ * byte) and a length minus 3 (4 bits, the highest of the 2nd byte). A match copies length bytes
+ * starting distance bytes back, which can overlap the bytes being written.
+ * <p>
+ * A match can go back only to the column before, so the stick needs just one more column of
+ * memory. Matches don't cross the end of a column, and the unused bits of the last control byte
+ * are ignored. The column before the 1st of a batch is the last column of the previous batch,
+ * or black for the 1st batch of an image.
+ * <p>
+ * A codec is used to compress or decompress the batches of a single image, in order, because
+ * it keeps the last column of the previous batch.
+ */
+final class LzssCodec {
+    static final int MIN_MATCH = 3;
+    static final int MAX_MATCH = MIN_MATCH + 0x0F;
+    static final int MAX_DISTANCE = 0x0FFF;
+
+    private static final int HASH_BITS = 12;
+    // How many older positions with the same hash are compared, to bound the time per byte.
+    private static final int MAX_CHAIN = 32;
+
+    private final int _maxColLen;
+    // The previous column, followed by the column being compressed.
+    private final byte[] _window;
+    private final int[] _head = new int[1 << HASH_BITS];
+    private final int[] _chain;
+    private final byte[] _history;
+    private int _historyLen = 0;
+
+    /**
+     * Allocates the memory to compress columns up to the given length.
+     *
+     * @param maxColLen the maximum length of a column in bytes.
+     * @throws IllegalArgumentException if a column is too long for the distance field.
+     */
+    LzssCodec(int maxColLen) {
+        if (maxColLen <= 0 || 2 * maxColLen > MAX_DISTANCE + 1) {
+            throw new IllegalArgumentException("invalid column length: " + maxColLen);
+        }
+        _maxColLen = maxColLen;
+        _window = new byte[2 * maxColLen];
+        _chain = new int[2 * maxColLen];
+        _history = new byte[maxColLen];
+    }
+
+    /**
+     * Forgets the previous batch, for a new image.
+     */
+    void reset() {
+        _historyLen = 0;
+    }
+
+    /**
+     * Compresses a batch of columns, one column at a time, without allocating memory.
+     * <p>
+     * The last column is remembered for the next batch, even if the batch doesn't shrink and it
+     * is sent as it is: the stick remembers it too.
+     *
+     * @param src the columns, one after the other.
+     * @param off the index of the 1st byte of the columns.
+     * @param cols the number of columns.
+     * @param colLen the length of a column in bytes.
+     * @param dst where to write the compressed data, at least cols * colLen bytes.
+     * @param dstOff where to start writing.
+     * @return the length of the compressed data, or -1 if it is not shorter than the columns.
+     * @throws IllegalArgumentException if the columns are too long.
+     */
+    int compress(byte[] src, int off, int cols, int colLen, byte[] dst, int dstOff) {
+        checkColumnLength(colLen);
+        int end = dstOff + cols * colLen;
+        int out = dstOff;
+        int ctrl = -1; // The index of the current control byte.
+        int bit = 8;
+        boolean shrinks = true;
+
+        for (int c = 0; c < cols && shrinks; c++) {
+            loadWindow(src, off + c * colLen, c == 0 ? null : src, off + (c - 1) * colLen, colLen);
+            for (int p = 0; p < colLen; ) {
+                // Room for a control byte and a match, leaving the output shorter than the input.
+                if (out + 3 >= end) {
+                    shrinks = false;
+                    break;
+                }
+                if (bit == 8) {
+                    ctrl = out++;
+                    dst[ctrl] = 0;
+                    bit = 0;
+                }
+                int cur = colLen + p;
+                int best = 0;
+                int bestDist = 0;
+                if (cur + MIN_MATCH <= 2 * colLen) {
+                    int maxLen = Math.min(MAX_MATCH, colLen - p);
+                    int depth = 0;
+                    for (int cand = _head[hash(cur)]; cand >= 0 && depth < MAX_CHAIN; cand = _chain[cand], depth++) {
+                        int len = 0;
+                        while (len < maxLen && _window[cand + len] == _window[cur + len]) {
+                            len++;
+                        }
+                        if (len > best) {
+                            best = len;
+                            bestDist = cur - cand;
+                            if (len == maxLen) {
+                                break;
+                            }
+                        }
+                    }
+                }
+                if (best >= MIN_MATCH) {
+                    dst[out++] = (byte) bestDist;
+                    dst[out++] = (byte) (bestDist >> 8 | (best - MIN_MATCH) << 4);
+                } else {
+                    best = 1;
+                    dst[ctrl] |= 1 << bit;
+                    dst[out++] = _window[cur];
+                }
+                bit++;
+                for (int i = 0; i < best; i++) {
+                    insert(cur + i, colLen);
+                }
+                p += best;
+            }
+        }
+
+        uncompressed(src, off, cols, colLen);
+        return shrinks ? out - dstOff : -1;
+    }
+
+    /**
+     * Remembers the last column of a batch sent as it is, the next batch can refer to it.
+     *
+     * @param src the columns, one after the other.
+     * @param off the index of the 1st byte of the columns.
+     * @param cols the number of columns.
+     * @param colLen the length of a column in bytes.
+     */
+    void uncompressed(byte[] src, int off, int cols, int colLen) {
+        checkColumnLength(colLen);
+        if (cols > 0) {
+            System.arraycopy(src, off + (cols - 1) * colLen, _history, 0, colLen);
+            _historyLen = colLen;
+        }
+    }
+
+    /**
+     * Decompresses a batch of columns, like the stick does.
+     *
+     * @param src the compressed data.
+     * @param off the index of the 1st byte of the compressed data.
+     * @param len the length of the compressed data.
+     * @param cols the number of columns.
+     * @param colLen the length of a column in bytes.
+     * @param dst where to write the columns, one after the other.
+     * @param dstOff where to start writing.
+     * @return how many bytes of compressed data are used.
+     * @throws ProtocolException if the data is corrupted.
+     * @throws IllegalArgumentException if the columns are too long.
+     */
+    int decompress(byte[] src, int off, int len, int cols, int colLen, byte[] dst, int dstOff) throws ProtocolException {
+        checkColumnLength(colLen);
+        int in = off;
+        int end = off + len;
+        int ctrl = 0;
+        int bit = 8;
+
+        for (int c = 0; c < cols; c++) {
+            int col = dstOff + c * colLen;
+            for (int p = 0; p < colLen; ) {
+                if (bit == 8) {
+                    if (in >= end) {
+                        throw new ProtocolException("compressed data too short");
+                    }
+                    ctrl = src[in++];
+                    bit = 0;
+                }
+                boolean literal = (ctrl >> bit++ & 1) != 0;
+                if (literal) {
+                    if (in >= end) {
+                        throw new ProtocolException("compressed data too short");
+                    }
+                    dst[col + p++] = src[in++];
+                    continue;
+                }
+                if (in + 2 > end) {
+                    throw new ProtocolException("compressed data too short");
+                }
+                int dist = (src[in] & 0xFF) | (src[in + 1] & 0x0F) << 8;
+                int n = ((src[in + 1] & 0xFF) >> 4) + MIN_MATCH;
+                in += 2;
+                if (dist == 0 || dist > p + colLen || n > colLen - p) {
+                    throw new ProtocolException("invalid match " + dist + "," + n + " at " + p);
+                }
+                for (; n > 0; n--, p++) {
+                    dst[col + p] = dist <= p ? dst[col + p - dist] : previous(dst, col, colLen, c, p - dist);
+                }
+            }
+        }
+
+        uncompressed(dst, dstOff, cols, colLen);
+        return in - off;
+    }
+
+    // Returns the byte of the column before, idx is negative.
+    private byte previous(byte[] dst, int col, int colLen, int c, int idx) {
+        if (c > 0) {
+            return dst[col + idx];
+        }
+        return _historyLen == colLen ? _history[colLen + idx] : 0;
+    }
+
+    private void checkColumnLength(int colLen) {
+        if (colLen <= 0 || colLen > _maxColLen) {
+            throw new IllegalArgumentException("invalid column length: " + colLen);
+        }
+    }
+
+    // Copies the previous column and the current one in the window, and indexes the previous one.
+    private void loadWindow(byte[] src, int colOff, byte[] prev, int prevOff, int colLen) {
+        if (prev != null) {
+            System.arraycopy(prev, prevOff, _window, 0, colLen);
+        } else if (_historyLen == colLen) {
+            System.arraycopy(_history, 0, _window, 0, colLen);
+        } else {
+            // The stick starts from a black column.
+            Arrays.fill(_window, 0, colLen, (byte) 0);
+        }
+        System.arraycopy(src, colOff, _window, colLen, colLen);
+        Arrays.fill(_head, -1);
+        for (int i = 0; i < colLen; i++) {
+            insert(i, colLen);
+        }
+    }
+
+    private void insert(int pos, int colLen) {
+        if (pos + MIN_MATCH > 2 * colLen) {
+            return;
+        }
+        int h = hash(pos);
+        _chain[pos] = _head[h];
+        _head[h] = pos;
+    }
+
+    private int hash(int pos) {
+        int v = (_window[pos] & 0xFF) << 16 | (_window[pos + 1] & 0xFF) << 8 | (_window[pos + 2] & 0xFF);
+        return (v * 0x9E3779B1) >>> (32 - HASH_BITS);
+    }
+}
@@ -28,7 +28,9 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.function.IntConsumer;
+import java.util.function.Supplier;
 import java.util.zip.CRC32;
 
 /**
@@ -42,12 +44,67 @@ public class Protocol {
     private static final byte OFF = 'o';
     private static final byte NEW_IMAGE = 'n';
     private static final byte CONTINUE_IMAGE = 'c';
+    private static final byte BRIGHTNESS = 'b';
+    private static final byte TIME_SYNC = 't';
+    private static final byte ANCHOR = 'a';
+    private static final byte FRAMING = 'f';
+    private static final byte PACKED_NEW_IMAGE = 'N';
+    private static final byte PACKED_CONTINUE_IMAGE = 'C';
+    private static final byte REPEAT_COUNTS = 'r';
+    private static final byte SUBSAMPLING = 'v';
+
+    // Bits of the features bitset returned by info.
+    private static final int FEATURE_BRIGHTNESS = 1 << 1;
+    private static final int FEATURE_TIME_SYNC = 1 << 2;
+    private static final int FEATURE_FRAMING = 1 << 3;
+    private static final int FEATURE_COMPRESSION = 1 << 4;
+    private static final int FEATURE_REPEAT_COUNTS = 1 << 5;
+    private static final int FEATURE_SUBSAMPLING = 1 << 6;
+
+    // Time sync exchanges done when connecting.
+    private static final int SYNC_SAMPLES = 8;
+    // Extra time given to the 1st batch to reach the stick before its 1st column is due.
+    private static final long SCHEDULE_LEAD_MS = 20;
+    // How many times a message is sent again if it gets lost or corrupted.
+    private static final int MAX_RETRIES = 3;
+    // The repeat count of a column fits in a byte.
+    private static final int MAX_REPEAT = 255;
+    // How long to wait for an answer before sending the message again, twice the time the
+    // stick waits for the missing bytes of a frame before rejecting it.
+    private static final long REPLY_TIMEOUT_MS = 2000;
+    // Upper bound of the time the stick takes to show a column, 254 pixels at 800 kHz.
+    private static final long COLUMN_SHOW_MS = 8;
 
     private final CRC32 _crc = new CRC32();
     private byte[] _buf = new byte[255*3+2];
 
     private int _maxPixels = 144;
     private int _maxCols = 1;
+    private int _features = 0;
+
+    private final ClockSync _clock = new ClockSync();
+
+    // V3 framing, enabled when the stick supports it.
+    private boolean _framingAllowed = true;
+    private boolean _framed = false;
+    private int _seq = 0;
+    private byte[] _frame = new byte[0];
+    private final byte[] _reply = new byte[5];
+    private final byte[] _anchor = new byte[5];
+
+    // Batches are compressed when the stick supports it, and when they shrink.
+    private boolean _compressionAllowed = true;
+    private LzssCodec _codec = null;
+    private byte[] _packed = new byte[0];
+
+    // Identical consecutive columns are sent once, with the number of times to show them.
+    private boolean _repeats = false;
+    // Columns without vertical details are sent at 1/2 or 1/3 of their height, the mode is in
+    // the header of each batch.
+    private boolean _subsamplingAllowed = true;
+    private boolean _subsampling = false;
+
+    private final LinkStats _stats = new LinkStats();
 
     /**
      * Initializes the protocol.
@@ -84,6 +141,22 @@ public class Protocol {
 
         try {
             info();
+            // The longest batch is a new image header, with the subsampling mode, and the columns
+            // with their repeat counts.
+            if (_framingAllowed && hasFeature(FEATURE_FRAMING)
+                    && _maxCols * (_maxPixels * 3 + 1) + 5 <= FrameCodec.MAX_PAYLOAD) {
+                enableFraming();
+            }
+            if (hasFeature(FEATURE_REPEAT_COUNTS)) {
+                enableRepeatCounts();
+            }
+            if (_subsamplingAllowed && hasFeature(FEATURE_SUBSAMPLING)) {
+                enableSubsampling();
+            }
+            _clock.reset();
+            if (hasFeature(FEATURE_TIME_SYNC)) {
+                syncClock(SYNC_SAMPLES);
+            }
         } catch (IOException e) {
             // In case of protocol negotiation error, reset the streams.
             _in = new NoInputStream();
@@ -92,7 +165,40 @@ public class Protocol {
         }
     }
 
+    /**
+     * Keeps using the V2 protocol even if the stick supports V3, must be called before connecting.
+     * <p>
+     * Only useful to compare the 2 in tests.
+     */
+    void disableFraming() {
+        _framingAllowed = false;
+    }
+
+    /**
+     * Always sends the columns uncompressed, even if the stick supports the compression, must be
+     * called before connecting.
+     * <p>
+     * Only useful to compare the 2 in tests.
+     */
+    void disableCompression() {
+        _compressionAllowed = false;
+    }
+
+    /**
+     * Always sends the columns at full height, even if the stick can rebuild subsampled ones,
+     * must be called before connecting.
+     * <p>
+     * Only useful in tests which need to know the length of the messages.
+     */
+    void disableSubsampling() {
+        _subsamplingAllowed = false;
+    }
+
     private void info() throws IOException {
+        // A stick which was talking V3 with the previous host goes back to V2 with info.
+        _framed = false;
+        _repeats = false;
+        _subsampling = false;
         _buf[0] = INFO;
         _out.write(_buf, 0, 1);
         _out.flush();
@@ -101,15 +207,20 @@ public class Protocol {
         if ( _buf[0] != '!' ) {
             throw new ProtocolException("be sure the stick and the app are on the same version");
         }
-        // _buf[1] we don't support any extension
+        _features = _buf[1] & 0xFF;
         // _buf[2] is unused
         _maxPixels = _buf[3] & 0xFF; // Otherwise it considers buf as a signed byte.
         _maxCols = _buf[4] & 0xFF;
-        int requiredLen = _maxCols * _maxPixels * 3 + 10; // extra space for headers.
+        int requiredLen = _maxCols * (_maxPixels * 3 + 1) + 10; // extra space for headers and repeat counts.
 
         if ( _buf.length < requiredLen) {
             _buf = new byte[requiredLen];
         }
+        _codec = null;
+        if (_compressionAllowed && hasFeature(FEATURE_COMPRESSION) && _maxPixels > 0) {
+            _codec = new LzssCodec(_maxPixels * 3 + 1);
+            _packed = new byte[_buf.length];
+        }
     }
 
 
@@ -133,15 +244,74 @@ public class Protocol {
         }
     }
 
-    private void waitAck() throws IOException {
-        // TODO we should add a timeout here.
-        byte[] buf = new byte[5];
+    /**
+     * Enables the V3 framing, every message from now on is sent and received in a frame.
+     *
+     * @throws IOException in case of error.
+     */
+    private void enableFraming() throws IOException {
+        _buf[0] = FRAMING;
+        _buf[1] = 3; // Version.
+        sendAndWaitForAck(_buf, 2);
+        _framed = true;
+    }
 
-        try {
+    /**
+     * Tells the stick that each column starts with the number of times to show it.
+     *
+     * @throws IOException in case of error.
+     */
+    private void enableRepeatCounts() throws IOException {
+        _buf[0] = REPEAT_COUNTS;
+        _buf[1] = 1;
+        sendAndWaitForAck(_buf, 2);
+        _repeats = true;
+    }
+
+    /**
+     * Tells the stick that the header of each batch carries its subsampling mode.
+     *
+     * @throws IOException in case of error.
+     */
+    private void enableSubsampling() throws IOException {
+        _buf[0] = SUBSAMPLING;
+        _buf[1] = 1;
+        sendAndWaitForAck(_buf, 2);
+        _subsampling = true;
+    }
+
+    /**
+     * Blocks until the 5 bytes answer to the last message is received.
+     * <p>
+     * With the framing, answers to older messages are skipped, and a broken answer is never
+     * received: after the timeout the message is considered lost.
+     *
+     * @param buf where to copy the answer.
+     * @param timeoutMs how long to wait for the answer, only with the framing.
+     * @throws IOException in case of IO error.
+     * @throws ProtocolException if the answer doesn't arrive in time.
+     */
+    private void readReply(byte[] buf, long timeoutMs) throws IOException {
+        if (!_framed) {
             readFully(buf, 5);
+            return;
+        }
+        long deadline = now() + timeoutMs;
+        while (FrameCodec.readFrame(_in, buf, deadline) != _seq) {
+            // Late answer to a message that already failed.
+        }
+    }
+
+    private void waitAck(long timeoutMs) throws IOException {
+        byte[] buf = _reply;
+
+        try {
+            readReply(buf, timeoutMs);
             if (buf[0] != 'o') {
-                // TODO at this point we should probably reset the bluetooth connection.
-                _in.skip(_in.available());
+                if (!_framed) {
+                    // TODO at this point we should probably reset the bluetooth connection.
+                    _in.skip(_in.available());
+                }
                 throw new ProtocolException("protocol error: " + new String(buf));
             }
 
@@ -159,15 +329,154 @@ public class Protocol {
         }
     }
 
+    /**
+     * Returns the host time used to synchronize the clocks.
+     *
+     * @return a monotonic time in ms.
+     */
+    private static long now() {
+        return System.nanoTime() / 1_000_000;
+    }
+
+    /**
+     * Measures the offset between the host clock and the stick clock.
+     * <p>
+     * Like info, the time sync message doesn't get an ack, the stick answers with its time.
+     * A lost or broken sample is taken again, with the framing.
+     *
+     * @param samples how many messages to exchange.
+     * @throws IOException in case of error.
+     */
+    private void syncClock(int samples) throws IOException {
+        byte[] buf = new byte[5];
+        for (int i = 0; i < samples; i++) {
+            for (int attempt = 0; ; attempt++) {
+                try {
+                    syncClockOnce(buf);
+                    break;
+                } catch (ProtocolException e) {
+                    if (!_framed || attempt == MAX_RETRIES) {
+                        throw e;
+                    }
+                }
+            }
+        }
+    }
+
+    private void syncClockOnce(byte[] buf) throws IOException {
+        buf[0] = TIME_SYNC;
+        long send = now();
+        sendOnly(buf, 1);
+        readReply(buf, REPLY_TIMEOUT_MS);
+        long receive = now();
+        if (buf[0] != 'T') {
+            if (!_framed) {
+                _in.skip(_in.available());
+            }
+            throw new ProtocolException("protocol error: " + new String(buf));
+        }
+        long stick = 0;
+        for (int j = 4; j >= 1; j--) {
+            stick = (stick << 8) + (buf[j] & 0xFF);
+        }
+        _clock.addSample(send, stick, receive);
+    }
+
+    /**
+     * Prepares the message which tells the stick when to show the 1st column of the next new image.
+     *
+     * @param stickTime the time in ms of the stick clock.
+     */
+    private void anchor(long stickTime) {
+        _anchor[0] = ANCHOR;
+        for (int i = 1; i <= 4; i++) {
+            _anchor[i] = (byte) stickTime; // The stick clock is 32 bits, it overflows.
+            stickTime >>= 8;
+        }
+    }
+
+    private boolean hasFeature(int feature) {
+        return (_features & feature) != 0;
+    }
+
     private void sendOnly(byte[] buf, int len) throws IOException {
+        if (_framed) {
+            _seq = (_seq + 1) & 0xFF;
+            if (_frame.length < FrameCodec.maxFrameLength(len)) {
+                _frame = new byte[FrameCodec.maxFrameLength(len)];
+            }
+            len = FrameCodec.encode(_seq, buf, len, true, _frame);
+            buf = _frame;
+        }
         _out.write(buf, 0, len);
         _out.flush();
     }
 
-    private void sendAndWaitForAck(byte[] buf, int len) throws IOException {
+    private void sendOnce(byte[] buf, int len) throws IOException {
+        sendOnce(buf, len, REPLY_TIMEOUT_MS);
+    }
+
+    /**
+     * Sends the message and waits for its ack.
+     *
+     * @param timeoutMs how long to wait for the ack, the stick acks a batch only after drawing
+     *                  some of its columns.
+     */
+    private void sendOnce(byte[] buf, int len, long timeoutMs) throws IOException {
         sendOnly(buf, len);
         _crc.update(buf, 0, len);
-        waitAck();
+        waitAck(timeoutMs);
+    }
+
+    private void sendAndWaitForAck(byte[] buf, int len) throws IOException {
+        sendAndWaitForAck(buf, len, REPLY_TIMEOUT_MS);
+    }
+
+    private void sendAndWaitForAck(byte[] buf, int len, long timeoutMs) throws IOException {
+        retrying(() -> sendOnce(buf, len, timeoutMs));
+    }
+
+    private interface Exchange {
+        void run() throws IOException;
+    }
+
+    /**
+     * Runs the exchange, and runs it again if the stick rejects it or doesn't answer in time.
+     * <p>
+     * Only with the framing the stick is still in sync after an error, and it drops the columns
+     * of a broken batch before showing any of them, so the same messages can be sent again.
+     * They are sent again with the same sequence numbers: if only the answer got lost, the
+     * stick recognizes the messages it already handled and acks them again without handling
+     * them twice.
+     *
+     * @param exchange the messages to send, it must send the same bytes every time.
+     * @throws IOException in case of error, or if the retries are over.
+     */
+    private void retrying(Exchange exchange) throws IOException {
+        int seq = _seq;
+        for (int attempt = 0; ; attempt++) {
+            try {
+                _seq = seq;
+                exchange.run();
+                _stats.messageSent();
+                return;
+            } catch (ProtocolException e) {
+                if (!_framed || attempt == MAX_RETRIES) {
+                    _stats.failed();
+                    throw e;
+                }
+                _stats.retried();
+            }
+        }
+    }
+
+    /**
+     * Returns the counters of the messages sent since the protocol was created.
+     *
+     * @return the live counters.
+     */
+    public LinkStats getStats() {
+        return _stats;
     }
 
     /**
@@ -183,6 +492,18 @@ public class Protocol {
         sendAndWaitForAck(_buf, 5);
     }
 
+    /**
+     * Sets the brightness applied by the stick to every pixel.
+     *
+     * @param scale between 0 (totally off) and 255 (full brightness).
+     * @throws IOException in case of error.
+     */
+    private void stickBrightness(int scale) throws IOException {
+        _buf[0] = BRIGHTNESS;
+        _buf[1] = (byte) scale;
+        sendAndWaitForAck(_buf, 2);
+    }
+
     /**
      * Shows the image on the stick.
      *
@@ -198,68 +519,300 @@ public class Protocol {
      * @throws InterruptedException if the thread gets interrupted.
      */
     public void showImage(int w, int h, int[] pixels, float brightness, int sleep, boolean loop, IntConsumer callback) throws IOException, InterruptedException {
+        ShowSettings settings = new ShowSettings(brightness, sleep);
+        showImage(w, h, pixels, () -> settings, loop, callback);
+    }
+
+    /**
+     * Shows the image on the stick, allowing to change brightness and delay while it is shown.
+     *
+     * @param w the width of the image.
+     * @param h the height of the image.
+     * @param pixels the color of the pixels in ARGB format, ordered in columns.
+     * @param settings called before every batch of columns to get the current brightness and delay.
+     * @param loop if the image must be repeated in loop (if true this function never returns, send an interrupt to the thread to block it with an InterruptedException)
+     * @param callback if non null, this predicate is called with the number of the last column sent.
+     * @throws IOException in case of error.
+     * @throws IllegalArgumentException if the number of pixels is not aligned with the image size.
+     * @throws InterruptedException if the thread gets interrupted.
+     */
+    public void showImage(int w, int h, int[] pixels, @NonNull Supplier<ShowSettings> settings, boolean loop, IntConsumer callback) throws IOException, InterruptedException {
+        showImage(new ArrayColumnSource(w, h, pixels), settings, loop, callback);
+    }
+
+    /**
+     * Shows the columns read from the source on the stick.
+     * <p>
+     * Columns are read only when they are about to be sent, therefore the memory used doesn't
+     * depend on the width of the image.
+     *
+     * @param source where to read the columns from.
+     * @param settings called before every batch of columns to get the current brightness and delay.
+     * @param loop if the image must be repeated in loop (if true this function never returns, send an interrupt to the thread to block it with an InterruptedException)
+     * @param callback if non null, this predicate is called with the number of the last column sent.
+     * @throws IOException in case of error.
+     * @throws InterruptedException if the thread gets interrupted.
+     */
+    public void showImage(@NonNull ColumnSource source, @NonNull Supplier<ShowSettings> settings, boolean loop, IntConsumer callback) throws IOException, InterruptedException {
+        showImage(source, settings, loop, callback, null);
+    }
+
+    /**
+     * Shows the columns read from the source on the stick, starting together with other sticks.
+     *
+     * @param start if non null, the 1st batch of columns is sent only when all the sticks of
+     *              the group are ready to send theirs, and scheduled at the same time.
+     * @see #showImage(ColumnSource, Supplier, boolean, IntConsumer)
+     */
+    void showImage(@NonNull ColumnSource source, @NonNull Supplier<ShowSettings> settings, boolean loop, IntConsumer callback, StartLine start) throws IOException, InterruptedException {
+        int h = source.getHeight();
         if ( h > _maxPixels ) {
             throw new ProtocolException("the stick has only " + _maxPixels + " pixels");
         }
-        if (pixels.length != w*h) {
-            throw new IllegalArgumentException("number of pixels doesn't match the image size");
-        }
-        if ( sleep > 255 || sleep < 0 ) {
-            throw new IllegalArgumentException("sleep must be between 0 and 255");
-        }
-        if ( brightness > 1 || brightness < 0 ) {
-            throw new IllegalArgumentException("brightness must be between 0 and 1");
-        }
 
-        do {
+        // If the stick can scale the brightness by itself we send the pixels as they are, and
+        // a brightness message only when it changes.
+        boolean scaleOnStick = hasFeature(FEATURE_BRIGHTNESS);
+        int stickBrightness = -1;
+
+        // If the stick can schedule the columns, each new image header is preceded by the time
+        // its 1st column is due, so the delay is kept by the stick clock whatever the
+        // bluetooth latency. Batches are half the stick buffer, to be sent while the stick
+        // shows the previous one.
+        boolean schedule = hasFeature(FEATURE_TIME_SYNC);
+        // The subsampling mode of the last batch, the compression starts again when it changes.
+        int lastMode = VerticalSubsampling.NONE;
+        int batchSize = schedule ? (_maxCols + 1) / 2 : _maxCols;
+        // When the next column is due, in host time, -1 if nothing is scheduled yet.
+        long nextDue = -1;
+        // The stick acks a batch when it has space for the next one, after drawing the columns
+        // of this batch or of the previous one, the timeout of the ack includes both.
+        long lastDrawMs = 0;
+
+        // We always read one column ahead, to know if the batch we are sending is the last one,
+        // and how many times the column being sent repeats.
+        int[] column = new int[h];
+        int[] sending = new int[h];
+        boolean hasNext = source.nextColumn(column);
+        int extra = _repeats ? 1 : 0; // The repeat count before the pixels.
+
+        // The new image header cannot mark the last batch, in that case we need to send a terminator.
+        boolean terminated = false;
+        while (true) {
+            // The delay is sent only in the new image header, -1 forces to send it in the 1st batch.
+            int stickDelay = -1;
+            int sent = 0;
+
+            while (hasNext) {
+                ShowSettings current = settings.get();
+                float brightness = current.brightness;
+                if (scaleOnStick) {
+                    int scale = Math.round(brightness * 255);
+                    if (scale != stickBrightness) {
+                        stickBrightness(scale);
+                        stickBrightness = scale;
+                    }
+                    brightness = 1;
+                }
 
-            int idx = 0;
-            int col = Math.min(_maxCols, w);
+                boolean newImage = current.delay != stickDelay;
+                boolean anchored = newImage && schedule && current.delay > 0;
+                if (newImage && !anchored) {
+                    // The stick draws the columns as soon as they arrive.
+                    nextDue = -1;
+                }
 
-            _buf[idx++] = NEW_IMAGE;
-            _buf[idx++] = (byte) h;
-            _buf[idx++] = (byte) sleep;
-            _buf[idx++] = (byte) col;
+                int idx = 0;
+                if (newImage) {
+                    // The stick doesn't care if a new image starts in the middle of the old one,
+                    // this is how we change the delay on the fly.
+                    _buf[idx++] = NEW_IMAGE;
+                    _buf[idx++] = (byte) h;
+                    _buf[idx++] = (byte) current.delay;
+                    stickDelay = current.delay;
+                } else {
+                    _buf[idx++] = CONTINUE_IMAGE;
+                    idx++; // lastBatchOfCols, set when we know it.
+                }
+                int numColsIdx = idx++;
+                int modeIdx = _subsampling ? idx++ : -1;
+
+                int col = 0;
+                // How many columns the stick is going to show.
+                int shown = 0;
+                while (hasNext && col < batchSize) {
+                    int repeatIdx = _repeats ? idx++ : -1;
+                    idx = encodeColumn(column, 0, h, brightness, idx);
+                    int[] tmp = sending;
+                    sending = column;
+                    column = tmp;
+                    int repeat = 1;
+                    hasNext = source.nextColumn(column);
+                    while (_repeats && hasNext && repeat < MAX_REPEAT && Arrays.equals(column, sending)) {
+                        repeat++;
+                        hasNext = source.nextColumn(column);
+                    }
+                    if (_repeats) {
+                        _buf[repeatIdx] = (byte) repeat;
+                    }
+                    col++;
+                    shown += repeat;
+                }
+                _buf[numColsIdx] = (byte) col;
 
-            for (int x = 0; x < w; x++) {
-                for (int y = 0; y < h; y++) {
-                    int argb = pixels[x * h + y];
+                boolean lastBatchOfCols = !hasNext && !loop;
+                if (!newImage) {
+                    _buf[1] = (byte) (lastBatchOfCols ? 1 : 0);
+                }
+                terminated = !newImage && lastBatchOfCols;
+
+                int header = Math.max(numColsIdx, modeIdx) + 1;
+                int pixelBytes = idx - header;
+                int mode = VerticalSubsampling.NONE;
+                if (_subsampling) {
+                    // The mode is chosen for every batch, changing it costs only this byte.
+                    mode = VerticalSubsampling.choose(_buf, header + extra, col, extra + h * 3, h);
+                    _buf[modeIdx] = (byte) mode;
+                }
+                if (mode != VerticalSubsampling.NONE) {
+                    idx = VerticalSubsampling.pack(_buf, header, col, extra, h, mode);
+                }
+                int colLen = extra + VerticalSubsampling.samples(h, mode) * 3;
+                // The columns change length, the stick forgets the previous batch.
+                boolean fresh = newImage || mode != lastMode;
+                lastMode = mode;
 
-                    int alpha = argb >>> 24;
-                    int red = (argb >> 16) & 0xFF;
-                    int green = (argb >> 8) & 0xFF;
-                    int blue = argb & 0xFF;
+                int len = idx;
+                int packedLen = pack(fresh, newImage, header, col, colLen);
 
-                    _buf[idx++] = (byte) Math.round((brightness * alpha) / 255.0 * red);
-                    _buf[idx++] = (byte) Math.round((brightness * alpha) / 255.0 * green);
-                    _buf[idx++] = (byte) Math.round((brightness * alpha) / 255.0 * blue);
+                // Send the data.
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException();
                 }
-                if (--col == 0) {
-                    // Send the data.
-                    if (Thread.currentThread().isInterrupted()) {
-                        throw new InterruptedException();
+                if (anchored) {
+                    // A new sample every time, to follow the drift of the clocks.
+                    syncClock(1);
+                    if (nextDue < 0) {
+                        nextDue = now() + 2 * _clock.roundTrip() + SCHEDULE_LEAD_MS;
+                        if (start != null) {
+                            // Every stick of the group is anchored to the same host time.
+                            nextDue = start.await(nextDue);
+                            start = null;
+                        }
+                    } else {
+                        // If the link fell behind, the stick slipped its schedule, no point to
+                        // ask for columns in the past.
+                        nextDue = Math.max(nextDue, now());
                     }
-                    sendAndWaitForAck(_buf, idx);
-                    // Reset counters.
-                    idx = 0;
-                    int colsRemaining = w - x - 1; // We just sent the col "x".
-                    col = Math.min(_maxCols, colsRemaining);
-                    // Prepare new message.
-                    // NOTE: it may be useless because we just sent the last col.
-                    // But in case we sent everything with the 1st message we still need to send the
-                    // terminator.
-                    _buf[idx++] = CONTINUE_IMAGE;
-                    _buf[idx++] = (byte) ((col == colsRemaining && ! loop) ? 1 : 0); // lastBatchOfCols
-                    _buf[idx++] = (byte) col; // Num cols to send.
+                    anchor(_clock.toStick(nextDue));
+                }
+                if (start != null) {
+                    // The batch is ready, only the transmission time separates the sticks now.
+                    start.await(StartLine.UNSCHEDULED);
+                    start = null;
+                }
+                // The anchor is consumed by the new image, if the batch fails both are sent again.
+                // If the stick received the batch and only the ack got lost, it recognizes the
+                // batch by its sequence number and doesn't show it twice.
+                long drawMs = shown * (stickDelay + COLUMN_SHOW_MS);
+                long timeout = REPLY_TIMEOUT_MS + lastDrawMs + drawMs;
+                lastDrawMs = drawMs;
+                byte[] batch = packedLen >= 0 ? _packed : _buf;
+                int batchLen = packedLen >= 0 ? packedLen : len;
+                retrying(() -> {
+                    if (anchored) {
+                        sendOnce(_anchor, _anchor.length);
+                    }
+                    sendOnce(batch, batchLen, timeout);
+                });
+                _stats.batchSent(pixelBytes, batchLen - header);
+                sent += shown;
+                if (nextDue >= 0) {
+                    nextDue += shown * stickDelay;
                 }
                 if (callback != null) {
-                    callback.accept(x + 1);
+                    callback.accept(sent);
                 }
             }
-            if (w <= _maxCols) {
-                sendAndWaitForAck(_buf, idx);
+
+            if (!loop || sent == 0) {
+                break;
             }
-        } while (loop);
+            source.rewind();
+            hasNext = source.nextColumn(column);
+        }
+
+        if (!terminated) {
+            _buf[0] = CONTINUE_IMAGE;
+            _buf[1] = 1; // lastBatchOfCols
+            _buf[2] = 0; // Num cols to send.
+            _buf[3] = VerticalSubsampling.NONE; // Only read if the subsampling is enabled.
+            // Acked when the buffered columns are drawn.
+            sendAndWaitForAck(_buf, _subsampling ? 4 : 3, REPLY_TIMEOUT_MS + lastDrawMs);
+        }
+    }
+
+    /**
+     * Compresses the batch of columns in the buffer, if the stick supports it.
+     * <p>
+     * The codec must see every batch, even if it is not compressed, because both sides
+     * remember the last column of the previous one.
+     *
+     * @param fresh if the batch doesn't refer to the previous one: it starts a new image, or
+     *              its columns have another length.
+     * @param newImage if the batch starts a new image.
+     * @param header the length of the message header, the columns follow.
+     * @param cols the number of columns.
+     * @param colLen the length of a column in bytes.
+     * @return the length of the compressed message, or -1 if the batch must be sent as it is.
+     */
+    private int pack(boolean fresh, boolean newImage, int header, int cols, int colLen) {
+        if (_codec == null) {
+            return -1;
+        }
+        if (fresh) {
+            _codec.reset();
+        }
+        int len = _codec.compress(_buf, header, cols, colLen, _packed, header);
+        if (len < 0) {
+            return -1;
+        }
+        System.arraycopy(_buf, 0, _packed, 0, header);
+        _packed[0] = newImage ? PACKED_NEW_IMAGE : PACKED_CONTINUE_IMAGE;
+        return header + len;
+    }
+
+    /**
+     * Writes a column in the buffer as RGB bytes.
+     *
+     * @param pixels the color of the pixels in ARGB format.
+     * @param from the index of the 1st pixel of the column.
+     * @param h how many pixels to encode.
+     * @param brightness between 0 (totally off) and 1 (full brightness).
+     * @param idx where to start writing in the buffer.
+     * @return the index after the last byte written.
+     */
+    private int encodeColumn(int[] pixels, int from, int h, float brightness, int idx) {
+        for (int y = from; y < from + h; y++) {
+            int argb = pixels[y];
+
+            int alpha = argb >>> 24;
+            int red = (argb >> 16) & 0xFF;
+            int green = (argb >> 8) & 0xFF;
+            int blue = argb & 0xFF;
+
+            if (alpha == 0xFF && brightness == 1) {
+                // Fast path, nothing to scale.
+                _buf[idx++] = (byte) red;
+                _buf[idx++] = (byte) green;
+                _buf[idx++] = (byte) blue;
+            } else {
+                _buf[idx++] = (byte) Math.round((brightness * alpha) / 255.0 * red);
+                _buf[idx++] = (byte) Math.round((brightness * alpha) / 255.0 * green);
+                _buf[idx++] = (byte) Math.round((brightness * alpha) / 255.0 * blue);
+            }
+        }
+        return idx;
     }
 
     /**
@@ -272,6 +825,17 @@ public class Protocol {
      * @throws IOException in case of error.
      */
     public void uploadImage(int w, int h, int[] pixels, IntConsumer callback) throws IOException, InterruptedException {
+        uploadImage(new ArrayColumnSource(w, h, pixels), callback);
+    }
+
+    /**
+     * Uploads the columns read from the source to the internal stick memory.
+     *
+     * @param source where to read the columns from.
+     * @param callback if non null, this predicate is called with the number of the last column sent.
+     * @throws IOException in case of error.
+     */
+    public void uploadImage(@NonNull ColumnSource source, IntConsumer callback) throws IOException, InterruptedException {
         throw new ProtocolException("not supported");
     }
     public void replaySettings(int delay, int brightness, boolean loop) throws ProtocolException {
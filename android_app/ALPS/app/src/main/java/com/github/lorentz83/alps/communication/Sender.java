@@ -21,11 +21,12 @@
 package com.github.lorentz83.alps.communication;
 
 import android.graphics.Bitmap;
-import android.graphics.Matrix;
 
+import com.github.lorentz83.alps.sources.BitmapColumnSource;
 import com.github.lorentz83.alps.utils.LogUtility;
 
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Sender implements an abstraction around Protocol to send images to the stick.
@@ -37,7 +38,9 @@ public class Sender {
 
     private internalSender _sender;
     private final SenderCallbacks _callbacks;
-    private final Protocol _p;
+    private final StickGroup _p;
+    // Shared with the running internalSender, which reads it before every batch of columns.
+    private final AtomicReference<ShowSettings> _settings = new AtomicReference<>(new ShowSettings(1, 0));
 
     /**
      * Initializes the class.
@@ -46,10 +49,20 @@ public class Sender {
      * @param callbacks the callbacks to call while the bitmap is sent.
      */
     public Sender(Protocol p, SenderCallbacks callbacks) {
+        this(new StickGroup(p), callbacks);
+    }
+
+    /**
+     * Initializes the class to send the images to a group of sticks.
+     *
+     * @param sticks    the sticks to send the images to.
+     * @param callbacks the callbacks to call while the bitmap is sent.
+     */
+    public Sender(StickGroup sticks, SenderCallbacks callbacks) {
         log.i("Sender.New");
-        _p = p;
+        _p = sticks;
         _callbacks = callbacks;
-        _sender = new internalSender(_p, _callbacks);
+        _sender = new internalSender(_p, _callbacks, _settings);
         _sender.start();
     }
 
@@ -59,7 +72,16 @@ public class Sender {
      * @param bitmap the image to send.
      */
     public void sendBitmap(Bitmap bitmap) {
-        _sender.sendBitmap(bitmap);
+        _sender.sendColumns(new BitmapColumnSource(bitmap));
+    }
+
+    /**
+     * Sends the columns read from the source to the stick.
+     *
+     * @param source the image to send, it is read from the sender thread.
+     */
+    public void sendColumns(ColumnSource source) {
+        _sender.sendColumns(source);
     }
 
     /**
@@ -68,7 +90,16 @@ public class Sender {
      * @param bitmap the image to send.
      */
     public void uploadBitmap(Bitmap bitmap) {
-        _sender.uploadBitmap(bitmap);
+        _sender.uploadColumns(new BitmapColumnSource(bitmap));
+    }
+
+    /**
+     * Uploads (without showing) the columns read from the source to the stick.
+     *
+     * @param source the image to send, it is read from the sender thread.
+     */
+    public void uploadColumns(ColumnSource source) {
+        _sender.uploadColumns(source);
     }
 
     /**
@@ -77,7 +108,8 @@ public class Sender {
     public synchronized void stop() {
         log.i("Sender.stop");
         _sender.interrupt();
-        _sender = new internalSender(_p, _callbacks);
+        _sender.dropPending();
+        _sender = new internalSender(_p, _callbacks, _settings);
         _sender.start();
     }
 
@@ -89,16 +121,23 @@ public class Sender {
     public synchronized void kill() {
         log.i("Sender.kill");
         _sender.interrupt();
+        _sender.dropPending();
         _sender = null;
     }
 
     /**
      * Sets the delay to wait between different columns of the images are sent.
+     * <p>
+     * It can be called while the image is being sent, the new delay is used from the next batch
+     * of columns.
      *
-     * @param millis the delay in milliseconds.
+     * @param millis the delay in milliseconds, between 0 and 255.
      */
     public void setExtraDelay(int millis) {
-        _sender.setExtraDelay(millis);
+        if (millis < 0 || millis > 255) {
+            throw new IllegalArgumentException("delay must be in [0, 255]");
+        }
+        _settings.updateAndGet(s -> s.withDelay(millis));
     }
 
     /**
@@ -114,6 +153,9 @@ public class Sender {
 
     /**
      * Adjust the brightness of the image to send.
+     * <p>
+     * It can be called while the image is being sent, the new brightness is used from the next
+     * batch of columns.
      *
      * @param brightness a number between 0 and 1.
      */
@@ -121,7 +163,7 @@ public class Sender {
         if (brightness < 0 || brightness > 1) {
             throw new IllegalArgumentException("brightness must be in [0, 1]");
         }
-        _sender.setBrightness(brightness);
+        _settings.updateAndGet(s -> s.withBrightness(brightness));
     }
 }
 
@@ -132,16 +174,16 @@ class internalSender extends Thread {
     private final static LogUtility log = new LogUtility(Sender.class);
 
     private SenderCallbacks _callbacks;
-    private Bitmap _bitmap;
-    private Protocol _p;
-    private int _delay = 0;
+    private ColumnSource _source;
+    private StickGroup _p;
+    private final AtomicReference<ShowSettings> _settings;
     private boolean _loop = false;
-    private float _brightness;
     private boolean _upload;
 
-    public internalSender(Protocol p, SenderCallbacks callbacks) {
+    public internalSender(StickGroup p, SenderCallbacks callbacks, AtomicReference<ShowSettings> settings) {
         _p = p;
         _callbacks = callbacks;
+        _settings = settings;
         setName("ProtocolSenderThread"); // Name of the thread for debugging purposes.
     }
 
@@ -151,28 +193,30 @@ class internalSender extends Thread {
             while (true) {
                 // Get all the parameters in a synchronized way.
 
-                Bitmap bmp = waitForBitmap();
-                log.i("got bitmap");
+                ColumnSource source = waitForSource();
+                log.i("got image");
 
-                int delay;
+                // Brightness and delay are not copied here, they can change while the image is sent.
                 boolean loop;
-                float brightness;
                 boolean upload;
                 synchronized (this) {
-                    delay = _delay;
                     loop = _loop;
-                    brightness = _brightness;
                     upload = _upload;
                 }
 
                 _callbacks.start();
 
-                if (upload) {
-                    log.i("uploading bitmap");
-                    uploadBitmap(_p, _callbacks, bmp);
-                } else {
-                    log.i("sending bitmap");
-                    sendBitmap(_p, _callbacks, bmp, delay, loop, brightness);
+                try {
+                    if (upload) {
+                        log.i("uploading image");
+                        uploadColumns(_p, _callbacks, source);
+                    } else {
+                        log.i("sending image");
+                        sendColumns(_p, _callbacks, source, _settings, loop);
+                    }
+                } finally {
+                    source.close();
+                    log.i("link: %s", _p.getStats());
                 }
 
                 _callbacks.done();
@@ -194,87 +238,86 @@ class internalSender extends Thread {
     }
 
     // To avoid synchronization problems, this function is static and cannot access any field.
-    private static void sendBitmap(Protocol _p, SenderCallbacks _callbacks, Bitmap bmp, int delay, boolean loop, float brightness) throws IOException, InterruptedException {
-        int w = bmp.getWidth();
-        int h = bmp.getHeight();
+    private static void sendColumns(StickGroup _p, SenderCallbacks _callbacks, ColumnSource source, AtomicReference<ShowSettings> settings, boolean loop) throws IOException, InterruptedException {
+        int w = source.getWidth();
 
-        // getPixels returns row by row from the top.
-        // rotating 90 we get the columns.
-        Matrix matrix = new Matrix();
-        matrix.postRotate(90);
-        bmp = Bitmap.createBitmap(bmp, 0, 0, w, h, matrix, true);
-
-        int []pixels = new int[w*h];
-        bmp.getPixels(pixels, 0, bmp.getWidth(), 0, 0, bmp.getWidth(), bmp.getHeight());
-
-        _p.showImage(w, h, pixels, brightness, delay, loop, (int col) -> {
-            _callbacks.progress(Math.round((float) col / w * 100));
+        _p.showImage(source, settings::get, loop, (int col) -> {
+            if (w != ColumnSource.UNKNOWN_WIDTH) {
+                _callbacks.progress(Math.round((float) col / w * 100));
+            }
         });
     }
 
     // To avoid synchronization problems, this function is static and cannot access any field.
-    private static void uploadBitmap(Protocol _p, SenderCallbacks _callbacks, Bitmap bmp) throws IOException, InterruptedException {
-        int w = bmp.getWidth();
-        int h = bmp.getHeight();
-
-        // getPixels returns row by row from the top.
-        // rotating 90 we get the columns.
-        Matrix matrix = new Matrix();
-        matrix.postRotate(90);
-        bmp = Bitmap.createBitmap(bmp, 0, 0, w, h, matrix, true);
-
-        int []pixels = new int[w*h];
-        bmp.getPixels(pixels, 0, h, 0, 0, h, w); // h and w are flipped because we rotated 90 deg.
+    private static void uploadColumns(StickGroup _p, SenderCallbacks _callbacks, ColumnSource source) throws IOException, InterruptedException {
+        int w = source.getWidth();
 
-        _p.uploadImage(w, h, pixels, (int col) -> _callbacks.progress(Math.round((float) col / w * 100)));
+        _p.uploadImage(source, (int col) -> {
+            if (w != ColumnSource.UNKNOWN_WIDTH) {
+                _callbacks.progress(Math.round((float) col / w * 100));
+            }
+        });
     }
 
     /**
-     * Blocks the current thread until a new bitmap is passed calling the sendBitmap(Bitmap) method.
+     * Blocks the current thread until a new image is passed calling the sendColumns(ColumnSource) method.
      *
-     * @return the bitmap to send.
+     * @return the image to send.
      * @throws InterruptedException if the thread is interrupted.
      */
-    private synchronized Bitmap waitForBitmap() throws InterruptedException {
-        while (_bitmap == null) {
+    private synchronized ColumnSource waitForSource() throws InterruptedException {
+        while (_source == null) {
             wait();
         }
-        Bitmap bmp = _bitmap;
-        _bitmap = null;
-        return bmp;
+        ColumnSource source = _source;
+        _source = null;
+        return source;
     }
 
     /**
-     * Sends a new bitmap.
+     * Sends a new image.
      *
-     * @param bitmap the image to send.
+     * @param source the image to send.
      */
-    public synchronized void sendBitmap(Bitmap bitmap) {
-        this._bitmap = bitmap;
+    public synchronized void sendColumns(ColumnSource source) {
+        setSource(source);
         this._upload = false;
         notifyAll();
     }
 
     /**
-     * Uploads a new bitmap.
+     * Uploads a new image.
      *
-     * @param bitmap the image to send.
+     * @param source the image to send.
      */
-    public synchronized void uploadBitmap(Bitmap bitmap) {
-        this._bitmap = bitmap;
+    public synchronized void uploadColumns(ColumnSource source) {
+        setSource(source);
         this._upload = true;
         notifyAll();
     }
 
-    public synchronized void setExtraDelay(int millis) {
-        _delay = millis;
+    /**
+     * Closes the image waiting to be sent, if any.
+     * <p>
+     * Once the thread is interrupted it doesn't read it anymore.
+     */
+    public synchronized void dropPending() {
+        setSource(null);
+    }
+
+    // The image waiting to be sent is never read if it is replaced, the decoders it holds are released here.
+    private void setSource(ColumnSource source) {
+        if (_source != null && _source != source) {
+            try {
+                _source.close();
+            } catch (IOException e) {
+                log.w("cannot close the dropped image", e);
+            }
+        }
+        _source = source;
     }
 
     public synchronized void setLoop(boolean loop) {
         _loop = loop;
     }
-
-    public void setBrightness(float brightness) {
-        _brightness = brightness;
-    }
 }
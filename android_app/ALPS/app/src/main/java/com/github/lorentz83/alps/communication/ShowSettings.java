@@ -0,0 +1,78 @@
+/**
+ *  Copyright 2020-2021 Lorenzo Bossi
+ *
+ *  This file is part of ALPS (Another Light Painting Stick).
+ *
+ *  ALPS is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  ALPS is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with ALPS.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.github.lorentz83.alps.communication;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Immutable snapshot of the settings that can be changed while an image is shown.
+ * <p>
+ * Protocol reads a new snapshot before every batch of columns, therefore a change is visible
+ * on the stick from the next batch.
+ */
+public class ShowSettings {
+    /**
+     * The brightness, between 0 (totally off) and 1 (full brightness).
+     */
+    public final float brightness;
+    /**
+     * The delay between columns, in ms between 0 and 255.
+     */
+    public final int delay;
+
+    /**
+     * Creates a new snapshot.
+     *
+     * @param brightness between 0 (totally off) and 1 (full brightness).
+     * @param delay between columns, in ms between 0 and 255.
+     * @throws IllegalArgumentException if any value is out of bounds.
+     */
+    public ShowSettings(float brightness, int delay) {
+        if (brightness > 1 || brightness < 0) {
+            throw new IllegalArgumentException("brightness must be between 0 and 1");
+        }
+        if (delay > 255 || delay < 0) {
+            throw new IllegalArgumentException("sleep must be between 0 and 255");
+        }
+        this.brightness = brightness;
+        this.delay = delay;
+    }
+
+    /**
+     * Returns a copy of these settings with a different brightness.
+     *
+     * @param brightness between 0 (totally off) and 1 (full brightness).
+     * @return the new settings.
+     */
+    public @NonNull ShowSettings withBrightness(float brightness) {
+        return new ShowSettings(brightness, delay);
+    }
+
+    /**
+     * Returns a copy of these settings with a different delay.
+     *
+     * @param delay between columns, in ms between 0 and 255.
+     * @return the new settings.
+     */
+    public @NonNull ShowSettings withDelay(int delay) {
+        return new ShowSettings(brightness, delay);
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ *  Copyright 2020-2021 Lorenzo Bossi
+ *
+ *  This file is part of ALPS (Another Light Painting Stick).
+ *
+ *  ALPS is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  ALPS is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with ALPS.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.github.lorentz83.alps.communication;
+
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+/**
+ * Lets the sticks of a group start their images together.
+ * <p>
+ * Each stick arrives when its 1st batch is ready, with the earliest host time its columns can be
+ * due, and leaves when all of them arrived, with the latest of those times. Anchoring all the
+ * sticks to it, they start together whatever the latency of their links.
+ */
+final class StartLine {
+    // Returned when none of the sticks schedules its columns.
+    static final long UNSCHEDULED = -1;
+
+    private final CyclicBarrier _barrier;
+    private long _due = UNSCHEDULED;
+
+    /**
+     * @param parties the number of sticks.
+     */
+    StartLine(int parties) {
+        _barrier = new CyclicBarrier(parties);
+    }
+
+    /**
+     * Waits for the other sticks.
+     *
+     * @param earliestDue the earliest host time the 1st column of this stick can be due, or
+     *                    UNSCHEDULED if the stick draws the columns as soon as they arrive.
+     * @return the host time the 1st column of every scheduled stick is due.
+     * @throws InterruptedException if the thread gets interrupted.
+     * @throws ProtocolException if another stick failed before arriving.
+     */
+    long await(long earliestDue) throws InterruptedException, ProtocolException {
+        synchronized (this) {
+            _due = Math.max(_due, earliestDue);
+        }
+        try {
+            _barrier.await();
+        } catch (BrokenBarrierException e) {
+            throw new ProtocolException("another stick failed to start");
+        }
+        synchronized (this) {
+            return _due;
+        }
+    }
+}
@@ -0,0 +1,372 @@
+/**
+ *  Copyright 2020-2021 Lorenzo Bossi
+ *
+ *  This file is part of ALPS (Another Light Painting Stick).
+ *
+ *  ALPS is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  ALPS is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with ALPS.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.github.lorentz83.alps.communication;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Sends an image to several sticks at the same time.
+ * <p>
+ * The image is read only once, each column is split in slices (or copied as it is) and queued
+ * to a thread per stick. All the sticks wait for each other before sending their 1st batch of
+ * columns, and the ones which schedule the columns are anchored to the same time, so they start
+ * together.
+ * <p>
+ * With a single stick the image is sent directly, as Protocol does.
+ */
+public class StickGroup {
+    /**
+     * How the columns of the image are distributed to the sticks.
+     */
+    public enum Layout {
+        /**
+         * Each stick shows a horizontal band of the image, the 1st stick is the bottom one.
+         */
+        SLICES,
+        /**
+         * Each stick shows the whole image.
+         */
+        MIRROR,
+    }
+
+    // How many columns each stick can lag behind the slowest one.
+    private static final int QUEUE_COLUMNS = 256;
+    // How long to wait for the sticks to finish the batch in flight when the show is stopped.
+    private static final long STOP_TIMEOUT_MS = 2000;
+
+    private volatile List<Protocol> _sticks;
+    private volatile Layout _layout = Layout.SLICES;
+
+    /**
+     * Creates a group of one stick.
+     *
+     * @param p the protocol of the stick.
+     */
+    public StickGroup(@NonNull Protocol p) {
+        _sticks = Collections.singletonList(p);
+    }
+
+    /**
+     * Replaces the sticks of the group.
+     * <p>
+     * It doesn't affect the image being sent.
+     *
+     * @param sticks the protocols of the sticks, already initialized.
+     * @param layout how to split the image.
+     * @throws IllegalArgumentException if there are no sticks.
+     */
+    public void setSticks(@NonNull List<Protocol> sticks, @NonNull Layout layout) {
+        if (sticks.isEmpty()) {
+            throw new IllegalArgumentException("no sticks");
+        }
+        _sticks = Collections.unmodifiableList(new ArrayList<>(sticks));
+        _layout = layout;
+    }
+
+    /**
+     * Returns how many sticks are in the group.
+     *
+     * @return the number of sticks.
+     */
+    public int size() {
+        return _sticks.size();
+    }
+
+    /**
+     * Returns the counters of the messages sent to all the sticks.
+     *
+     * @return a copy of the counters, summed over the sticks.
+     */
+    public LinkStats getStats() {
+        LinkStats stats = new LinkStats();
+        for (Protocol p : _sticks) {
+            stats.add(p.getStats());
+        }
+        return stats;
+    }
+
+    /**
+     * Shows the columns read from the source on all the sticks.
+     *
+     * @param source   where to read the columns from. With the SLICES layout it is as high as
+     *                 all the sticks together.
+     * @param settings called before every batch of columns to get the current brightness and delay.
+     * @param loop     if the image must be repeated in loop (if true this function never returns, send an interrupt to the thread to block it with an InterruptedException)
+     * @param callback if non null, this predicate is called with the number of the last column sent.
+     * @throws IOException          in case of error on any of the sticks.
+     * @throws InterruptedException if the thread gets interrupted.
+     * @see Protocol#showImage(ColumnSource, Supplier, boolean, IntConsumer)
+     */
+    public void showImage(@NonNull ColumnSource source, @NonNull Supplier<ShowSettings> settings, boolean loop, IntConsumer callback) throws IOException, InterruptedException {
+        List<Protocol> sticks = _sticks;
+        Layout layout = _layout;
+        if (sticks.size() == 1) {
+            sticks.get(0).showImage(source, settings, loop, callback);
+            return;
+        }
+
+        int n = sticks.size();
+        int h = source.getHeight();
+        int w = source.getWidth();
+        if (layout == Layout.SLICES && h < n) {
+            throw new IllegalArgumentException("the image is lower than the number of sticks");
+        }
+
+        // The loop is done here, so the sources of the sticks never rewind.
+        List<QueueColumnSource> queues = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            int from = layout == Layout.SLICES ? i * h / n : 0;
+            int to = layout == Layout.SLICES ? (i + 1) * h / n : h;
+            queues.add(new QueueColumnSource(from, to - from, loop ? ColumnSource.UNKNOWN_WIDTH : w));
+        }
+
+        StartLine start = new StartLine(n);
+        ExecutorService pool = Executors.newFixedThreadPool(n, r -> {
+            Thread t = new Thread(r);
+            t.setName("StickGroupThread"); // Name of the thread for debugging purposes.
+            return t;
+        });
+        List<Future<?>> sending = new ArrayList<>(n);
+        try {
+            for (int i = 0; i < n; i++) {
+                Protocol p = sticks.get(i);
+                QueueColumnSource q = queues.get(i);
+                IntConsumer cb = i == 0 && callback != null ? wrapProgress(callback, w, loop) : null;
+                sending.add(pool.submit(() -> {
+                    p.showImage(q, settings, false, cb, start);
+                    return null;
+                }));
+            }
+
+            boolean hasColumns = false;
+            while (true) {
+                int[] column = new int[h];
+                while (source.nextColumn(column)) {
+                    hasColumns = true;
+                    for (QueueColumnSource q : queues) {
+                        q.put(column, sending);
+                    }
+                    column = new int[h];
+                }
+                if (!loop || !hasColumns) {
+                    break;
+                }
+                source.rewind();
+            }
+            for (QueueColumnSource q : queues) {
+                q.put(QueueColumnSource.END, sending);
+            }
+            for (Future<?> f : sending) {
+                // A stick which failed before starting leaves the others waiting for it.
+                while (true) {
+                    try {
+                        f.get(50, TimeUnit.MILLISECONDS);
+                        break;
+                    } catch (TimeoutException e) {
+                        checkFailures(sending);
+                    } catch (ExecutionException e) {
+                        waitFor(f);
+                    }
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+            awaitStopped(pool);
+        }
+    }
+
+    // The sticks count the columns they get, in loop they go past the width of the image.
+    private static IntConsumer wrapProgress(IntConsumer callback, int w, boolean loop) {
+        if (!loop || w <= 0) {
+            return callback;
+        }
+        return col -> callback.accept((col - 1) % w + 1);
+    }
+
+    private static void waitFor(Future<?> f) throws IOException, InterruptedException {
+        try {
+            f.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof InterruptedException) {
+                throw new InterruptedIOException("stick interrupted");
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    // Throws the error of the 1st stick which failed, if any.
+    private static void checkFailures(List<Future<?>> sending) throws IOException, InterruptedException {
+        for (Future<?> f : sending) {
+            if (f.isDone()) {
+                waitFor(f);
+            }
+        }
+    }
+
+    // Blocks, even if interrupted, until the batches in flight are acknowledged, so the streams
+    // are left in a consistent state.
+    private static void awaitStopped(ExecutorService pool) {
+        boolean interrupted = false;
+        long deadline = System.currentTimeMillis() + STOP_TIMEOUT_MS;
+        while (true) {
+            long left = deadline - System.currentTimeMillis();
+            if (left <= 0) {
+                break;
+            }
+            try {
+                if (pool.awaitTermination(left, TimeUnit.MILLISECONDS)) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Uploads the image to the stick.
+     * <p>
+     * Only groups of one stick are supported.
+     *
+     * @param source   where to read the columns from.
+     * @param callback if non null, this predicate is called with the number of the last column sent.
+     * @throws IOException in case of error.
+     */
+    public void uploadImage(@NonNull ColumnSource source, IntConsumer callback) throws IOException, InterruptedException {
+        List<Protocol> sticks = _sticks;
+        if (sticks.size() != 1) {
+            throw new ProtocolException("upload is not supported with more than one stick");
+        }
+        sticks.get(0).uploadImage(source, callback);
+    }
+
+    /**
+     * Turns immediately off all the sticks.
+     *
+     * @throws IOException if any of the sticks cannot be turned off, after trying all of them.
+     */
+    public void off() throws IOException {
+        IOException err = null;
+        for (Protocol p : _sticks) {
+            try {
+                p.off();
+            } catch (IOException e) {
+                err = e;
+            }
+        }
+        if (err != null) {
+            throw err;
+        }
+    }
+
+    /**
+     * The columns of a stick, queued by the thread reading the image.
+     */
+    private static class QueueColumnSource implements ColumnSource {
+        // Marks the end of the image.
+        static final int[] END = new int[0];
+
+        private final BlockingQueue<int[]> _queue = new ArrayBlockingQueue<>(QUEUE_COLUMNS);
+        private final int _from;
+        private final int _h;
+        private final int _w;
+        private boolean _ended = false;
+
+        QueueColumnSource(int from, int h, int w) {
+            _from = from;
+            _h = h;
+            _w = w;
+        }
+
+        // Called by the reading thread, it fails if any of the sticks failed instead of blocking.
+        void put(int[] column, List<Future<?>> sending) throws IOException, InterruptedException {
+            while (!_queue.offer(column, 50, TimeUnit.MILLISECONDS)) {
+                checkFailures(sending);
+                for (Future<?> f : sending) {
+                    if (f.isDone()) {
+                        throw new ProtocolException("a stick stopped before the end of the image");
+                    }
+                }
+            }
+        }
+
+        @Override
+        public int getHeight() {
+            return _h;
+        }
+
+        @Override
+        public int getWidth() {
+            return _w;
+        }
+
+        @Override
+        public boolean nextColumn(@NonNull int[] column) throws IOException {
+            if (_ended) {
+                return false;
+            }
+            int[] c;
+            try {
+                c = _queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for the next column");
+            }
+            if (c == END) {
+                _ended = true;
+                return false;
+            }
+            System.arraycopy(c, _from, column, 0, _h);
+            return true;
+        }
+
+        @Override
+        public void rewind() throws IOException {
+            throw new ProtocolException("the columns of a stick cannot be rewound");
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ *  Copyright 2020-2021 Lorenzo Bossi
+ *
+ *  This file is part of ALPS (Another Light Painting Stick).
+ *
+ *  ALPS is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  ALPS is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with ALPS.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.github.lorentz83.alps.communication;
+
+/**
+ * Subsamples the columns vertically, when the stick can rebuild them.
+ * <p>
+ * With a factor f the stick receives one pixel every f, the pixels 0, f, 2f... of the column,
+ * and fills the missing ones repeating the previous sample, or interpolating between the
+ * previous and the next one. The pixels after the last sample are always a copy of it.
+ * <p>
+ * The mode is the factor in the low 4 bits, optionally with the INTERPOLATE flag.
+ */
+final class VerticalSubsampling {
+    static final int NONE = 1;
+    static final int INTERPOLATE = 0x10;
+    static final int MAX_FACTOR = 3;
+    // An interpolated channel can differ from the original by 1/TOLERANCE of its value, so dark
+    // pixels, where a single step is visible, must be exact. Repeated pixels must be identical.
+    static final int TOLERANCE = 64;
+
+    private VerticalSubsampling() {
+    }
+
+    static int factor(int mode) {
+        return mode & 0x0F;
+    }
+
+    /**
+     * Returns how many pixels of a column are sent.
+     *
+     * @param h the height of the column.
+     * @param mode the subsampling mode.
+     * @return the number of samples.
+     */
+    static int samples(int h, int mode) {
+        int f = factor(mode);
+        return (h + f - 1) / f;
+    }
+
+    /**
+     * Returns a channel of a pixel as rebuilt by the stick.
+     *
+     * @param buf the samples of the column, in RGB.
+     * @param off the index of the 1st sample.
+     * @param step the distance between 2 samples in buf, 3 if they are packed.
+     * @param n the number of samples.
+     * @param i the index of the pixel in the column.
+     * @param ch the channel, 0 for red.
+     * @param mode the subsampling mode.
+     * @return the value of the channel, between 0 and 255.
+     */
+    static int rebuild(byte[] buf, int off, int step, int n, int i, int ch, int mode) {
+        int f = factor(mode);
+        int k = i / f;
+        int r = i % f;
+        int a = buf[off + k * step + ch] & 0xFF;
+        if (r == 0 || (mode & INTERPOLATE) == 0 || k + 1 >= n) {
+            return a;
+        }
+        int b = buf[off + (k + 1) * step + ch] & 0xFF;
+        return (a * (f - r) + b * r + f / 2) / f;
+    }
+
+    /**
+     * Returns the most compact mode which rebuilds all the columns of a batch.
+     * <p>
+     * Repeating is preferred to interpolating, because it is lossless.
+     *
+     * @param buf the columns, in RGB.
+     * @param off the index of the 1st column.
+     * @param cols the number of columns.
+     * @param stride the distance between 2 columns in buf.
+     * @param h the height of a column.
+     * @return the mode to use.
+     */
+    static int choose(byte[] buf, int off, int cols, int stride, int h) {
+        for (int f = MAX_FACTOR; f > 1; f--) {
+            if (rebuilds(buf, off, cols, stride, h, f, false)) {
+                return f;
+            }
+            if (rebuilds(buf, off, cols, stride, h, f | INTERPOLATE, true)) {
+                return f | INTERPOLATE;
+            }
+        }
+        return NONE;
+    }
+
+    private static boolean rebuilds(byte[] buf, int off, int cols, int stride, int h, int mode, boolean approximate) {
+        int f = factor(mode);
+        int n = samples(h, mode);
+        for (int c = 0; c < cols; c++) {
+            int col = off + c * stride;
+            for (int i = 0; i < h; i++) {
+                if (i % f == 0) {
+                    continue; // A sample.
+                }
+                for (int ch = 0; ch < 3; ch++) {
+                    // The samples are still in the full column, f pixels apart.
+                    int got = rebuild(buf, col, 3 * f, n, i, ch, mode);
+                    int want = buf[col + 3 * i + ch] & 0xFF;
+                    int diff = Math.abs(got - want);
+                    if (diff != 0 && (!approximate || diff * TOLERANCE > want)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Keeps only the samples of the columns, in place.
+     *
+     * @param buf the columns, in RGB, each of them can start with extra bytes which are kept.
+     * @param off the index of the 1st column.
+     * @param cols the number of columns.
+     * @param extra how many bytes precede the pixels of each column.
+     * @param h the height of a column.
+     * @param mode the subsampling mode.
+     * @return the index after the last column.
+     */
+    static int pack(byte[] buf, int off, int cols, int extra, int h, int mode) {
+        int f = factor(mode);
+        int n = samples(h, mode);
+        int stride = extra + 3 * h;
+        int out = off;
+        for (int c = 0; c < cols; c++) {
+            int col = off + c * stride;
+            for (int e = 0; e < extra; e++) {
+                buf[out++] = buf[col + e];
+            }
+            for (int k = 0; k < n; k++) {
+                int px = col + extra + 3 * k * f;
+                buf[out++] = buf[px];
+                buf[out++] = buf[px + 1];
+                buf[out++] = buf[px + 2];
+            }
+        }
+        return out;
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ *  Copyright 2020-2021 Lorenzo Bossi
+ *
+ *  This file is part of ALPS (Another Light Painting Stick).
+ *
+ *  ALPS is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  ALPS is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with ALPS.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.github.lorentz83.alps.sources;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.NonNull;
+
+import com.github.lorentz83.alps.communication.ColumnSource;
+import com.github.lorentz83.alps.utils.ColumnExtractor;
+
+/**
+ * A ColumnSource which reads the columns of a bitmap.
+ * <p>
+ * The bitmap is read in vertical strips while the columns are sent, so only a strip of pixels
+ * is kept in memory in addition to the bitmap itself.
+ */
+public class BitmapColumnSource implements ColumnSource {
+    // How many columns to read from the bitmap at once.
+    // With 144 pixels per column a strip is 36KB, and we need 2 of them.
+    private static final int STRIP_WIDTH = 64;
+
+    private final Bitmap _bmp;
+    private final int _w;
+    private final int _h;
+
+    private final int[] _rows;
+    private final int[] _strip;
+    private int _stripX = 0;
+    private int _stripW = 0;
+    private int _x = 0;
+
+    /**
+     * Creates the source.
+     *
+     * @param bmp the bitmap to read, it must not change while the source is used.
+     */
+    public BitmapColumnSource(@NonNull Bitmap bmp) {
+        _bmp = bmp;
+        _w = bmp.getWidth();
+        _h = bmp.getHeight();
+        _rows = new int[STRIP_WIDTH * _h];
+        _strip = new int[STRIP_WIDTH * _h];
+    }
+
+    @Override
+    public int getHeight() {
+        return _h;
+    }
+
+    @Override
+    public int getWidth() {
+        return _w;
+    }
+
+    @Override
+    public boolean nextColumn(@NonNull int[] column) {
+        if (_x >= _w) {
+            return false;
+        }
+        if (_x >= _stripX + _stripW) {
+            // getPixels returns the pixels row by row, transpose them in columns.
+            _stripX = _x;
+            _stripW = Math.min(STRIP_WIDTH, _w - _x);
+            _bmp.getPixels(_rows, 0, _stripW, _stripX, 0, _stripW, _h);
+            ColumnExtractor.transposeTile(_rows, 0, 0, _stripW, _h, _h, _strip);
+        }
+        System.arraycopy(_strip, (_x - _stripX) * _h, column, 0, _h);
+        _x++;
+        return true;
+    }
+
+    @Override
+    public void rewind() {
+        _x = 0;
+        _stripX = 0;
+        _stripW = 0;
+    }
+}
@@ -0,0 +1,45 @@
+/**
+ *  Copyright 2020-2021 Lorenzo Bossi
+ *
+ *  This file is part of ALPS (Another Light Painting Stick).
+ *
+ *  ALPS is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  ALPS is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with ALPS.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.github.lorentz83.alps.sources;
+
+import androidx.annotation.NonNull;
+
+import com.github.lorentz83.alps.communication.ColumnSource;
+
+import java.io.IOException;
+
+/**
+ * Creates the ColumnSource of an image generated for a specific stick.
+ * <p>
+ * A source can be read only once at a time, the factory creates a new one every time the image
+ * is sent or previewed.
+ */
+public interface ColumnSourceFactory {
+    /**
+     * Creates a new source.
+     *
+     * @param h               the number of pixels of the stick.
+     * @param widthMultiplier how much to stretch the image horizontally.
+     * @return the source.
+     * @throws IOException if the source cannot be created.
+     */
+    @NonNull ColumnSource create(int h, float widthMultiplier) throws IOException;
+}
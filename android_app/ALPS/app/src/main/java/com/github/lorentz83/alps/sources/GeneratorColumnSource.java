@@ -0,0 +1,88 @@
+/**
+ *  Copyright 2020-2021 Lorenzo Bossi
+ *
+ *  This file is part of ALPS (Another Light Painting Stick).
+ *
+ *  ALPS is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  ALPS is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with ALPS.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.github.lorentz83.alps.sources;
+
+import androidx.annotation.NonNull;
+
+import com.github.lorentz83.alps.communication.ColumnSource;
+
+import java.util.function.Supplier;
+
+/**
+ * A ColumnSource which computes the columns of a PatternGenerator while they are sent.
+ * <p>
+ * Nothing is rasterized in advance, so the show starts immediately and doesn't use memory for
+ * the image. The pattern is read again before every column, therefore it can be replaced while
+ * the image is shown.
+ */
+public class GeneratorColumnSource implements ColumnSource {
+    private final Supplier<PatternGenerator> _pattern;
+    private final int _h;
+    private final int _w;
+    // How many columns the pattern stretches over one stick length.
+    private final double _columnsPerUnit;
+    private long _x = 0;
+
+    /**
+     * Creates the source.
+     *
+     * @param pattern         returns the pattern to show.
+     * @param h               the number of pixels of the stick.
+     * @param widthMultiplier how much to stretch the pattern horizontally.
+     * @param length          how long the image is, in stick lengths, or POSITIVE_INFINITY to
+     *                        never stop.
+     */
+    public GeneratorColumnSource(@NonNull Supplier<PatternGenerator> pattern, int h, float widthMultiplier, double length) {
+        if (h <= 0 || widthMultiplier <= 0 || length <= 0) {
+            throw new IllegalArgumentException("height, width multiplier and length must be positive");
+        }
+        _pattern = pattern;
+        _h = h;
+        _columnsPerUnit = (double) h * widthMultiplier;
+        _w = Double.isInfinite(length) ? UNKNOWN_WIDTH : (int) Math.max(1, Math.round(length * _columnsPerUnit));
+    }
+
+    @Override
+    public int getHeight() {
+        return _h;
+    }
+
+    @Override
+    public int getWidth() {
+        return _w;
+    }
+
+    @Override
+    public boolean nextColumn(@NonNull int[] column) {
+        if (_w != UNKNOWN_WIDTH && _x >= _w) {
+            return false;
+        }
+        // The center of the column.
+        _pattern.get().column((_x + 0.5) / _columnsPerUnit, column);
+        _x++;
+        return true;
+    }
+
+    @Override
+    public void rewind() {
+        _x = 0;
+    }
+}
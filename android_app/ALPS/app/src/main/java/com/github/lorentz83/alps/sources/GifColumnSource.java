@@ -0,0 +1,184 @@
+/**
+ *  Copyright 2020-2021 Lorenzo Bossi
+ *
+ *  This file is part of ALPS (Another Light Painting Stick).
+ *
+ *  ALPS is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  ALPS is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with ALPS.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.github.lorentz83.alps.sources;
+
+import androidx.annotation.NonNull;
+
+import com.github.lorentz83.alps.communication.ColumnSource;
+import com.github.lorentz83.alps.utils.AreaResampler;
+import com.github.lorentz83.alps.utils.ColumnExtractor;
+import com.github.lorentz83.alps.utils.GifDecoder;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A ColumnSource which shows the frames of an animated GIF one after the other.
+ * <p>
+ * Each frame is scaled to the stick height and sent as a batch of columns. The next frame is
+ * decoded in background while the current one is sent, so at most 2 scaled frames are in memory,
+ * besides the frame being composed by the decoder.
+ * <p>
+ * The delays of the frames are ignored, the speed is given by the stick.
+ */
+public class GifColumnSource implements ColumnSource {
+    private final GifDecoder.StreamOpener _opener;
+    private final int _h;
+    private final int _frameW;
+    private final ExecutorService _prefetch = Executors.newSingleThreadExecutor();
+
+    // Accessed only from the prefetch thread.
+    private GifDecoder _decoder;
+
+    private Future<int[]> _next;
+    private int[] _current = null;
+    private int _x = 0;
+
+    /**
+     * Creates the source and starts decoding the 1st frame.
+     *
+     * @param opener          opens the GIF.
+     * @param srcW            the width of the GIF.
+     * @param srcH            the height of the GIF.
+     * @param h               the number of pixels of the stick.
+     * @param widthMultiplier how much to stretch the frames horizontally.
+     */
+    public GifColumnSource(@NonNull GifDecoder.StreamOpener opener, int srcW, int srcH, int h, float widthMultiplier) {
+        _opener = opener;
+        _h = h;
+        _frameW = Math.max(1, (int) Math.round((double) h / srcH * srcW * widthMultiplier));
+        _next = _prefetch.submit(this::decodeNext);
+    }
+
+    @Override
+    public int getHeight() {
+        return _h;
+    }
+
+    /**
+     * Returns UNKNOWN_WIDTH, the number of frames is known only after decoding all of them.
+     *
+     * @return UNKNOWN_WIDTH.
+     */
+    @Override
+    public int getWidth() {
+        return UNKNOWN_WIDTH;
+    }
+
+    /**
+     * Returns the width of each frame on the stick.
+     *
+     * @return the number of columns of a frame.
+     */
+    public int getFrameWidth() {
+        return _frameW;
+    }
+
+    @Override
+    public boolean nextColumn(@NonNull int[] column) throws IOException {
+        if (_current == null || _x >= _frameW) {
+            _current = waitNext();
+            _x = 0;
+            if (_current == null) {
+                return false;
+            }
+            // Decodes the next frame while this one is sent.
+            _next = _prefetch.submit(this::decodeNext);
+        }
+        System.arraycopy(_current, _x * _h, column, 0, _h);
+        _x++;
+        return true;
+    }
+
+    private int[] waitNext() throws IOException {
+        if (_next == null) {
+            return null;
+        }
+        try {
+            return _next.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while decoding the GIF");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            throw new IOException("cannot decode GIF", cause);
+        } finally {
+            _next = null;
+        }
+    }
+
+    // Runs in the prefetch thread.
+    private int[] decodeNext() {
+        try {
+            if (_decoder == null) {
+                _decoder = new GifDecoder(_opener);
+            }
+            if (!_decoder.nextFrame()) {
+                return null;
+            }
+            int[] rows = AreaResampler.resample(_decoder.getPixels(), _decoder.getWidth(), _decoder.getHeight(), _frameW, _h);
+            int[] columns = new int[_frameW * _h];
+            ColumnExtractor.transposeTile(rows, 0, 0, _frameW, _h, _h, columns);
+            return columns;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void rewind() {
+        // The tasks run in order, the pending one completes before the decoder restarts.
+        _next = _prefetch.submit(() -> {
+            if (_decoder != null) {
+                try {
+                    _decoder.rewind();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return decodeNext();
+        });
+        _current = null;
+        _x = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        _prefetch.shutdownNow();
+        try {
+            _prefetch.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (_decoder != null) {
+            _decoder.close();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ *  Copyright 2020-2021 Lorenzo Bossi
+ *
+ *  This file is part of ALPS (Another Light Painting Stick).
+ *
+ *  ALPS is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  ALPS is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with ALPS.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.github.lorentz83.alps.sources;
+
+import androidx.annotation.NonNull;
+
+import com.github.lorentz83.alps.communication.ColumnSource;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A ColumnSource which reads RGB columns from a buffer, usually a file mapped in memory.
+ * <p>
+ * The colors are returned fully opaque, exactly as the stick shows them at full brightness.
+ */
+public class MappedColumnSource implements ColumnSource {
+    private final ByteBuffer _buf;
+    private final int _offset;
+    private final int _w;
+    private final int _h;
+    private int _x = 0;
+
+    /**
+     * Creates the source.
+     *
+     * @param buf    the buffer, it is only read with absolute gets.
+     * @param offset where the 1st column starts.
+     * @param w      the width of the image.
+     * @param h      the height of the image.
+     * @throws IllegalArgumentException if the buffer is too small for the image.
+     */
+    public MappedColumnSource(@NonNull ByteBuffer buf, int offset, int w, int h) {
+        if (w <= 0 || h <= 0 || buf.limit() - offset < (long) w * h * 3) {
+            throw new IllegalArgumentException("buffer too small for the image");
+        }
+        _buf = buf;
+        _offset = offset;
+        _w = w;
+        _h = h;
+    }
+
+    /**
+     * Returns another source of the same image, which starts from the first column.
+     * <p>
+     * The buffer is shared, nothing is copied.
+     *
+     * @return the new source.
+     */
+    public @NonNull MappedColumnSource duplicate() {
+        return new MappedColumnSource(_buf, _offset, _w, _h);
+    }
+
+    @Override
+    public int getHeight() {
+        return _h;
+    }
+
+    @Override
+    public int getWidth() {
+        return _w;
+    }
+
+    @Override
+    public boolean nextColumn(@NonNull int[] column) {
+        if (_x >= _w) {
+            return false;
+        }
+        int idx = _offset + _x * _h * 3;
+        for (int y = 0; y < _h; y++) {
+            int r = _buf.get(idx++) & 0xff;
+            int g = _buf.get(idx++) & 0xff;
+            int b = _buf.get(idx++) & 0xff;
+            column[y] = 0xff000000 | r << 16 | g << 8 | b;
+        }
+        _x++;
+        return true;
+    }
+
+    @Override
+    public void rewind() {
+        _x = 0;
+    }
+}
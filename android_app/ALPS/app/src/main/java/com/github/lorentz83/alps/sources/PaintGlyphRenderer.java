@@ -0,0 +1,80 @@
+/**
+ *  Copyright 2020-2021 Lorenzo Bossi
+ *
+ *  This file is part of ALPS (Another Light Painting Stick).
+ *
+ *  ALPS is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  ALPS is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with ALPS.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.github.lorentz83.alps.sources;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+
+import androidx.annotation.NonNull;
+
+import com.github.lorentz83.alps.utils.ColumnExtractor;
+
+/**
+ * Renders characters with a Paint, sized to fill the stick.
+ */
+public class PaintGlyphRenderer implements TextColumnSource.GlyphRenderer {
+    private final Paint _paint;
+    private final int _h;
+    private final float _baseline;
+    private final int _backgroundColor;
+
+    /**
+     * Creates the renderer.
+     *
+     * @param h               the height of the stick.
+     * @param widthMultiplier how much to stretch the characters horizontally.
+     * @param backgroundColor the color behind the text.
+     * @param textColor       the color of the text.
+     * @param face            the font.
+     */
+    public PaintGlyphRenderer(int h, float widthMultiplier, int backgroundColor, int textColor, @NonNull Typeface face) {
+        _h = h;
+        _backgroundColor = backgroundColor;
+
+        _paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        _paint.setColor(textColor);
+        _paint.setTextAlign(Paint.Align.LEFT);
+        _paint.setTypeface(face);
+        _paint.setTextScaleX(widthMultiplier);
+        // The size is proportional to ascent + descent, pick the one that fills the stick.
+        _paint.setTextSize(h);
+        _paint.setTextSize(h * h / (_paint.descent() - _paint.ascent()));
+        _baseline = -_paint.ascent(); // ascent() is negative
+    }
+
+    @Override
+    public @NonNull int[] render(int codePoint) {
+        String s = new String(Character.toChars(codePoint));
+        int w = Math.round(_paint.measureText(s));
+        if (w <= 0) {
+            return new int[0];
+        }
+        Bitmap bmp = Bitmap.createBitmap(w, _h, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bmp);
+        canvas.drawColor(_backgroundColor);
+        canvas.drawText(s, 0, _baseline, _paint);
+        int[] columns = ColumnExtractor.columns(bmp);
+        bmp.recycle();
+        return columns;
+    }
+}
@@ -0,0 +1,256 @@
+/**
+ *  Copyright 2020-2021 Lorenzo Bossi
+ *
+ *  This file is part of ALPS (Another Light Painting Stick).
+ *
+ *  ALPS is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  ALPS is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with ALPS.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.github.lorentz83.alps.sources;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * A procedural image, computed a column at a time.
+ * <p>
+ * Positions are measured in stick lengths, so the same pattern can be shown on any stick and
+ * stretched by any width multiplier without being rasterized first.
+ */
+public interface PatternGenerator {
+    /**
+     * Computes a column.
+     *
+     * @param t      the horizontal position of the column, 1 is as far as the stick is long.
+     * @param column where to write the color of the pixels in ARGB format. The 1st pixel is the
+     *               bottom of the stick.
+     */
+    void column(double t, @NonNull int[] column);
+
+    /**
+     * A single color.
+     *
+     * @param color the color in ARGB format.
+     * @return the pattern.
+     */
+    static @NonNull PatternGenerator solid(int color) {
+        return (t, column) -> Arrays.fill(column, color);
+    }
+
+    /**
+     * Fades from a color to another and back.
+     *
+     * @param from   the color at the beginning of each period.
+     * @param to     the color in the middle of each period.
+     * @param period how long it takes to go back to the 1st color.
+     * @return the pattern.
+     */
+    static @NonNull PatternGenerator horizontalGradient(int from, int to, double period) {
+        return (t, column) -> {
+            double p = fract(t / period);
+            Arrays.fill(column, lerp(from, to, 1 - Math.abs(2 * p - 1)));
+        };
+    }
+
+    /**
+     * Fades from a color at the bottom of the stick to another at the top.
+     *
+     * @param bottom the color of the 1st pixel.
+     * @param top    the color of the last pixel.
+     * @return the pattern.
+     */
+    static @NonNull PatternGenerator verticalGradient(int bottom, int top) {
+        return (t, column) -> {
+            for (int i = 0; i < column.length; i++) {
+                column[i] = lerp(bottom, top, y(i, column.length));
+            }
+        };
+    }
+
+    /**
+     * All the hues, one after the other.
+     *
+     * @param period how long it takes to go through all the hues.
+     * @return the pattern.
+     */
+    static @NonNull PatternGenerator rainbow(double period) {
+        return (t, column) -> Arrays.fill(column, hsv(fract(t / period), 1, 1));
+    }
+
+    /**
+     * Stripes of different colors.
+     *
+     * @param colors   the colors of the stripes, in order.
+     * @param width    how wide each stripe is.
+     * @param vertical if true the stripes follow each other horizontally, otherwise they are
+     *                 stacked along the stick.
+     * @return the pattern.
+     */
+    static @NonNull PatternGenerator stripes(@NonNull int[] colors, double width, boolean vertical) {
+        if (colors.length == 0) {
+            throw new IllegalArgumentException("no colors");
+        }
+        int[] c = colors.clone();
+        return (t, column) -> {
+            if (vertical) {
+                Arrays.fill(column, c[(int) Math.floor(fract(t / width / c.length) * c.length) % c.length]);
+                return;
+            }
+            for (int i = 0; i < column.length; i++) {
+                column[i] = c[(int) Math.floor(fract(y(i, column.length) / width / c.length) * c.length) % c.length];
+            }
+        };
+    }
+
+    /**
+     * Smooth random blots of a color.
+     *
+     * @param color  the color of the blots, the background is black.
+     * @param scale  the size of the blots.
+     * @param period after how long the pattern repeats.
+     * @param seed   selects the random pattern.
+     * @return the pattern.
+     */
+    static @NonNull PatternGenerator noise(int color, double scale, double period, int seed) {
+        // The lattice wraps horizontally, so the pattern can be looped seamlessly.
+        int cells = Math.max(1, (int) Math.round(period / scale));
+        double cell = period / cells;
+        return (t, column) -> {
+            double u = fract(t / period) * cells;
+            int x0 = (int) Math.floor(u);
+            double fx = smooth(u - x0);
+            for (int i = 0; i < column.length; i++) {
+                double v = y(i, column.length) / cell;
+                int y0 = (int) Math.floor(v);
+                double fy = smooth(v - y0);
+                double a = lattice(x0 % cells, y0, seed);
+                double b = lattice((x0 + 1) % cells, y0, seed);
+                double c = lattice(x0 % cells, y0 + 1, seed);
+                double d = lattice((x0 + 1) % cells, y0 + 1, seed);
+                double n = (a + (b - a) * fx) * (1 - fy) + (c + (d - c) * fx) * fy;
+                column[i] = lerp(0xff000000, color, n);
+            }
+        };
+    }
+
+    /**
+     * Colorful waves, made summing sine functions and using the result as hue.
+     *
+     * @param period after how long the pattern repeats.
+     * @return the pattern.
+     */
+    static @NonNull PatternGenerator plasma(double period) {
+        return (t, column) -> {
+            double u = 2 * Math.PI * t / period;
+            for (int i = 0; i < column.length; i++) {
+                double v = 2 * Math.PI * y(i, column.length);
+                double s = Math.sin(u + v) + Math.sin(2 * u - v) + Math.sin(3 * v + Math.cos(u));
+                column[i] = hsv(fract(s / 6 + 0.5), 1, 1);
+            }
+        };
+    }
+
+    /**
+     * Bands of a color fading in and out along the stick, moving at every column.
+     *
+     * @param color  the color of the bands, the background is black.
+     * @param bands  how many bands are on the stick.
+     * @param period how long it takes to move a band to the position of the next one.
+     * @return the pattern.
+     */
+    static @NonNull PatternGenerator sineBands(int color, double bands, double period) {
+        return (t, column) -> {
+            for (int i = 0; i < column.length; i++) {
+                double s = Math.sin(2 * Math.PI * (y(i, column.length) * bands + t / period));
+                column[i] = lerp(0xff000000, color, 0.5 + 0.5 * s);
+            }
+        };
+    }
+
+    /**
+     * Converts a color from HSV to ARGB.
+     *
+     * @param h the hue, between 0 and 1.
+     * @param s the saturation, between 0 and 1.
+     * @param v the value, between 0 and 1.
+     * @return the opaque color.
+     */
+    static int hsv(double h, double s, double v) {
+        double hh = fract(h) * 6;
+        int sector = (int) hh;
+        double f = hh - sector;
+        double p = v * (1 - s);
+        double q = v * (1 - s * f);
+        double r = v * (1 - s * (1 - f));
+        switch (sector) {
+            case 0:
+                return rgb(v, r, p);
+            case 1:
+                return rgb(q, v, p);
+            case 2:
+                return rgb(p, v, r);
+            case 3:
+                return rgb(p, q, v);
+            case 4:
+                return rgb(r, p, v);
+            default:
+                return rgb(v, p, q);
+        }
+    }
+
+    /**
+     * Interpolates each channel of 2 colors.
+     *
+     * @param from the color returned for 0.
+     * @param to   the color returned for 1.
+     * @param k    where to interpolate, between 0 and 1.
+     * @return the color in between.
+     */
+    static int lerp(int from, int to, double k) {
+        int out = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            int a = (from >>> shift) & 0xff;
+            int b = (to >>> shift) & 0xff;
+            out |= (int) Math.round(a + (b - a) * k) << shift;
+        }
+        return out;
+    }
+
+    // The vertical position of the center of the pixel, 0 is the bottom and 1 the top.
+    static double y(int i, int h) {
+        return (i + 0.5) / h;
+    }
+
+    static double fract(double d) {
+        return d - Math.floor(d);
+    }
+
+    static double smooth(double d) {
+        return d * d * (3 - 2 * d);
+    }
+
+    // A pseudo random value between 0 and 1 for each point of the lattice.
+    static double lattice(int x, int y, int seed) {
+        int n = x * 374761393 + y * 668265263 + seed * 1274126177;
+        n = (n ^ (n >>> 13)) * 1103515245;
+        n ^= n >>> 16;
+        return (n & 0xffffff) / (double) 0xffffff;
+    }
+
+    static int rgb(double r, double g, double b) {
+        return 0xff000000 | (int) Math.round(r * 255) << 16 | (int) Math.round(g * 255) << 8 | (int) Math.round(b * 255);
+    }
+}
@@ -0,0 +1,215 @@
+/**
+ *  Copyright 2020-2021 Lorenzo Bossi
+ *
+ *  This file is part of ALPS (Another Light Painting Stick).
+ *
+ *  ALPS is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  ALPS is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with ALPS.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.github.lorentz83.alps.sources;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+
+import com.github.lorentz83.alps.communication.ColumnSource;
+import com.github.lorentz83.alps.utils.AreaResampler;
+import com.github.lorentz83.alps.utils.BitmapLoader;
+import com.github.lorentz83.alps.utils.ColumnExtractor;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A ColumnSource which decodes the image a vertical strip at a time, scaling each strip to the
+ * stick height.
+ * <p>
+ * The memory used doesn't depend on the width of the image, and the 1st column can be sent as
+ * soon as the 1st strip is decoded. It is meant for images too big to be decoded at once, like
+ * panoramas.
+ * <p>
+ * When the image is stretched, the strips are scaled to the unstretched width and their columns
+ * are repeated, so that identical columns are sent to the stick only once.
+ * <p>
+ * Each strip is scaled as if it was cut out of the whole scaled image, using the same filters as
+ * the preview, so there are no seams between the strips.
+ */
+public class RegionColumnSource implements ColumnSource {
+    // How many columns of the stick to decode at once.
+    private static final int STRIP_WIDTH = 64;
+
+    private final ContentResolver _resolver;
+    private final Uri _uri;
+    private final int _srcW;
+    private final int _srcH;
+    private final int _w;
+    // The width of the image before repeating the columns to stretch it.
+    private final int _scaledW;
+    private final int _h;
+    private final int _sampleSize;
+    // The width of the image decoded with _sampleSize.
+    private final int _sampledW;
+    private final boolean _useBilinear;
+    private final boolean _antiAliasing;
+
+    private BitmapRegionDecoder _decoder;
+    // Where the strips are drawn when they are not antialiased.
+    private Bitmap _canvasBitmap;
+    private final int[] _rows;
+    private final int[] _strip;
+    private int _stripX = 0;
+    private int _stripW = 0;
+    private int _x = 0;
+
+    /**
+     * Creates the source.
+     * <p>
+     * The image is opened only when the 1st column is read.
+     *
+     * @param resolver the content resolver to open the uri.
+     * @param uri the image to read.
+     * @param srcW the width of the image.
+     * @param srcH the height of the image.
+     * @param h the number of pixels of the stick.
+     * @param widthMultiplier how much to stretch the image horizontally.
+     * @param useBilinear whether to filter the image when it is scaled without antialiasing.
+     * @param antiAliasing whether to average all the pixels covered by each pixel of the stick.
+     */
+    public RegionColumnSource(@NonNull ContentResolver resolver, @NonNull Uri uri, int srcW, int srcH, int h, float widthMultiplier,
+                              boolean useBilinear, boolean antiAliasing) {
+        _resolver = resolver;
+        _uri = uri;
+        _srcW = srcW;
+        _srcH = srcH;
+        _w = Math.max(1, (int) Math.round((double) h / srcH * srcW * widthMultiplier));
+        _scaledW = Math.min(_w, Math.max(1, (int) Math.round((double) h / srcH * srcW)));
+        _h = h;
+        // Repeated columns don't need more pixels.
+        _sampleSize = BitmapLoader.sampleSizeForStick(srcW, srcH, h, Math.min(1f, widthMultiplier));
+        // A partial column at the right border is dropped, so that every region ends on a whole column.
+        _sampledW = Math.max(1, srcW / _sampleSize);
+        _useBilinear = useBilinear;
+        _antiAliasing = antiAliasing;
+        _rows = new int[STRIP_WIDTH * h];
+        _strip = new int[STRIP_WIDTH * h];
+    }
+
+    @Override
+    public int getHeight() {
+        return _h;
+    }
+
+    @Override
+    public int getWidth() {
+        return _w;
+    }
+
+    @Override
+    public boolean nextColumn(@NonNull int[] column) throws IOException {
+        if (_x >= _w) {
+            return false;
+        }
+        // The nearest column of the unstretched image.
+        int x = (int) ((long) _x * _scaledW / _w);
+        if (x >= _stripX + _stripW) {
+            decodeStrip(x, Math.min(STRIP_WIDTH, _scaledW - x));
+        }
+        System.arraycopy(_strip, (x - _stripX) * _h, column, 0, _h);
+        _x++;
+        return true;
+    }
+
+    private void decodeStrip(int x, int w) throws IOException {
+        if (_decoder == null) {
+            try (InputStream in = _resolver.openInputStream(_uri)) {
+                _decoder = BitmapRegionDecoder.newInstance(in, false);
+            }
+        }
+
+        // The sampled columns which end up in the columns [x, x+w), with one more on each side
+        // so that the filters see the same neighbours as in the whole image.
+        int left = (int) Math.max(0, (long) x * _sampledW / _scaledW - 1);
+        int right = (int) Math.min(_sampledW, ((long) (x + w) * _sampledW + _scaledW - 1) / _scaledW + 1);
+
+        BitmapFactory.Options opts = new BitmapFactory.Options();
+        opts.inSampleSize = _sampleSize;
+        opts.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        Bitmap region = _decoder.decodeRegion(new Rect(left * _sampleSize, 0, right * _sampleSize, _srcH), opts);
+        if (region == null) {
+            throw new IOException("cannot decode image " + _uri);
+        }
+        int regionW = Math.min(region.getWidth(), right - left);
+        int regionH = region.getHeight();
+
+        int[] rows;
+        if (_antiAliasing) {
+            int[] pixels = new int[regionW * regionH];
+            region.getPixels(pixels, 0, regionW, 0, 0, regionW, regionH);
+            try {
+                rows = AreaResampler.resampleStrip(pixels, left, regionW, regionH, _sampledW, _scaledW, _h, x, x + w);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("cannot scale image " + _uri, e);
+            }
+        } else {
+            if (_canvasBitmap == null) {
+                _canvasBitmap = Bitmap.createBitmap(STRIP_WIDTH, _h, Bitmap.Config.ARGB_8888);
+            }
+            _canvasBitmap.eraseColor(Color.TRANSPARENT);
+            // Draw the region where it would be in the whole scaled image, shifted to the strip.
+            Matrix m = new Matrix();
+            m.setScale((float) _scaledW / _sampledW, (float) _h / regionH);
+            m.postTranslate((float) ((double) left * _scaledW / _sampledW - x), 0);
+            Paint paint = new Paint();
+            paint.setFilterBitmap(_useBilinear);
+            new Canvas(_canvasBitmap).drawBitmap(region, m, paint);
+            _canvasBitmap.getPixels(_rows, 0, w, 0, 0, w, _h);
+            rows = _rows;
+        }
+        region.recycle();
+
+        // The pixels are row by row, transpose them in columns.
+        ColumnExtractor.transposeTile(rows, 0, 0, w, _h, _h, _strip);
+        _stripX = x;
+        _stripW = w;
+    }
+
+    @Override
+    public void rewind() {
+        _x = 0;
+        _stripX = 0;
+        _stripW = 0;
+    }
+
+    @Override
+    public void close() {
+        if (_decoder != null) {
+            _decoder.recycle();
+            _decoder = null;
+        }
+        if (_canvasBitmap != null) {
+            _canvasBitmap.recycle();
+            _canvasBitmap = null;
+        }
+    }
+}
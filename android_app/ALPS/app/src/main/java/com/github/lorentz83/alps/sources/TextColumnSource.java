@@ -0,0 +1,123 @@
+/**
+ *  Copyright 2020-2021 Lorenzo Bossi
+ *
+ *  This file is part of ALPS (Another Light Painting Stick).
+ *
+ *  ALPS is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  ALPS is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with ALPS.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.github.lorentz83.alps.sources;
+
+import androidx.annotation.NonNull;
+
+import com.github.lorentz83.alps.communication.ColumnSource;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A ColumnSource which writes a text, one character after the other.
+ * <p>
+ * Each distinct character is rendered only once, at the stick height, and its columns are cached.
+ * The memory used depends on the number of distinct characters, not on the length of the text.
+ */
+public class TextColumnSource implements ColumnSource {
+    /**
+     * Draws a single character.
+     */
+    public interface GlyphRenderer {
+        /**
+         * Renders a character.
+         *
+         * @param codePoint the character.
+         * @return the columns of the character, ordered as expected by ColumnSource.nextColumn.
+         * The length is the height multiplied by the width of the character, which can be 0.
+         */
+        @NonNull int[] render(int codePoint);
+    }
+
+    private final int[] _codePoints;
+    private final int _h;
+    private final GlyphRenderer _renderer;
+    private final Map<Integer, int[]> _glyphs = new HashMap<>();
+
+    private int _w = -1;
+    private int _char = 0;
+    private int _col = 0;
+
+    /**
+     * Creates the source.
+     *
+     * @param text     the text to write.
+     * @param h        the height of the stick.
+     * @param renderer draws the characters, they must be h pixels high.
+     */
+    public TextColumnSource(@NonNull String text, int h, @NonNull GlyphRenderer renderer) {
+        _codePoints = text.codePoints().toArray();
+        _h = h;
+        _renderer = renderer;
+    }
+
+    private int[] glyph(int codePoint) {
+        int[] g = _glyphs.get(codePoint);
+        if (g == null) {
+            g = _renderer.render(codePoint);
+            if (g.length % _h != 0) {
+                throw new IllegalStateException("glyph not aligned to the height");
+            }
+            _glyphs.put(codePoint, g);
+        }
+        return g;
+    }
+
+    @Override
+    public int getHeight() {
+        return _h;
+    }
+
+    @Override
+    public int getWidth() {
+        if (_w < 0) {
+            // It renders all the characters, but only once.
+            int w = 0;
+            for (int cp : _codePoints) {
+                w += glyph(cp).length / _h;
+            }
+            _w = w;
+        }
+        return _w;
+    }
+
+    @Override
+    public boolean nextColumn(@NonNull int[] column) {
+        while (_char < _codePoints.length) {
+            int[] g = glyph(_codePoints[_char]);
+            if (_col * _h < g.length) {
+                System.arraycopy(g, _col * _h, column, 0, _h);
+                _col++;
+                return true;
+            }
+            _char++;
+            _col = 0;
+        }
+        return false;
+    }
+
+    @Override
+    public void rewind() {
+        _char = 0;
+        _col = 0;
+    }
+}
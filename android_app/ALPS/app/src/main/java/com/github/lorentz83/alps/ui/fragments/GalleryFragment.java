@@ -22,93 +22,187 @@ package com.github.lorentz83.alps.ui.fragments;
 
 import android.content.ContentResolver;
 import android.content.res.Resources;
+import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.drawable.BitmapDrawable;
 import android.net.Uri;
 import android.os.Bundle;
+import android.util.LruCache;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.BaseAdapter;
 import android.widget.ImageView;
-import android.widget.LinearLayout;
+import android.widget.ListView;
 
 import androidx.annotation.NonNull;
 import androidx.fragment.app.Fragment;
 
 import com.github.lorentz83.alps.MainActivity;
 import com.github.lorentz83.alps.R;
+import com.github.lorentz83.alps.utils.BitmapLoader;
 import com.github.lorentz83.alps.utils.LogUtility;
 
-import java.io.IOException;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class GalleryFragment extends Fragment {
     private final static LogUtility log = new LogUtility(GalleryFragment.class);
 
     public static final int THUMB_SIZE = 200;
 
-    private final List<Integer> _res;
+    // Memory used by the thumbnails, the least recently used ones are dropped above this.
+    private static final int THUMB_CACHE_BYTES = 8 * 1024 * 1024;
 
+    // The bundled images, they can't change while the app runs.
+    private static List<Integer> _res = null;
 
-    public GalleryFragment() {
-        _res = new ArrayList<>();
-
+    // Shared between instances, it survives the fragment being recreated.
+    private static final LruCache<Integer, Bitmap> _thumbs = new LruCache<Integer, Bitmap>(THUMB_CACHE_BYTES) {
+        @Override
+        protected int sizeOf(Integer key, Bitmap value) {
+            return value.getByteCount();
+        }
+    };
+    private static final ExecutorService _decoder = Executors.newFixedThreadPool(2);
+    // Thumbnails being decoded, accessed only on the UI thread.
+    private final Set<Integer> _loading = new HashSet<>();
+
+    /**
+     * Returns the ids of the images in the gallery, the mipmaps starting with pre_ or local_.
+     *
+     * @return the resource ids.
+     */
+    private static synchronized List<Integer> resources() {
+        if (_res != null) {
+            return _res;
+        }
+        List<Integer> res = new ArrayList<>();
         for (Field f : R.mipmap.class.getFields()) {
             String name = f.getName();
             if (f.getType() == int.class && ( name.startsWith("pre_") || name.startsWith("local_") ) ) {
                 try {
-                    int val = (int) R.mipmap.class.getField(name).get(null);
-                    _res.add(val);
-                } catch (IllegalAccessException | NoSuchFieldException e) {
+                    res.add(f.getInt(null));
+                } catch (IllegalAccessException e) {
                     log.wtf("reflection error ", e);
                 }
             }
         }
-
+        _res = Collections.unmodifiableList(res);
+        return _res;
     }
 
     @Override
     public View onCreateView(@NonNull LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
         View root = inflater.inflate(R.layout.content_gallery, container, false);
 
-        LinearLayout layout = root.findViewById(R.id.gallery_layout);
+        ListView list = root.findViewById(R.id.gallery_list);
 
         final MainActivity ctx = (MainActivity) getContext();
         final Resources resources = getContext().getResources();
+        final List<Integer> res = resources();
 
-        for (int id : _res) {
-            ImageView img = new ImageView(getContext());
-            layout.addView(img);
+        list.setAdapter(new BaseAdapter() {
+            @Override
+            public int getCount() {
+                return res.size();
+            }
 
-            img.setLayoutParams(new LinearLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT));
-            img.setScaleType(ImageView.ScaleType.FIT_CENTER);
-            img.setPadding(10, 10, 10, 10);
+            @Override
+            public Integer getItem(int position) {
+                return res.get(position);
+            }
 
-            img.setMinimumHeight(THUMB_SIZE);
-            img.setMinimumWidth(THUMB_SIZE);
+            @Override
+            public long getItemId(int position) {
+                return res.get(position);
+            }
 
-            BitmapDrawable drawable = new BitmapDrawable(getResources(), BitmapFactory.decodeResource(resources, id));
-            drawable.getPaint().setFilterBitmap(false);
-            img.setImageDrawable(drawable);
+            @Override
+            public View getView(int position, View convertView, ViewGroup parent) {
+                ImageView img = (ImageView) convertView;
+                if (img == null) {
+                    img = new ImageView(getContext());
+                    img.setLayoutParams(new AbsListView.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT));
+                    img.setScaleType(ImageView.ScaleType.FIT_CENTER);
+                    img.setAdjustViewBounds(true);
+                    img.setPadding(10, 10, 10, 10);
+
+                    img.setMinimumHeight(THUMB_SIZE);
+                    img.setMinimumWidth(THUMB_SIZE);
+                }
+                bindThumbnail(img, resources, res.get(position));
+                return img;
+            }
+        });
+
+        list.setOnItemClickListener((parent, view, position, rowId) -> {
+            int id = res.get(position);
+            Uri uri = new Uri.Builder()
+                    .scheme(ContentResolver.SCHEME_ANDROID_RESOURCE)
+                    .authority(resources.getResourcePackageName(id))
+                    .appendPath(resources.getResourceTypeName(id))
+                    .appendPath(resources.getResourceEntryName(id))
+                    .build();
+            ctx.openImage(uri);
+        });
 
-            img.setOnClickListener(v -> {
-                Uri uri = new Uri.Builder()
-                        .scheme(ContentResolver.SCHEME_ANDROID_RESOURCE)
-                        .authority(resources.getResourcePackageName(id))
-                        .appendPath(resources.getResourceTypeName(id))
-                        .appendPath(resources.getResourceEntryName(id))
-                        .build();
-                try {
-                    ctx.openImage(uri);
-                } catch (IOException e) {
-                    log.wtf("cannot open pre-loaded image", e);
+        return root;
+    }
+
+    // Shows the thumbnail if it is cached, otherwise decodes it in background.
+    private void bindThumbnail(ImageView img, Resources resources, int id) {
+        img.setTag(id);
+        Bitmap thumb = _thumbs.get(id);
+        if (thumb != null) {
+            setThumbnail(img, thumb);
+            return;
+        }
+        img.setImageDrawable(null);
+        if (!_loading.add(id)) {
+            return;
+        }
+        _decoder.execute(() -> {
+            Bitmap bmp = decodeThumbnail(resources, id);
+            img.post(() -> {
+                _loading.remove(id);
+                if (bmp == null) {
+                    return;
+                }
+                _thumbs.put(id, bmp);
+                // The view may have been reused for another image while we were decoding.
+                if (Integer.valueOf(id).equals(img.getTag())) {
+                    setThumbnail(img, bmp);
                 }
             });
-        }
+        });
+    }
 
-        return root;
+    private void setThumbnail(ImageView img, Bitmap bmp) {
+        BitmapDrawable drawable = new BitmapDrawable(getResources(), bmp);
+        drawable.getPaint().setFilterBitmap(false);
+        img.setImageDrawable(drawable);
     }
 
+    // Runs in background.
+    private static Bitmap decodeThumbnail(Resources resources, int id) {
+        BitmapFactory.Options opts = new BitmapFactory.Options();
+        opts.inJustDecodeBounds = true;
+        BitmapFactory.decodeResource(resources, id, opts);
+
+        opts.inJustDecodeBounds = false;
+        opts.inSampleSize = BitmapLoader.sampleSizeForMinSize(opts.outHeight, THUMB_SIZE);
+        Bitmap bmp = BitmapFactory.decodeResource(resources, id, opts);
+        if (bmp == null) {
+            log.w("cannot decode resource %d", id);
+        }
+        return bmp;
+    }
 }
@@ -20,15 +20,13 @@
 
 package com.github.lorentz83.alps.ui.fragments;
 
-import android.bluetooth.BluetoothSocket;
+import android.content.SharedPreferences;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.drawable.BitmapDrawable;
+import android.net.Uri;
 import android.os.Bundle;
-import android.renderscript.Allocation;
-import android.renderscript.Element;
-import android.renderscript.RenderScript;
-import android.renderscript.ScriptIntrinsicBlur;
+import android.util.DisplayMetrics;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -38,44 +36,107 @@ import android.widget.ProgressBar;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.fragment.app.Fragment;
 import androidx.fragment.app.FragmentActivity;
 
 import com.github.lorentz83.alps.MainActivity;
 import com.github.lorentz83.alps.Preferences;
 import com.github.lorentz83.alps.R;
+import com.github.lorentz83.alps.communication.ColumnSource;
 import com.github.lorentz83.alps.communication.Protocol;
 import com.github.lorentz83.alps.communication.Sender;
 import com.github.lorentz83.alps.communication.SenderCallbacks;
+import com.github.lorentz83.alps.communication.StickGroup;
+import com.github.lorentz83.alps.sources.BitmapColumnSource;
+import com.github.lorentz83.alps.sources.ColumnSourceFactory;
+import com.github.lorentz83.alps.sources.MappedColumnSource;
+import com.github.lorentz83.alps.sources.RegionColumnSource;
 import com.github.lorentz83.alps.ui.views.MyChronometer;
 import com.github.lorentz83.alps.ui.views.PlayStopButton;
+import com.github.lorentz83.alps.utils.BitmapLoader;
+import com.github.lorentz83.alps.utils.ColumnExtractor;
+import com.github.lorentz83.alps.utils.DebouncedRenderer;
+import com.github.lorentz83.alps.utils.ImagePyramid;
 import com.github.lorentz83.alps.utils.LogUtility;
+import com.github.lorentz83.alps.utils.PreparedImageCache;
+import com.github.lorentz83.alps.utils.RawBitmapFile;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class PreviewFragment extends Fragment {
     private final static LogUtility log = new LogUtility(PreviewFragment.class);
 
-    private final static String LAST_IMAGE_FILENAME = "last_image.png";
+    private final static String LAST_IMAGE_FILENAME = "last_image.raw";
+    // Format used by older versions, read only if the raw file is missing.
+    private final static String LEGACY_LAST_IMAGE_FILENAME = "last_image.png";
+
+    // Settings changes usually come in bursts, i.e. while dragging a slider.
+    private final static long PREVIEW_DEBOUNCE_MS = 150;
+
+    private final static String PREPARED_CACHE_DIR = "prepared";
+    private final static long PREPARED_CACHE_BYTES = 16 * 1024 * 1024;
+
+    // Generated images can be very long or infinite, only their beginning is previewed.
+    private final static int MAX_PREVIEW_COLUMNS = 4096;
 
     private Preferences _sharedPref;
 
-    private Protocol _protocol;
+    private StickGroup _sticks;
     private Sender _sender;
 
-    private Bitmap _fullSizeBitmap = null;
+    // Forwards brightness and delay to the sender, so they can be changed while the image is shown.
+    // It must be a field because the preferences keep only a weak reference to it.
+    private final SharedPreferences.OnSharedPreferenceChangeListener _showSettingsListener = (prefs, key) -> {
+        if (_sender != null) {
+            _sender.setExtraDelay(_sharedPref.getWaitTimeMs());
+            _sender.setBrightness(_sharedPref.getStickBrightness());
+        }
+    };
+
+    // The image to send, decoded only if its scaled copy is not in _preparedCache.
+    private SourceImage _source = null;
     private Bitmap _bitmap = null;
+    // The columns of _bitmap mapped from _preparedCache, null if it is not stored there.
+    private MappedColumnSource _preparedColumns = null;
+    // Set only if the image is too big to be decoded at once. In this case _source is
+    // subsampled and used only for the preview.
+    private Uri _largeImageUri = null;
+    // Stores and restores the last image, tasks run in order.
+    private final ExecutorService _storageExecutor = Executors.newSingleThreadExecutor();
+    // False until the previous image is restored, nothing must be stored before.
+    private boolean _restored = false;
+    // The last image written, to avoid writing it again.
+    private SourceImage _storedImage = null;
+    private int _largeImageWidth;
+    private int _largeImageHeight;
+    // Set only if the image is generated while it is sent. In this case _source is null.
+    private ColumnSourceFactory _columnFactory = null;
     private ImageView _preview;
+    private DebouncedRenderer<PreviewKey, PreparedImage> _previewRenderer;
+    private PreviewKey _previewKey = null;
+    private PreparedImageCache _preparedCache;
+    // Previews of cached images are drawn no wider than this.
+    private int _maxPreviewWidth;
     Button _uploadBtn;
     PlayStopButton _playStopBtn;
 
     @Override
     public void onCreate (Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        _preparedCache = new PreparedImageCache(new File(getContext().getCacheDir(), PREPARED_CACHE_DIR), PREPARED_CACHE_BYTES);
+        DisplayMetrics screen = getResources().getDisplayMetrics();
+        _maxPreviewWidth = Math.max(screen.widthPixels, screen.heightPixels);
         restorePreviousImage();
     }
 
@@ -85,6 +146,13 @@ public class PreviewFragment extends Fragment {
         storeCurrentImage();
     }
 
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        // Lets the last store complete.
+        _storageExecutor.shutdown();
+    }
+
     @Override
     public View onCreateView(@NonNull LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
         View root = inflater.inflate(R.layout.content_preview, container, false);
@@ -93,6 +161,12 @@ public class PreviewFragment extends Fragment {
 
         _preview = root.findViewById(R.id.image_preview);
 
+        _previewRenderer = new DebouncedRenderer<>(PREVIEW_DEBOUNCE_MS,
+                this::prepare,
+                getActivity()::runOnUiThread,
+                this::showPreview,
+                this::previewFailed);
+
         _playStopBtn = new PlayStopButton(root.findViewById(R.id.btn_play_stop));
         _playStopBtn.setOnPlayListener(v -> {
             boolean ok = buttonPlayClicked();
@@ -115,8 +189,9 @@ public class PreviewFragment extends Fragment {
         final MyChronometer chronometer = new MyChronometer(root.findViewById(R.id.chronometer));
         final FragmentActivity ctx = getActivity();
 
-        _protocol = new Protocol();
-        _sender = new Sender(_protocol, new SenderCallbacks() {
+        // Replaced by the connected sticks when an image is sent.
+        _sticks = new StickGroup(new Protocol());
+        _sender = new Sender(_sticks, new SenderCallbacks() {
 
             @Override
             public void progress(int percentage) {
@@ -163,7 +238,9 @@ public class PreviewFragment extends Fragment {
             }
         });
 
-        if (_fullSizeBitmap != null) {
+        _sharedPref.registerOnChangeListener(_showSettingsListener);
+
+        if (hasImage()) {
             updatePreview();
         }
 
@@ -173,6 +250,9 @@ public class PreviewFragment extends Fragment {
     @Override
     public void onDestroyView() {
         super.onDestroyView();
+        _sharedPref.unregisterOnChangeListener(_showSettingsListener);
+        _previewRenderer.shutdown();
+        _previewRenderer = null;
         if (_sender != null) {
             _sender.kill();
             _sender = null;
@@ -185,26 +265,75 @@ public class PreviewFragment extends Fragment {
      * @param img the bitmap to send.
      */
     public void setBitmap(@NonNull Bitmap img) {
-        _fullSizeBitmap = img;
+        setBitmap(img, null);
+    }
+
+    /**
+     * Sets the image to preview and send to the stick.
+     *
+     * @param img the bitmap to send.
+     * @param sourceId identifies where the image comes from, i.e. its uri. If not null, the scaled
+     *                 image is cached and reused the next time the same source is opened.
+     */
+    public void setBitmap(@NonNull Bitmap img, @Nullable String sourceId) {
+        _source = new SourceImage(img, sourceId);
+        _largeImageUri = null;
+        _columnFactory = null;
         updatePreview();
     }
 
-    private @NonNull Bitmap blur(@NonNull Bitmap image, float radius) {
-        Bitmap outputBitmap = image.copy(image.getConfig(), image.isMutable());
-        if ( radius == 0 ) {
-            return outputBitmap;
-        }
+    /**
+     * Sets an image which is decoded only if needed.
+     * <p>
+     * If the image scaled with the current settings is in the cache, it is shown and sent
+     * without decoding the source.
+     *
+     * @param decoder decodes the image, it is called in background.
+     * @param sourceId identifies where the image comes from, see setBitmap.
+     */
+    public void setImage(@NonNull BitmapDecoder decoder, @NonNull String sourceId) {
+        _source = new SourceImage(decoder, sourceId);
+        _largeImageUri = null;
+        _columnFactory = null;
+        updatePreview();
+    }
 
-        final RenderScript renderScript = RenderScript.create(getContext());
-        Allocation tmpIn = Allocation.createFromBitmap(renderScript, image);
-        Allocation tmpOut = Allocation.createFromBitmap(renderScript, outputBitmap);
+    /**
+     * Sets an image too big to be decoded at once.
+     * <p>
+     * The preview is generated from a subsampled copy, while the image sent to the stick is
+     * decoded from the uri a strip at a time.
+     *
+     * @param preview a subsampled copy of the image.
+     * @param uri the original image.
+     * @param w the width of the original image.
+     * @param h the height of the original image.
+     */
+    public void setLargeImage(@NonNull Bitmap preview, @NonNull Uri uri, int w, int h) {
+        _source = new SourceImage(preview, null);
+        _largeImageUri = uri;
+        _largeImageWidth = w;
+        _largeImageHeight = h;
+        _columnFactory = null;
+        updatePreview();
+    }
 
-        ScriptIntrinsicBlur theIntrinsic = ScriptIntrinsicBlur.create(renderScript, Element.U8_4(renderScript));
-        theIntrinsic.setRadius(radius);
-        theIntrinsic.setInput(tmpIn);
-        theIntrinsic.forEach(tmpOut);
-        tmpOut.copyTo(outputBitmap);
-        return outputBitmap;
+    /**
+     * Sets an image generated while it is sent, like a text.
+     * <p>
+     * The image is generated again every time the stick length or the width multiplier change.
+     *
+     * @param factory creates the columns of the image.
+     */
+    public void setColumnSource(@NonNull ColumnSourceFactory factory) {
+        _source = null;
+        _largeImageUri = null;
+        _columnFactory = factory;
+        updatePreview();
+    }
+
+    private boolean hasImage() {
+        return _source != null || _columnFactory != null;
     }
 
     /**
@@ -212,38 +341,276 @@ public class PreviewFragment extends Fragment {
      * <p>
      * This method also rescales the image.
      * Call it to force generating a new scaled image if the stick length setting changed.
+     * The image is scaled in background, if the settings didn't change since the last time
+     * the previous result is reused.
      */
     public void updatePreview() {
-        if (_fullSizeBitmap == null) {
+        if (_previewRenderer == null) {
+            // No view yet, onCreateView will call us again.
+            return;
+        }
+        if (_columnFactory != null) {
+            _previewKey = new PreviewKey(_columnFactory, _sharedPref.getStickLength(), _sharedPref.getWidthMultiplier());
+            _previewRenderer.request(_previewKey);
+            return;
+        }
+        if (_source == null) {
+            _bitmap = null;
+            _preparedColumns = null;
             _preview.setImageDrawable(null);
             return;
         }
+        _previewKey = new PreviewKey(_source, _sharedPref.getStickLength(), _sharedPref.getWidthMultiplier(),
+                _sharedPref.getUseBilinearFilter(), _sharedPref.getAntiAliasing());
+        _previewRenderer.request(_previewKey);
+    }
 
-        int w = _fullSizeBitmap.getWidth();
-        int h = _fullSizeBitmap.getHeight();
-
-        int len = _sharedPref.getStickLength();
-        float widthMultiplier = _sharedPref.getWidthMultiplier();
-        w = (int) Math.round((double) len / h * w * widthMultiplier);
-        h = len;
-
-        boolean useBilinear = _sharedPref.getUseBilinearFilter();
-        boolean antiAliasing = _sharedPref.getAntiAliasing();
-        float blurRadius = 0f;
-        if ( antiAliasing ) {
-            float blurRadiusH = _fullSizeBitmap.getHeight() / (float)h;
-            float blurRadiusW = _fullSizeBitmap.getWidth() / (float)w;
-            blurRadius = (blurRadiusH + blurRadiusW) / 2;
+    private void showPreview(@NonNull PreparedImage img) {
+        _bitmap = img.bitmap;
+        _preparedColumns = img.columns;
+        BitmapDrawable myBitmapDrawable = new BitmapDrawable(getResources(), _bitmap);
+        myBitmapDrawable.getPaint().setFilterBitmap(false);
+        _preview.setImageDrawable(myBitmapDrawable);
+    }
+
+    // Nothing is sent until the image is prepared again.
+    private void previewFailed(@NonNull Throwable e) {
+        log.w("cannot prepare the image", e);
+        _bitmap = null;
+        _preparedColumns = null;
+        _preview.setImageDrawable(null);
+        showToast(getString(R.string.image_error, e.getMessage()));
+    }
+
+    // Runs in background, the cache file is mapped here and not when the image is sent. The source
+    // is decoded only if its scaled copy is not in the cache.
+    private @NonNull PreparedImage prepare(@NonNull PreviewKey key) {
+        if (key.factory != null) {
+            return new PreparedImage(previewColumns(key), null);
+        }
+        String cacheKey = key.cacheKey();
+        if (cacheKey != null) {
+            MappedColumnSource cached = _preparedCache.get(cacheKey);
+            if (cached != null) {
+                log.i("scaled image found in cache");
+                return new PreparedImage(previewCached(cached, _maxPreviewWidth), cached);
+            }
         }
+        Bitmap scaled;
+        try {
+            scaled = scale(key);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        MappedColumnSource stored = null;
+        if (cacheKey != null && !Thread.currentThread().isInterrupted()) {
+            try {
+                _preparedCache.put(cacheKey, new BitmapColumnSource(scaled));
+                stored = _preparedCache.get(cacheKey);
+            } catch (IOException e) {
+                log.w("cannot cache the scaled image", e);
+            }
+        }
+        return new PreparedImage(scaled, stored);
+    }
 
-        log.i("use bilinear = %s, blur = %s, blur radius %f", useBilinear, antiAliasing, blurRadius);
+    // Draws the first columns of a generated image.
+    private static @NonNull Bitmap previewColumns(@NonNull PreviewKey key) {
+        try (ColumnSource src = key.factory.create(key.len, key.widthMultiplier)) {
+            int h = src.getHeight();
+            int max = src.getWidth() == ColumnSource.UNKNOWN_WIDTH ? MAX_PREVIEW_COLUMNS : Math.min(src.getWidth(), MAX_PREVIEW_COLUMNS);
+            int[] columns = new int[Math.max(1, max) * h];
+            int[] column = new int[h];
+            int w = 0;
+            while (w < max && src.nextColumn(column)) {
+                System.arraycopy(column, 0, columns, w * h, h);
+                w++;
+            }
+            // A bitmap cannot be empty, an empty image is shown as a transparent column.
+            w = Math.max(1, w);
+            int[] rows = ColumnExtractor.rows(Arrays.copyOf(columns, w * h), w, h);
+            return Bitmap.createBitmap(rows, w, h, Bitmap.Config.ARGB_8888);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 
-        _bitmap = blur(_fullSizeBitmap, blurRadius);
-        _bitmap = Bitmap.createScaledBitmap(_bitmap, w, h, useBilinear);
+    // Draws the columns read from the cache, scaled down to fit the width. Only the preview is
+    // allocated, the stick is sent the mapped columns.
+    private static @NonNull Bitmap previewCached(@NonNull MappedColumnSource cached, int maxW) {
+        int w = cached.getWidth();
+        int h = cached.getHeight();
+        int previewW = Math.min(w, maxW);
+        int previewH = Math.max(1, (int) ((long) h * previewW / w));
+        int[] rows = new int[previewW * previewH];
+        int[] column = new int[h];
+        int px = 0;
+        for (int x = 0; px < previewW && cached.nextColumn(column); x++) {
+            // Nearest column, the same way the stick pixels are shown.
+            if ((long) px * w / previewW != x) {
+                continue;
+            }
+            for (int y = 0; y < previewH; y++) {
+                // The bottom row of the image is the first pixel of the column.
+                rows[y * previewW + px] = column[h - 1 - (int) ((long) y * h / previewH)];
+            }
+            px++;
+        }
+        cached.rewind();
+        return Bitmap.createBitmap(rows, previewW, previewH, Bitmap.Config.ARGB_8888);
+    }
 
-        BitmapDrawable myBitmapDrawable = new BitmapDrawable(getResources(), _bitmap);
-        myBitmapDrawable.getPaint().setFilterBitmap(false);
-        _preview.setImageDrawable(myBitmapDrawable);
+    private static @NonNull Bitmap scale(@NonNull PreviewKey key) throws IOException {
+        Bitmap src = key.source.decode();
+        int h = key.len;
+        int w = Math.max(1, (int) Math.round((double) h / src.getHeight() * src.getWidth() * key.widthMultiplier));
+        // A stretched image is scaled without the multiplier and then its columns are repeated,
+        // the stick receives each of them once with the number of times to show it.
+        int scaledW = Math.min(w, Math.max(1, (int) Math.round((double) h / src.getHeight() * src.getWidth())));
+
+        log.i("use bilinear = %s, antialiasing = %s", key.useBilinear, key.antiAliasing);
+
+        Bitmap scaled;
+        if (!key.antiAliasing) {
+            scaled = Bitmap.createScaledBitmap(src, scaledW, h, key.useBilinear);
+        } else {
+            // Averaging all the covered pixels is already the best antialiasing we can get.
+            scaled = Bitmap.createBitmap(key.source.pyramid().resample(scaledW, h), scaledW, h, Bitmap.Config.ARGB_8888);
+        }
+        if (scaledW == w) {
+            return scaled;
+        }
+        // Without filter each column is a copy of the nearest one.
+        return Bitmap.createScaledBitmap(scaled, w, h, false);
+    }
+
+    /**
+     * The result of prepare.
+     */
+    private static class PreparedImage {
+        final Bitmap bitmap;
+        // The same columns mapped from the cache, null if they are not stored there.
+        final MappedColumnSource columns;
+
+        PreparedImage(@NonNull Bitmap bitmap, @Nullable MappedColumnSource columns) {
+            this.bitmap = bitmap;
+            this.columns = columns;
+        }
+    }
+
+    /**
+     * Decodes an image.
+     */
+    public interface BitmapDecoder {
+        /**
+         * Decodes the image.
+         *
+         * @return the image.
+         * @throws IOException if the image cannot be read.
+         */
+        @NonNull Bitmap decode() throws IOException;
+    }
+
+    /**
+     * The image to send, decoded the first time it is needed.
+     */
+    private static class SourceImage implements BitmapDecoder {
+        // Identifies the image to cache the scaled copies, null if they cannot be cached.
+        final String sourceId;
+        private BitmapDecoder _decoder;
+        private Bitmap _bitmap;
+        // Levels of the image, to quickly scale it again when the settings change.
+        private ImagePyramid _pyramid;
+
+        SourceImage(@NonNull Bitmap bitmap, @Nullable String sourceId) {
+            this.sourceId = sourceId;
+            _bitmap = bitmap;
+        }
+
+        SourceImage(@NonNull BitmapDecoder decoder, @Nullable String sourceId) {
+            this.sourceId = sourceId;
+            _decoder = decoder;
+        }
+
+        @Override
+        public synchronized @NonNull Bitmap decode() throws IOException {
+            if (_bitmap == null) {
+                _bitmap = _decoder.decode();
+                _decoder = null;
+            }
+            return _bitmap;
+        }
+
+        synchronized @NonNull ImagePyramid pyramid() throws IOException {
+            if (_pyramid == null) {
+                final Bitmap src = decode();
+                _pyramid = new ImagePyramid(src.getWidth(), src.getHeight(), () -> {
+                    int[] pixels = new int[src.getWidth() * src.getHeight()];
+                    src.getPixels(pixels, 0, src.getWidth(), 0, 0, src.getWidth(), src.getHeight());
+                    return pixels;
+                });
+            }
+            return _pyramid;
+        }
+    }
+
+    /**
+     * Everything the scaled image depends on.
+     */
+    private static class PreviewKey {
+        // Either source or factory is set.
+        final SourceImage source;
+        final ColumnSourceFactory factory;
+        final int len;
+        final float widthMultiplier;
+        final boolean useBilinear;
+        final boolean antiAliasing;
+
+        PreviewKey(SourceImage source, int len, float widthMultiplier, boolean useBilinear, boolean antiAliasing) {
+            this.source = source;
+            this.factory = null;
+            this.len = len;
+            this.widthMultiplier = widthMultiplier;
+            this.useBilinear = useBilinear;
+            this.antiAliasing = antiAliasing;
+        }
+
+        PreviewKey(ColumnSourceFactory factory, int len, float widthMultiplier) {
+            this.source = null;
+            this.factory = factory;
+            this.len = len;
+            this.widthMultiplier = widthMultiplier;
+            this.useBilinear = false;
+            this.antiAliasing = false;
+        }
+
+        /**
+         * Returns the key of the scaled image in the PreparedImageCache.
+         *
+         * @return the key, or null if the source cannot be cached.
+         */
+        @Nullable String cacheKey() {
+            if (source == null || source.sourceId == null) {
+                return null;
+            }
+            return PreparedImageCache.key(source.sourceId, len, widthMultiplier, useBilinear, antiAliasing);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PreviewKey)) {
+                return false;
+            }
+            PreviewKey k = (PreviewKey) o;
+            // Images are compared by identity, comparing the pixels would defeat the purpose.
+            return source == k.source && factory == k.factory && len == k.len && widthMultiplier == k.widthMultiplier
+                    && useBilinear == k.useBilinear && antiAliasing == k.antiAliasing;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(source), System.identityHashCode(factory), len, widthMultiplier, useBilinear, antiAliasing);
+        }
     }
 
     /**
@@ -269,21 +636,38 @@ public class PreviewFragment extends Fragment {
     public boolean buttonPlayClicked() {
         log.i("play");
         try {
-            BluetoothSocket dev = _sharedPref.getConnectedBluetooth();
-            if (dev == null) {
+            if (!connectSticks()) {
                 showToast(getString(R.string.not_connected));
                 return false;
             }
-            _protocol.initializeConnection(dev);
 
-            if (_bitmap == null) {
+            if (!hasImage()) {
                 showToast(getString(R.string.no_image));
                 return false;
             }
+            if (_bitmap == null || _previewRenderer.isPending()) {
+                // If it failed, let's try again.
+                updatePreview();
+                showToast(getString(R.string.image_not_ready));
+                return false;
+            }
             _sender.setExtraDelay(_sharedPref.getWaitTimeMs());
             _sender.setLoop(_sharedPref.getLoop());
             _sender.setBrightness(_sharedPref.getStickBrightness());
-            _sender.sendBitmap(_bitmap);
+            if (_columnFactory != null) {
+                _sender.sendColumns(_columnFactory.create(_sharedPref.getStickLength(), _sharedPref.getWidthMultiplier()));
+            } else if (_largeImageUri != null) {
+                _sender.sendColumns(new RegionColumnSource(getContext().getContentResolver(), _largeImageUri,
+                        _largeImageWidth, _largeImageHeight, _sharedPref.getStickLength(), _sharedPref.getWidthMultiplier(),
+                        _sharedPref.getUseBilinearFilter(), _sharedPref.getAntiAliasing()));
+            } else {
+                if (_preparedColumns != null) {
+                    // Each send reads the mapping from the first column.
+                    _sender.sendColumns(_preparedColumns.duplicate());
+                } else {
+                    _sender.sendBitmap(_bitmap);
+                }
+            }
 
         } catch (IOException e) {
             showToast(getString(R.string.bluetooth_error));
@@ -302,18 +686,26 @@ public class PreviewFragment extends Fragment {
         log.i("Upload started");
         // TODO this is too similar to buttonPlayClicked
         try {
-            BluetoothSocket dev = _sharedPref.getConnectedBluetooth();
-            if (dev == null) {
+            if (!connectSticks()) {
                 showToast(getString(R.string.not_connected));
                 return false;
             }
-            _protocol.initializeConnection(dev);
 
-            if (_bitmap == null) {
+            if (!hasImage()) {
                 showToast(getString(R.string.no_image));
                 return false;
             }
-            _sender.uploadBitmap(_bitmap);
+            if (_bitmap == null || _previewRenderer.isPending()) {
+                // If it failed, let's try again.
+                updatePreview();
+                showToast(getString(R.string.image_not_ready));
+                return false;
+            }
+            if (_columnFactory != null) {
+                _sender.uploadColumns(_columnFactory.create(_sharedPref.getStickLength(), _sharedPref.getWidthMultiplier()));
+            } else {
+                _sender.uploadBitmap(_bitmap);
+            }
 
         } catch (IOException e) {
             showToast(getString(R.string.bluetooth_error));
@@ -323,32 +715,111 @@ public class PreviewFragment extends Fragment {
         return true;
     }
 
+    // Sends to the main stick and to the ones added to it, already negotiated by the activity
+    // when they connected.
+    private boolean connectSticks() {
+        Protocol main = _sharedPref.getConnectedStick();
+        if (main == null) {
+            return false;
+        }
+        List<Protocol> sticks = new ArrayList<>();
+        sticks.add(main);
+        sticks.addAll(_sharedPref.getExtraConnectedSticks());
+        _sticks.setSticks(sticks, _sharedPref.getMirrorSticks() ? StickGroup.Layout.MIRROR : StickGroup.Layout.SLICES);
+        return true;
+    }
+
     private void showToast(final String msg) {
         final FragmentActivity ctx = getActivity();
         ctx.runOnUiThread(() -> Toast.makeText(ctx, msg, Toast.LENGTH_SHORT).show());
     }
 
     private void storeCurrentImage() {
-        File f = new File(getContext().getExternalCacheDir(), LAST_IMAGE_FILENAME);
-        if ( _fullSizeBitmap == null ) {
-            log.i("no image to store");
-            f.delete();
+        // Generated images are not stored, their preview has only the first columns. The previous
+        // image is deleted anyway, restoring it would replace the current one.
+        final SourceImage src = _source;
+        if (src == null && !_restored) {
+            // Don't delete the previous image before reading it.
             return;
         }
-        try (FileOutputStream fos = new FileOutputStream(f)) {
-            _fullSizeBitmap.compress(Bitmap.CompressFormat.PNG, 100, fos);
-        } catch (IOException e) {
-            log.w("cannot store current image", e);
+        if (src != null && src == _storedImage) {
+            return;
+        }
+        _storedImage = src;
+        final File f = new File(getContext().getExternalCacheDir(), LAST_IMAGE_FILENAME);
+        _storageExecutor.execute(() -> {
+            if (src == null) {
+                log.i("no image to store");
+                f.delete();
+                return;
+            }
+            try {
+                // An image shown from the cache is decoded only now.
+                Bitmap bmp = src.decode();
+                Bitmap reduced = fitToLongestStick(bmp);
+                // Other pixels, they must not share the scaled images of the source in the cache.
+                RawBitmapFile.write(f, reduced, reduced == bmp ? src.sourceId : null);
+            } catch (IOException e) {
+                log.w("cannot store current image", e);
+            }
+        });
+    }
+
+    // Runs in background. The image is stored only with the pixels the longest stick needs, the
+    // decoded source can be much bigger.
+    private static @NonNull Bitmap fitToLongestStick(@NonNull Bitmap bmp) {
+        int h = BitmapLoader.MAX_STICK_LENGTH * BitmapLoader.STICK_OVERSAMPLING;
+        if (bmp.getHeight() <= h) {
+            return bmp;
         }
+        int w = Math.max(1, (int) Math.round((double) h / bmp.getHeight() * bmp.getWidth()));
+        return Bitmap.createScaledBitmap(bmp, w, h, true);
     }
 
     private void restorePreviousImage() {
-        File f = new File(getContext().getExternalCacheDir(), LAST_IMAGE_FILENAME);
-        _fullSizeBitmap = BitmapFactory.decodeFile(f.getPath());
+        final File dir = getContext().getExternalCacheDir();
+        final FragmentActivity ctx = getActivity();
+        _storageExecutor.execute(() -> {
+            Bitmap bmp = null;
+            String sourceId = null;
+            File f = new File(dir, LAST_IMAGE_FILENAME);
+            File legacy = new File(dir, LEGACY_LAST_IMAGE_FILENAME);
+            if (f.exists()) {
+                try {
+                    RawBitmapFile.Image img = RawBitmapFile.read(f);
+                    bmp = img.bitmap;
+                    sourceId = img.sourceId;
+                } catch (IOException e) {
+                    log.w("cannot restore previous image", e);
+                }
+            } else if (legacy.exists()) {
+                bmp = BitmapFactory.decodeFile(legacy.getPath());
+                legacy.delete();
+            }
+
+            final Bitmap restored = bmp;
+            final String restoredId = sourceId;
+            ctx.runOnUiThread(() -> {
+                _restored = true;
+                // The user may have opened a new image in the meantime.
+                if (restored != null && !hasImage()) {
+                    setBitmap(restored, restoredId);
+                    _storedImage = _source;
+                }
+            });
+        });
     }
 
-    public Bitmap getBitmap() {
-        return _fullSizeBitmap;
+    /**
+     * Returns the current image.
+     * <p>
+     * It may not be decoded yet, call decode in background.
+     *
+     * @return the image, or null if there is no image or it is generated while it is sent. The
+     * preview of a generated image has only its first columns, it cannot replace it.
+     */
+    public @Nullable BitmapDecoder getImage() {
+        return _source;
     }
 }
 
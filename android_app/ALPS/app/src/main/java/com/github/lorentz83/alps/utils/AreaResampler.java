@@ -0,0 +1,274 @@
+/**
+ *  Copyright 2020-2021 Lorenzo Bossi
+ *
+ *  This file is part of ALPS (Another Light Painting Stick).
+ *
+ *  ALPS is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  ALPS is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with ALPS.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.github.lorentz83.alps.utils;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Scales ARGB images averaging all the source pixels covered by each destination pixel.
+ * <p>
+ * It works in a single pass over the source, without blurring it first, and the output columns
+ * are split between the threads of a fork/join pool.
+ * It doesn't depend on Android, so it can be tested and benchmarked on any JVM.
+ */
+public class AreaResampler {
+    // Number of output columns under which a task is not split any further.
+    static final int MIN_TASK_COLUMNS = 16;
+
+    /**
+     * Scales the image using the common fork/join pool.
+     *
+     * @see #resample(int[], int, int, int, int, ForkJoinPool)
+     */
+    public static @NonNull int[] resample(@NonNull int[] src, int w, int h, int dstW, int dstH) {
+        return resample(src, w, h, dstW, dstH, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Scales the image.
+     * <p>
+     * The colors are averaged weighted by their alpha, so transparent pixels don't darken the
+     * borders of the image.
+     *
+     * @param src  the pixels in ARGB format, row by row, as returned by Bitmap.getPixels.
+     * @param w    the width of the source.
+     * @param h    the height of the source.
+     * @param dstW the width of the result.
+     * @param dstH the height of the result.
+     * @param pool the pool to run into.
+     * @return the scaled pixels in ARGB format, row by row.
+     * @throws IllegalArgumentException if the sizes are not valid.
+     */
+    public static @NonNull int[] resample(@NonNull int[] src, int w, int h, int dstW, int dstH, @NonNull ForkJoinPool pool) {
+        if (w <= 0 || h <= 0 || dstW <= 0 || dstH <= 0) {
+            throw new IllegalArgumentException("sizes must be positive");
+        }
+        if (src.length < w * h) {
+            throw new IllegalArgumentException("not enough pixels");
+        }
+        int[] dst = new int[dstW * dstH];
+        Axis xAxis = new Axis(w, dstW);
+        Axis yAxis = new Axis(h, dstH);
+        pool.invoke(new ColumnsTask(src, w, 0, dst, dstW, dstH, xAxis, yAxis, 0, dstW));
+        return dst;
+    }
+
+    /**
+     * Scales some columns of the image, having only a vertical strip of it.
+     * <p>
+     * The result is the same as cutting the columns out of the whole scaled image, so a wide
+     * image can be scaled a strip at a time without seams between the strips.
+     * The strip must contain all the source columns covered by the result.
+     *
+     * @param src   the pixels of the strip in ARGB format, row by row.
+     * @param srcX  the column of the image where the strip starts.
+     * @param w     the width of the strip.
+     * @param h     the height of the image.
+     * @param fullW the width of the image.
+     * @param dstW  the width of the whole scaled image.
+     * @param dstH  the height of the scaled image.
+     * @param from  the first column of the scaled image to return.
+     * @param to    the column after the last one to return.
+     * @return the columns [from, to) of the scaled image in ARGB format, row by row.
+     * @throws IllegalArgumentException if the sizes are not valid or the strip is too small.
+     */
+    public static @NonNull int[] resampleStrip(@NonNull int[] src, int srcX, int w, int h, int fullW, int dstW, int dstH, int from, int to) {
+        if (w <= 0 || h <= 0 || fullW <= 0 || dstW <= 0 || dstH <= 0) {
+            throw new IllegalArgumentException("sizes must be positive");
+        }
+        if (from < 0 || to > dstW || from >= to) {
+            throw new IllegalArgumentException("invalid columns");
+        }
+        if (src.length < w * h) {
+            throw new IllegalArgumentException("not enough pixels");
+        }
+        Axis xAxis = new Axis(fullW, dstW, from, to);
+        int last = to - from - 1;
+        if (xAxis.start[0] < srcX || xAxis.start[last] + xAxis.count[last] > srcX + w) {
+            throw new IllegalArgumentException("the strip doesn't cover the columns");
+        }
+        int[] dst = new int[(to - from) * dstH];
+        Axis yAxis = new Axis(h, dstH);
+        ForkJoinPool.commonPool().invoke(new ColumnsTask(src, w, srcX, dst, to - from, dstH, xAxis, yAxis, from, to));
+        return dst;
+    }
+
+    /**
+     * The source pixels covered by each destination pixel along one axis, with their weights.
+     */
+    static class Axis {
+        // The destination pixel i is at index i-first of the arrays.
+        final int first;
+        final int[] start;
+        final int[] count;
+        // Weights of the destination pixel i are at weights[offset[i]...offset[i]+count[i]).
+        final int[] offset;
+        final float[] weights;
+
+        Axis(int srcSize, int dstSize) {
+            this(srcSize, dstSize, 0, dstSize);
+        }
+
+        // Only the destination pixels [from, to).
+        Axis(int srcSize, int dstSize, int from, int to) {
+            int n = to - from;
+            first = from;
+            start = new int[n];
+            count = new int[n];
+            offset = new int[n];
+
+            double scale = (double) srcSize / dstSize;
+            int total = 0;
+            for (int i = 0; i < n; i++) {
+                double a = (from + i) * scale;
+                double b = Math.min((from + i + 1) * scale, srcSize);
+                start[i] = Math.min((int) Math.floor(a), srcSize - 1);
+                count[i] = Math.max(1, (int) Math.ceil(b) - start[i]);
+                offset[i] = total;
+                total += count[i];
+            }
+
+            weights = new float[total];
+            for (int i = 0; i < n; i++) {
+                double a = (from + i) * scale;
+                double b = Math.min((from + i + 1) * scale, srcSize);
+                for (int k = 0; k < count[i]; k++) {
+                    int j = start[i] + k;
+                    double covered = Math.min(j + 1, b) - Math.max(j, a);
+                    weights[offset[i] + k] = (float) (covered / (b - a));
+                }
+            }
+        }
+    }
+
+    // Never serialized, it only splits the columns among the threads of the pool.
+    @SuppressWarnings("serial")
+    private static class ColumnsTask extends RecursiveAction {
+        private final int[] _src;
+        private final int _w;
+        // The column of the image where _src starts.
+        private final int _srcX;
+        private final int[] _dst;
+        // The width of _dst, which starts at the 1st column of _xAxis.
+        private final int _dstW;
+        private final int _dstH;
+        private final Axis _xAxis;
+        private final Axis _yAxis;
+        private final int _from;
+        private final int _to;
+
+        ColumnsTask(int[] src, int w, int srcX, int[] dst, int dstW, int dstH, Axis xAxis, Axis yAxis, int from, int to) {
+            _src = src;
+            _w = w;
+            _srcX = srcX;
+            _dst = dst;
+            _dstW = dstW;
+            _dstH = dstH;
+            _xAxis = xAxis;
+            _yAxis = yAxis;
+            _from = from;
+            _to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (_to - _from > MIN_TASK_COLUMNS) {
+                int mid = (_from + _to) >>> 1;
+                invokeAll(new ColumnsTask(_src, _w, _srcX, _dst, _dstW, _dstH, _xAxis, _yAxis, _from, mid),
+                        new ColumnsTask(_src, _w, _srcX, _dst, _dstW, _dstH, _xAxis, _yAxis, mid, _to));
+                return;
+            }
+            scaleColumns();
+        }
+
+        private void scaleColumns() {
+            int n = _to - _from;
+            // Premultiplied a, r, g, b of the source row scaled horizontally, and of the output row.
+            float[] row = new float[n * 4];
+            float[] acc = new float[n * 4];
+            int rowY = -1;
+
+            for (int dy = 0; dy < _dstH; dy++) {
+                Arrays.fill(acc, 0f);
+                int yOff = _yAxis.offset[dy];
+                for (int k = 0; k < _yAxis.count[dy]; k++) {
+                    int y = _yAxis.start[dy] + k;
+                    if (y != rowY) {
+                        // Consecutive output rows share at most the source row at the border.
+                        scaleRow(y, row);
+                        rowY = y;
+                    }
+                    float wy = _yAxis.weights[yOff + k];
+                    for (int i = 0; i < acc.length; i++) {
+                        acc[i] += row[i] * wy;
+                    }
+                }
+
+                int out = dy * _dstW + _from - _xAxis.first;
+                for (int i = 0; i < n; i++) {
+                    _dst[out + i] = unpremultiply(acc, i * 4);
+                }
+            }
+        }
+
+        private void scaleRow(int y, float[] row) {
+            int base = y * _w - _srcX;
+            for (int i = 0; i < _to - _from; i++) {
+                int dx = _from + i - _xAxis.first;
+                int xOff = _xAxis.offset[dx];
+                int x0 = _xAxis.start[dx];
+                float a = 0, r = 0, g = 0, b = 0;
+                for (int k = 0; k < _xAxis.count[dx]; k++) {
+                    int c = _src[base + x0 + k];
+                    float wa = _xAxis.weights[xOff + k] * (c >>> 24);
+                    a += wa;
+                    r += wa * ((c >> 16) & 0xff);
+                    g += wa * ((c >> 8) & 0xff);
+                    b += wa * (c & 0xff);
+                }
+                row[i * 4] = a;
+                row[i * 4 + 1] = r;
+                row[i * 4 + 2] = g;
+                row[i * 4 + 3] = b;
+            }
+        }
+
+        private static int unpremultiply(float[] acc, int i) {
+            float a = acc[i];
+            if (a <= 0) {
+                return 0;
+            }
+            int r = clamp(acc[i + 1] / a);
+            int g = clamp(acc[i + 2] / a);
+            int b = clamp(acc[i + 3] / a);
+            return clamp(a) << 24 | r << 16 | g << 8 | b;
+        }
+
+        private static int clamp(float v) {
+            int x = Math.round(v);
+            return x < 0 ? 0 : (x > 255 ? 255 : x);
+        }
+    }
+}
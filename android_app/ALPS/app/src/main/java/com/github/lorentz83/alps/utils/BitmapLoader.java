@@ -0,0 +1,189 @@
+/**
+ *  Copyright 2020-2021 Lorenzo Bossi
+ *
+ *  This file is part of ALPS (Another Light Painting Stick).
+ *
+ *  ALPS is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  ALPS is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with ALPS.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.github.lorentz83.alps.utils;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Helper to decode images without loading more pixels than needed.
+ */
+public class BitmapLoader {
+    /**
+     * Images wider than this, once subsampled for the longest stick, are sent to the stick a
+     * strip at a time instead of being decoded at once.
+     * <p>
+     * Subsampled for the longest stick, an image is less than 4 times the stick tall: it is
+     * at most 16MB in ARGB_8888.
+     */
+    public static final int MAX_DECODED_COLUMNS = 4096;
+
+    /**
+     * How many source pixels per stick pixel to decode at least, scaling down from more pixels
+     * gives a smoother result.
+     */
+    public static final int STICK_OVERSAMPLING = 2;
+
+    /**
+     * The longest stick supported by the protocol, its number of pixels fits in a byte.
+     */
+    public static final int MAX_STICK_LENGTH = 254;
+
+    /**
+     * Reads the size of the image without decoding it.
+     *
+     * @param resolver the content resolver to open the uri.
+     * @param uri the image to read.
+     * @return the options with outWidth and outHeight set.
+     * @throws IOException if the image cannot be read.
+     */
+    public static @NonNull BitmapFactory.Options readBounds(@NonNull ContentResolver resolver, @NonNull Uri uri) throws IOException {
+        BitmapFactory.Options opts = new BitmapFactory.Options();
+        opts.inJustDecodeBounds = true;
+        try (InputStream in = resolver.openInputStream(uri)) {
+            BitmapFactory.decodeStream(in, null, opts);
+        }
+        if (opts.outWidth <= 0 || opts.outHeight <= 0) {
+            throw new IOException("cannot decode image " + uri);
+        }
+        return opts;
+    }
+
+    /**
+     * Decodes the image keeping one pixel every sampleSize in both the directions.
+     *
+     * @param resolver the content resolver to open the uri.
+     * @param uri the image to read.
+     * @param sampleSize a power of 2, see BitmapFactory.Options.inSampleSize.
+     * @return the decoded image.
+     * @throws IOException if the image cannot be read.
+     */
+    public static @NonNull Bitmap decodeSampled(@NonNull ContentResolver resolver, @NonNull Uri uri, int sampleSize) throws IOException {
+        BitmapFactory.Options opts = new BitmapFactory.Options();
+        opts.inSampleSize = sampleSize;
+        opts.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        Bitmap bmp;
+        try (InputStream in = resolver.openInputStream(uri)) {
+            bmp = BitmapFactory.decodeStream(in, null, opts);
+        }
+        if (bmp == null) {
+            throw new IOException("cannot decode image " + uri);
+        }
+        return bmp;
+    }
+
+    /**
+     * Decodes the image subsampled as much as possible for any stick, in any orientation.
+     *
+     * @param resolver the content resolver to open the uri.
+     * @param uri the image to read.
+     * @return the decoded image.
+     * @throws IOException if the image cannot be read.
+     * @see #sampleSizeForAnyStick(int, int)
+     */
+    public static @NonNull Bitmap decodeForAnyStick(@NonNull ContentResolver resolver, @NonNull Uri uri) throws IOException {
+        BitmapFactory.Options bounds = readBounds(resolver, uri);
+        return decodeSampled(resolver, uri, sampleSizeForAnyStick(bounds.outWidth, bounds.outHeight));
+    }
+
+    /**
+     * Returns the biggest power of 2 which keeps at least STICK_OVERSAMPLING pixels for every
+     * pixel shown by the stick, in both the directions.
+     *
+     * @param w the width of the image.
+     * @param h the height of the image.
+     * @param len the number of pixels of the stick.
+     * @param widthMultiplier how much the image is going to be stretched horizontally.
+     * @return the sample size to use.
+     */
+    public static int sampleSizeForStick(int w, int h, int len, float widthMultiplier) {
+        // The image is scaled by len / h vertically and by len / h * widthMultiplier horizontally,
+        // stretching it horizontally requires more pixels in both the directions.
+        double minH = (double) len * STICK_OVERSAMPLING * Math.max(1f, widthMultiplier);
+        return sampleSizeForMinSize(h, (int) Math.ceil(minH));
+    }
+
+    /**
+     * Returns the biggest power of 2 which keeps the image good for the longest stick, even if
+     * it is rotated, whatever the stick length is set now.
+     * <p>
+     * The settings don't stretch the images horizontally, so the width multiplier doesn't
+     * matter.
+     *
+     * @param w the width of the image.
+     * @param h the height of the image.
+     * @return the sample size to use.
+     */
+    public static int sampleSizeForAnyStick(int w, int h) {
+        return sampleSizeForMinSize(Math.min(w, h), MAX_STICK_LENGTH * STICK_OVERSAMPLING);
+    }
+
+    /**
+     * Returns the sample size of the preview of an image sent a strip at a time.
+     * <p>
+     * The preview shows the image at most as tall as the longest stick, without oversampling,
+     * and it is never wider than MAX_DECODED_COLUMNS.
+     *
+     * @param w the width of the image.
+     * @param h the height of the image.
+     * @return the sample size to use.
+     */
+    public static int sampleSizeForPreview(int w, int h) {
+        return Math.max(sampleSizeForMinSize(h, MAX_STICK_LENGTH), sampleSizeForMaxSize(w, MAX_DECODED_COLUMNS));
+    }
+
+    /**
+     * Returns the smallest power of 2 which subsamples the size down to maxSize.
+     *
+     * @param size the original size.
+     * @param maxSize the maximum size after subsampling.
+     * @return the sample size to use.
+     */
+    public static int sampleSizeForMaxSize(int size, int maxSize) {
+        int sampleSize = 1;
+        while (size / sampleSize > maxSize) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Returns the biggest power of 2 which subsamples the size without going below minSize.
+     *
+     * @param size the original size.
+     * @param minSize the minimum size required after subsampling.
+     * @return the sample size to use.
+     */
+    public static int sampleSizeForMinSize(int size, int minSize) {
+        int sampleSize = 1;
+        while (size / (sampleSize * 2) >= minSize) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ *  Copyright 2020-2021 Lorenzo Bossi
+ *
+ *  This file is part of ALPS (Another Light Painting Stick).
+ *
+ *  ALPS is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  ALPS is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with ALPS.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.github.lorentz83.alps.utils;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Extracts the pixels of a bitmap ordered in columns, as expected by the Protocol.
+ * <p>
+ * Each column goes from the bottom of the image to the top. This is the same layout we get
+ * rotating the bitmap 90 degrees clockwise and reading it row by row, but it doesn't allocate a
+ * rotated copy of the whole bitmap.
+ */
+public class ColumnExtractor {
+    // Size of the square tiles read from the bitmap.
+    // 64x64 pixels are 16KB, small enough to stay in cache while they are transposed.
+    static final int TILE_SIZE = 64;
+
+    /**
+     * Reads a rectangle of pixels row by row, like Bitmap.getPixels.
+     */
+    interface PixelReader {
+        void getPixels(int[] pixels, int offset, int stride, int x, int y, int width, int height);
+    }
+
+    /**
+     * Returns the pixels of the bitmap ordered in columns.
+     *
+     * @param bmp the bitmap to read.
+     * @return the pixels in ARGB format, the pixel y of the column x is at x * height + y.
+     */
+    public static @NonNull int[] columns(@NonNull Bitmap bmp) {
+        return columns(bmp::getPixels, bmp.getWidth(), bmp.getHeight());
+    }
+
+    /**
+     * Returns the pixels of an image ordered in columns.
+     *
+     * @param src reads the pixels of the image.
+     * @param w   the width of the image.
+     * @param h   the height of the image.
+     * @return the pixels in ARGB format, the pixel y of the column x is at x * h + y.
+     */
+    static @NonNull int[] columns(@NonNull PixelReader src, int w, int h) {
+        int[] out = new int[w * h];
+        int[] tile = new int[TILE_SIZE * TILE_SIZE];
+
+        // getPixels returns the pixels row by row, we read them a tile at a time and write
+        // each tile transposed.
+        for (int y0 = 0; y0 < h; y0 += TILE_SIZE) {
+            int tileH = Math.min(TILE_SIZE, h - y0);
+            for (int x0 = 0; x0 < w; x0 += TILE_SIZE) {
+                int tileW = Math.min(TILE_SIZE, w - x0);
+                src.getPixels(tile, 0, tileW, x0, y0, tileW, tileH);
+                transposeTile(tile, x0, y0, tileW, tileH, h, out);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Copies a tile of pixels, stored row by row, into the column ordered output.
+     *
+     * @param tile  the pixels of the tile, row by row, with stride tileW.
+     * @param x0    the column of the image where the tile starts.
+     * @param y0    the row of the image where the tile starts.
+     * @param tileW the width of the tile.
+     * @param tileH the height of the tile.
+     * @param h     the height of the whole image.
+     * @param out   the pixels of the whole image ordered in columns.
+     */
+    public static void transposeTile(int[] tile, int x0, int y0, int tileW, int tileH, int h, int[] out) {
+        for (int x = 0; x < tileW; x++) {
+            // The bottom row of the image is the first pixel of the column.
+            int dst = (x0 + x) * h + (h - 1 - y0);
+            for (int y = 0; y < tileH; y++) {
+                out[dst - y] = tile[y * tileW + x];
+            }
+        }
+    }
+
+    /**
+     * Returns the pixels ordered in rows, the inverse of columns.
+     *
+     * @param columns the pixels ordered in columns, the pixel y of the column x is at x * h + y.
+     * @param w       the width of the image.
+     * @param h       the height of the image.
+     * @return the pixels row by row, as expected by Bitmap.setPixels.
+     */
+    public static @NonNull int[] rows(@NonNull int[] columns, int w, int h) {
+        int[] out = new int[w * h];
+        for (int x = 0; x < w; x++) {
+            int src = x * h;
+            for (int y = 0; y < h; y++) {
+                out[(h - 1 - y) * w + x] = columns[src + y];
+            }
+        }
+        return out;
+    }
+}
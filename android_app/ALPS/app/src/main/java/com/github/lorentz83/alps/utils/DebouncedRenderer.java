@@ -0,0 +1,179 @@
+/**
+ *  Copyright 2020-2021 Lorenzo Bossi
+ *
+ *  This file is part of ALPS (Another Light Painting Stick).
+ *
+ *  ALPS is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  ALPS is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with ALPS.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.github.lorentz83.alps.utils;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Renders values on a background thread, skipping the work that nobody is going to see.
+ * <p>
+ * A render starts only after no other request arrived for the debounce time, a new request
+ * cancels the pending one and the results of stale renders are dropped.
+ * The last result is kept, requesting it again delivers it without rendering. A failed render
+ * is not kept, requesting it again renders it again.
+ *
+ * @param <K> the key that identifies what to render, it must implement equals.
+ * @param <V> the result of the render.
+ */
+public class DebouncedRenderer<K, V> {
+    private final long _debounceMs;
+    private final Function<K, V> _renderer;
+    private final Executor _resultExecutor;
+    private final Consumer<V> _onResult;
+    private final Consumer<Throwable> _onFailure;
+
+    private final ScheduledExecutorService _executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "DebouncedRendererThread");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Incremented every time the current request changes, a result is delivered only if
+    // the generation didn't change while it was rendered.
+    private long _generation = 0;
+    private K _pendingKey = null;
+    private Future<?> _pending = null;
+    private K _doneKey = null;
+    private V _doneValue = null;
+
+    /**
+     * Creates a new renderer.
+     *
+     * @param debounceMs     how long to wait for other requests before starting to render.
+     * @param renderer       the function that renders a key. It runs on a background thread and
+     *                       it can check the interrupted flag to stop early if the render is canceled.
+     * @param resultExecutor where to call onResult, i.e. the UI thread.
+     * @param onResult       receives the result of the last request.
+     * @param onFailure      receives the error if the render of the last request failed,
+     *                       including OutOfMemoryError.
+     */
+    public DebouncedRenderer(long debounceMs, @NonNull Function<K, V> renderer,
+                             @NonNull Executor resultExecutor, @NonNull Consumer<V> onResult,
+                             @NonNull Consumer<Throwable> onFailure) {
+        _debounceMs = debounceMs;
+        _renderer = renderer;
+        _resultExecutor = resultExecutor;
+        _onResult = onResult;
+        _onFailure = onFailure;
+    }
+
+    /**
+     * Requests to render a new value.
+     * <p>
+     * Nothing happens if the same key is already pending. If it is the same key of the last
+     * result, the result is delivered again without rendering it.
+     *
+     * @param key what to render.
+     */
+    public synchronized void request(@NonNull K key) {
+        if (key.equals(_pendingKey)) {
+            return;
+        }
+        cancelPending();
+        long gen = _generation;
+        if (key.equals(_doneKey)) {
+            V value = _doneValue;
+            _resultExecutor.execute(() -> deliver(gen, value));
+            return;
+        }
+        // The key may reference big objects, we don't keep results that we are not going to reuse.
+        _doneKey = null;
+        _doneValue = null;
+        _pendingKey = key;
+        _pending = _executor.schedule(() -> render(gen, key), _debounceMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns whether a render was requested but its result is not ready yet.
+     *
+     * @return true if the last requested value is not available.
+     */
+    public synchronized boolean isPending() {
+        return _pending != null;
+    }
+
+    /**
+     * Cancels any pending render and stops the background thread.
+     */
+    public synchronized void shutdown() {
+        cancelPending();
+        _executor.shutdownNow();
+    }
+
+    private void cancelPending() {
+        _generation++;
+        if (_pending != null) {
+            _pending.cancel(true);
+        }
+        _pending = null;
+        _pendingKey = null;
+    }
+
+    private void render(long gen, K key) {
+        V value;
+        try {
+            value = _renderer.apply(key);
+        } catch (Throwable e) {
+            // Even an OutOfMemoryError must not leave the request pending forever.
+            synchronized (this) {
+                if (gen != _generation) {
+                    return;
+                }
+                _pending = null;
+                _pendingKey = null;
+            }
+            _resultExecutor.execute(() -> {
+                if (isCurrent(gen)) {
+                    _onFailure.accept(e);
+                }
+            });
+            return;
+        }
+        synchronized (this) {
+            if (gen != _generation) {
+                return;
+            }
+            _pending = null;
+            _pendingKey = null;
+            _doneKey = key;
+            _doneValue = value;
+        }
+        _resultExecutor.execute(() -> deliver(gen, value));
+    }
+
+    private void deliver(long gen, V value) {
+        if (isCurrent(gen)) {
+            _onResult.accept(value);
+        }
+    }
+
+    private synchronized boolean isCurrent(long gen) {
+        return gen == _generation;
+    }
+}
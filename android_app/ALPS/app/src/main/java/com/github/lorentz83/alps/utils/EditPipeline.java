@@ -0,0 +1,196 @@
+/**
+ *  Copyright 2020-2021 Lorenzo Bossi
+ *
+ *  This file is part of ALPS (Another Light Painting Stick).
+ *
+ *  ALPS is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  ALPS is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with ALPS.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.github.lorentz83.alps.utils;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A chain of edits applied to an image in a single pass: rotations and mirroring, followed by
+ * any number of overlays.
+ * <p>
+ * Edits are only recorded, the pixels are computed once by render. Any sequence of rotations
+ * and mirroring is reduced to one of the 8 possible orientations, the overlays are applied to
+ * the oriented image in the order they were added.
+ */
+public class EditPipeline {
+    private static class Layer {
+        final OverlayMask mask;
+        final int p1;
+        final int p2;
+
+        Layer(OverlayMask mask, int p1, int p2) {
+            this.mask = mask;
+            this.p1 = p1;
+            this.p2 = p2;
+        }
+    }
+
+    // The output is the source mirrored horizontally if _mirrored, then rotated clockwise
+    // _turns times by 90 degrees.
+    private int _turns = 0;
+    private boolean _mirrored = false;
+    private final List<Layer> _layers = new ArrayList<>();
+
+    /**
+     * Returns a copy of this pipeline, changing it doesn't change this one.
+     *
+     * @return the copy.
+     */
+    public @NonNull EditPipeline copy() {
+        EditPipeline p = new EditPipeline();
+        p._turns = _turns;
+        p._mirrored = _mirrored;
+        p._layers.addAll(_layers);
+        return p;
+    }
+
+    /**
+     * Removes all the edits.
+     */
+    public void reset() {
+        _turns = 0;
+        _mirrored = false;
+        _layers.clear();
+    }
+
+    public void rotateClockwise() {
+        _turns = (_turns + 1) % 4;
+    }
+
+    public void rotateCounterclockwise() {
+        _turns = (_turns + 3) % 4;
+    }
+
+    /**
+     * Mirrors the image left to right.
+     */
+    public void mirrorHorizontally() {
+        // Mirroring after a rotation is the same as mirroring before the opposite rotation.
+        _turns = (4 - _turns) % 4;
+        _mirrored = !_mirrored;
+    }
+
+    /**
+     * Mirrors the image top to bottom.
+     */
+    public void mirrorVertically() {
+        // It is an horizontal mirror followed by a 180 degrees rotation.
+        mirrorHorizontally();
+        _turns = (_turns + 2) % 4;
+    }
+
+    /**
+     * Adds an overlay on top of the previous ones.
+     *
+     * @param mask the overlay.
+     * @param p1   1st parameter of the overlay (greater than 1).
+     * @param p2   2nd parameter of the overlay (greater than 1).
+     */
+    public void addOverlay(@NonNull OverlayMask mask, int p1, int p2) {
+        _layers.add(new Layer(mask, p1, p2));
+    }
+
+    /**
+     * Returns whether any overlay was added.
+     *
+     * @return true if there is at least an overlay.
+     */
+    public boolean hasOverlays() {
+        return !_layers.isEmpty();
+    }
+
+    /**
+     * Returns whether render would return the image unchanged.
+     *
+     * @return true if there are no edits.
+     */
+    public boolean isIdentity() {
+        return _turns == 0 && !_mirrored && _layers.isEmpty();
+    }
+
+    /**
+     * Returns whether the width and the height of the image are swapped.
+     *
+     * @return true if the image is rotated by 90 or 270 degrees.
+     */
+    public boolean swapsAxes() {
+        return _turns % 2 == 1;
+    }
+
+    /**
+     * Applies all the edits.
+     *
+     * @param src the pixels in ARGB format, row by row.
+     * @param w   the width of the image.
+     * @param h   the height of the image.
+     * @return the edited pixels row by row, the image is h x w if swapsAxes.
+     */
+    public @NonNull int[] render(@NonNull int[] src, int w, int h) {
+        int outW = swapsAxes() ? h : w;
+        int outH = swapsAxes() ? w : h;
+
+        // The source pixel is an affine function of the output pixel: s = base + ox*dx + oy*dy.
+        int[] origin = toSource(0, 0, outW, outH);
+        int[] right = toSource(1, 0, outW, outH);
+        int[] down = toSource(0, 1, outW, outH);
+        int base = origin[1] * w + origin[0];
+        int dx = (right[1] - origin[1]) * w + (right[0] - origin[0]);
+        int dy = (down[1] - origin[1]) * w + (down[0] - origin[0]);
+
+        int[] out = new int[outW * outH];
+        for (int oy = 0; oy < outH; oy++) {
+            int s = base + oy * dy;
+            for (int ox = 0; ox < outW; ox++, s += dx) {
+                int c = src[s];
+                for (Layer l : _layers) {
+                    float cov = l.mask.coverage(ox, oy, outW, outH, l.p1, l.p2);
+                    if (cov > 0) {
+                        c = OverlayMask.darken(c, cov);
+                    }
+                }
+                out[oy * outW + ox] = c;
+            }
+        }
+        return out;
+    }
+
+    // Returns the source coordinates of an output pixel.
+    private int[] toSource(int x, int y, int w, int h) {
+        // Undo the rotations, one at a time.
+        for (int i = 0; i < _turns; i++) {
+            // A clockwise rotation moves (x, y) of a w x h image to (h-1-y, x), here we go back.
+            int nx = y;
+            int ny = w - 1 - x;
+            x = nx;
+            y = ny;
+            int t = w;
+            w = h;
+            h = t;
+        }
+        if (_mirrored) {
+            x = w - 1 - x;
+        }
+        return new int[]{x, y};
+    }
+}
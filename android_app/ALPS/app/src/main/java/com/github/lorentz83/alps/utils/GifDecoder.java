@@ -0,0 +1,480 @@
+/**
+ *  Copyright 2020-2021 Lorenzo Bossi
+ *
+ *  This file is part of ALPS (Another Light Painting Stick).
+ *
+ *  ALPS is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  ALPS is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with ALPS.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.github.lorentz83.alps.utils;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Decodes an animated GIF one frame at a time.
+ * <p>
+ * It is plain Java and reads the file as a stream, so only the composed frame (plus a copy of it
+ * for the frames which restore the previous one) is kept in memory, however many frames the
+ * animation has.
+ */
+public class GifDecoder implements Closeable {
+    // LZW codes are at most 12 bits.
+    private static final int MAX_CODES = 4096;
+
+    /**
+     * Opens the stream to decode, it is called again to restart from the 1st frame.
+     */
+    public interface StreamOpener {
+        /**
+         * Opens the GIF.
+         *
+         * @return a new stream, positioned at the beginning of the file.
+         * @throws IOException if the file cannot be opened.
+         */
+        @NonNull InputStream open() throws IOException;
+    }
+
+    private final StreamOpener _opener;
+    private InputStream _in;
+
+    private int _width;
+    private int _height;
+    private int[] _globalColors;
+
+    private int[] _canvas;
+    private int[] _saved;
+
+    // Set by the graphic control extension, valid for the next frame only.
+    private int _disposal;
+    private int _transparent;
+    private int _delay;
+
+    // How to dispose the last frame before drawing the next one.
+    private int _lastDisposal = 0;
+    private int _lastX, _lastY, _lastW, _lastH;
+    private int _frameDelay;
+
+    private final byte[] _block = new byte[256];
+    private final short[] _prefix = new short[MAX_CODES];
+    private final byte[] _suffix = new byte[MAX_CODES];
+    private final byte[] _stack = new byte[MAX_CODES + 1];
+    private byte[] _indexes = new byte[0];
+
+    /**
+     * Opens the GIF and reads its header.
+     *
+     * @param opener opens the file.
+     * @throws IOException if the file cannot be read or it is not a GIF.
+     */
+    public GifDecoder(@NonNull StreamOpener opener) throws IOException {
+        _opener = opener;
+        start();
+    }
+
+    private void start() throws IOException {
+        InputStream in = _opener.open();
+        // ContentResolver.openInputStream returns null if the provider crashed.
+        if (in == null) {
+            throw new IOException("cannot open GIF");
+        }
+        _in = new BufferedInputStream(in);
+        byte[] sig = new byte[6];
+        readFully(sig, 6);
+        if (sig[0] != 'G' || sig[1] != 'I' || sig[2] != 'F') {
+            throw new IOException("not a GIF file");
+        }
+        _width = readShort();
+        _height = readShort();
+        if (_width <= 0 || _height <= 0) {
+            throw new IOException("invalid GIF size");
+        }
+        int packed = read();
+        // The background color is ignored, as most decoders do, disposed areas become transparent.
+        read();
+        read(); // pixel aspect ratio
+        _globalColors = (packed & 0x80) != 0 ? readColors(2 << (packed & 7)) : null;
+        _canvas = new int[_width * _height];
+        _saved = null;
+        _lastDisposal = 0;
+        _disposal = 0;
+        _transparent = -1;
+        _delay = 0;
+    }
+
+    /**
+     * Checks if the GIF has more than one frame.
+     * <p>
+     * It stops at the 2nd image, without decoding any of them.
+     *
+     * @param opener opens the file.
+     * @return true if it is an animation.
+     * @throws IOException if the file cannot be read or it is not a GIF.
+     */
+    public static boolean isAnimated(@NonNull StreamOpener opener) throws IOException {
+        try (GifDecoder d = new GifDecoder(opener)) {
+            return d.nextFrame(false) && d.nextFrame(false);
+        }
+    }
+
+    /**
+     * Returns the width of the animation.
+     *
+     * @return the width of the frames.
+     */
+    public int getWidth() {
+        return _width;
+    }
+
+    /**
+     * Returns the height of the animation.
+     *
+     * @return the height of the frames.
+     */
+    public int getHeight() {
+        return _height;
+    }
+
+    /**
+     * Returns the pixels of the current frame.
+     * <p>
+     * The array is reused, its content changes calling nextFrame.
+     *
+     * @return the pixels in ARGB format, row by row.
+     */
+    public @NonNull int[] getPixels() {
+        return _canvas;
+    }
+
+    /**
+     * Returns how long the current frame should be shown.
+     *
+     * @return the delay in hundredths of second.
+     */
+    public int getDelay() {
+        return _frameDelay;
+    }
+
+    /**
+     * Decodes the next frame.
+     *
+     * @return false if there are no more frames.
+     * @throws IOException if the file cannot be read or it is not valid.
+     */
+    public boolean nextFrame() throws IOException {
+        return nextFrame(true);
+    }
+
+    private boolean nextFrame(boolean decode) throws IOException {
+        while (true) {
+            int b = _in.read();
+            switch (b) {
+                case 0x2c:
+                    if (decode) {
+                        readImage();
+                    } else {
+                        skipImage();
+                    }
+                    return true;
+                case 0x21:
+                    readExtension();
+                    break;
+                case 0x3b:
+                case -1: // Some files are truncated without the trailer.
+                    return false;
+                default:
+                    throw new IOException(String.format("unexpected GIF block 0x%02x", b));
+            }
+        }
+    }
+
+    /**
+     * Restarts from the 1st frame.
+     *
+     * @throws IOException if the file cannot be opened again.
+     */
+    public void rewind() throws IOException {
+        _in.close();
+        start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        _in.close();
+    }
+
+    private void readExtension() throws IOException {
+        int label = read();
+        if (label == 0xf9) {
+            int size = read();
+            readFully(_block, size);
+            if (size >= 4) {
+                int packed = _block[0] & 0xff;
+                _disposal = (packed >> 2) & 7;
+                _delay = (_block[1] & 0xff) | (_block[2] & 0xff) << 8;
+                _transparent = (packed & 1) != 0 ? _block[3] & 0xff : -1;
+            }
+        }
+        skipBlocks();
+    }
+
+    private void readImage() throws IOException {
+        int x = readShort();
+        int y = readShort();
+        int w = readShort();
+        int h = readShort();
+        int packed = read();
+        int[] colors = (packed & 0x80) != 0 ? readColors(2 << (packed & 7)) : _globalColors;
+        if (colors == null) {
+            throw new IOException("GIF without colors");
+        }
+        boolean interlaced = (packed & 0x40) != 0;
+
+        disposeLast();
+        if (_disposal == 3) {
+            if (_saved == null) {
+                _saved = new int[_canvas.length];
+            }
+            System.arraycopy(_canvas, 0, _saved, 0, _canvas.length);
+        }
+
+        if (_indexes.length < w * h) {
+            _indexes = new byte[w * h];
+        }
+        decodeLzw(w * h);
+        draw(colors, x, y, w, h, interlaced);
+
+        _frameDelay = _delay;
+        _lastDisposal = _disposal;
+        _lastX = x;
+        _lastY = y;
+        _lastW = w;
+        _lastH = h;
+        // The graphic control extension applies only to the following image.
+        _disposal = 0;
+        _transparent = -1;
+        _delay = 0;
+    }
+
+    private void skipImage() throws IOException {
+        readFully(_block, 8); // position and size
+        int packed = read();
+        if ((packed & 0x80) != 0) {
+            readColors(2 << (packed & 7));
+        }
+        read(); // LZW minimum code size
+        skipBlocks();
+        // The graphic control extension applies only to the following image.
+        _disposal = 0;
+        _transparent = -1;
+        _delay = 0;
+    }
+
+    private void disposeLast() {
+        if (_lastDisposal == 2) {
+            for (int row = Math.max(0, _lastY); row < Math.min(_height, _lastY + _lastH); row++) {
+                int from = row * _width + Math.max(0, _lastX);
+                int to = row * _width + Math.min(_width, _lastX + _lastW);
+                if (from < to) {
+                    Arrays.fill(_canvas, from, to, 0);
+                }
+            }
+        } else if (_lastDisposal == 3 && _saved != null) {
+            System.arraycopy(_saved, 0, _canvas, 0, _canvas.length);
+        }
+    }
+
+    private void draw(int[] colors, int x, int y, int w, int h, boolean interlaced) {
+        int pass = 0;
+        int step = interlaced ? 8 : 1;
+        int row = 0;
+        for (int i = 0; i < h; i++) {
+            int dy = y + row;
+            if (dy >= 0 && dy < _height) {
+                int src = i * w;
+                int dst = dy * _width;
+                for (int j = 0; j < w; j++) {
+                    int dx = x + j;
+                    int index = _indexes[src + j] & 0xff;
+                    if (dx >= 0 && dx < _width && index != _transparent && index < colors.length) {
+                        _canvas[dst + dx] = colors[index];
+                    }
+                }
+            }
+            row += step;
+            // Interlaced rows are stored as every 8th row from 0, every 8th from 4,
+            // every 4th from 2 and every 2nd from 1.
+            while (interlaced && row >= h && pass < 3) {
+                pass++;
+                row = 8 >> pass;
+                step = row * 2;
+            }
+        }
+    }
+
+    // Decodes the color indexes of an image in _indexes.
+    private void decodeLzw(int count) throws IOException {
+        int minCodeSize = read();
+        if (minCodeSize < 1 || minCodeSize > 11) {
+            throw new IOException("invalid LZW code size");
+        }
+        int clear = 1 << minCodeSize;
+        int end = clear + 1;
+        int available = clear + 2;
+        int codeSize = minCodeSize + 1;
+        int codeMask = (1 << codeSize) - 1;
+        int old = -1;
+        int first = 0;
+        for (int code = 0; code < clear; code++) {
+            _prefix[code] = -1;
+            _suffix[code] = (byte) code;
+        }
+
+        int bits = 0;
+        int datum = 0;
+        int blockLen = 0;
+        int blockPos = 0;
+        int out = 0;
+        boolean ended = false;
+
+        while (out < count && !ended) {
+            // Reads the next code.
+            while (bits < codeSize) {
+                if (blockPos == blockLen) {
+                    blockLen = read();
+                    if (blockLen == 0) {
+                        ended = true;
+                        break;
+                    }
+                    readFully(_block, blockLen);
+                    blockPos = 0;
+                }
+                datum |= (_block[blockPos++] & 0xff) << bits;
+                bits += 8;
+            }
+            if (ended) {
+                break;
+            }
+            int code = datum & codeMask;
+            datum >>>= codeSize;
+            bits -= codeSize;
+
+            if (code == clear) {
+                codeSize = minCodeSize + 1;
+                codeMask = (1 << codeSize) - 1;
+                available = clear + 2;
+                old = -1;
+                continue;
+            }
+            if (code == end) {
+                break;
+            }
+            if (old == -1) {
+                if (code >= clear) {
+                    throw new IOException("invalid LZW code");
+                }
+                _indexes[out++] = _suffix[code];
+                old = code;
+                first = code;
+                continue;
+            }
+
+            int in = code;
+            int top = 0;
+            if (code >= available) {
+                if (code > available) {
+                    throw new IOException("invalid LZW code");
+                }
+                // The KwKwK case: the code is being defined right now.
+                _stack[top++] = (byte) first;
+                code = old;
+            }
+            while (code >= clear) {
+                _stack[top++] = _suffix[code];
+                code = _prefix[code];
+            }
+            first = _suffix[code] & 0xff;
+            _stack[top++] = (byte) first;
+
+            if (available < MAX_CODES) {
+                _prefix[available] = (short) old;
+                _suffix[available] = (byte) first;
+                available++;
+                if ((available & codeMask) == 0 && available < MAX_CODES) {
+                    codeSize++;
+                    codeMask = (1 << codeSize) - 1;
+                }
+            }
+            old = in;
+
+            while (top > 0 && out < count) {
+                _indexes[out++] = _stack[--top];
+            }
+        }
+        // Missing pixels are left transparent.
+        for (int i = out; i < count; i++) {
+            _indexes[i] = (byte) (_transparent >= 0 ? _transparent : 0);
+        }
+        if (!ended) {
+            skipBlocks();
+        }
+    }
+
+    private int[] readColors(int n) throws IOException {
+        byte[] rgb = new byte[n * 3];
+        readFully(rgb, rgb.length);
+        int[] colors = new int[n];
+        for (int i = 0; i < n; i++) {
+            colors[i] = 0xff000000 | (rgb[i * 3] & 0xff) << 16 | (rgb[i * 3 + 1] & 0xff) << 8 | (rgb[i * 3 + 2] & 0xff);
+        }
+        return colors;
+    }
+
+    private void skipBlocks() throws IOException {
+        int len;
+        while ((len = read()) > 0) {
+            readFully(_block, len);
+        }
+    }
+
+    private int read() throws IOException {
+        int b = _in.read();
+        if (b < 0) {
+            throw new EOFException("truncated GIF");
+        }
+        return b;
+    }
+
+    private int readShort() throws IOException {
+        return read() | read() << 8;
+    }
+
+    private void readFully(byte[] buf, int len) throws IOException {
+        int off = 0;
+        while (off < len) {
+            int n = _in.read(buf, off, len - off);
+            if (n < 0) {
+                throw new EOFException("truncated GIF");
+            }
+            off += n;
+        }
+    }
+}
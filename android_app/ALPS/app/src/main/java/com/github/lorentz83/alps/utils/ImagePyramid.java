@@ -0,0 +1,135 @@
+/**
+ *  Copyright 2020-2021 Lorenzo Bossi
+ *
+ *  This file is part of ALPS (Another Light Painting Stick).
+ *
+ *  ALPS is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  ALPS is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with ALPS.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.github.lorentz83.alps.utils;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * A lazily built pyramid of an image, where every level is half the size of the previous one.
+ * <p>
+ * Scaling to a new size starts from the smallest level still bigger than the target, so changing
+ * the stick length doesn't go through the full-size image again.
+ * The full-size pixels are not kept, they are requested to the supplier again only if a target is
+ * bigger than the 1st level.
+ */
+public class ImagePyramid {
+    private final int _w;
+    private final int _h;
+    private final Supplier<int[]> _base;
+
+    // Level i+1 is at index i, the base level is not stored.
+    private final List<int[]> _levels = new ArrayList<>();
+
+    /**
+     * Creates the pyramid, nothing is computed until the 1st call to resample.
+     *
+     * @param w    the width of the image.
+     * @param h    the height of the image.
+     * @param base returns the pixels of the image in ARGB format, row by row.
+     * @throws IllegalArgumentException if the size is not valid.
+     */
+    public ImagePyramid(int w, int h, @NonNull Supplier<int[]> base) {
+        if (w <= 0 || h <= 0) {
+            throw new IllegalArgumentException("sizes must be positive");
+        }
+        _w = w;
+        _h = h;
+        _base = base;
+    }
+
+    /**
+     * Returns the width of a level.
+     *
+     * @param level the level, 0 is the original image.
+     * @return the width.
+     */
+    public int levelWidth(int level) {
+        int w = _w;
+        for (int i = 0; i < level; i++) {
+            w = (w + 1) / 2;
+        }
+        return w;
+    }
+
+    /**
+     * Returns the height of a level.
+     *
+     * @param level the level, 0 is the original image.
+     * @return the height.
+     */
+    public int levelHeight(int level) {
+        int h = _h;
+        for (int i = 0; i < level; i++) {
+            h = (h + 1) / 2;
+        }
+        return h;
+    }
+
+    /**
+     * Returns the smallest level which is still at least as big as the target.
+     *
+     * @param w the target width.
+     * @param h the target height.
+     * @return the level to start from.
+     */
+    public int levelFor(int w, int h) {
+        int level = 0;
+        while (true) {
+            int lw = levelWidth(level + 1);
+            int lh = levelHeight(level + 1);
+            if (lw < w || lh < h || (lw == levelWidth(level) && lh == levelHeight(level))) {
+                return level;
+            }
+            level++;
+        }
+    }
+
+    /**
+     * Scales the image, building the levels it needs.
+     *
+     * @param w the width of the result.
+     * @param h the height of the result.
+     * @return the pixels in ARGB format, row by row.
+     */
+    public @NonNull int[] resample(int w, int h) {
+        int level = levelFor(w, h);
+        int[] src = level(level);
+        return AreaResampler.resample(src, levelWidth(level), levelHeight(level), w, h);
+    }
+
+    private synchronized int[] level(int level) {
+        if (level == 0) {
+            return _base.get();
+        }
+        if (_levels.size() < level) {
+            int[] prev = _levels.isEmpty() ? _base.get() : _levels.get(_levels.size() - 1);
+            for (int i = _levels.size() + 1; i <= level; i++) {
+                prev = AreaResampler.resample(prev, levelWidth(i - 1), levelHeight(i - 1), levelWidth(i), levelHeight(i));
+                _levels.add(prev);
+            }
+        }
+        return _levels.get(level - 1);
+    }
+}
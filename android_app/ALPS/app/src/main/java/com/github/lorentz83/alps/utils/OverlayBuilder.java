@@ -46,6 +46,16 @@ public class OverlayBuilder {
          * @return true if tis is a dummy overlayer.
          */
         default boolean isDummy() { return false; }
+
+        /**
+         * Returns this overlay as a function of the pixel coordinates.
+         * <p>
+         * When available it should be preferred to apply, since it doesn't need a copy of the
+         * image. apply draws the same overlay on a Canvas.
+         *
+         * @return the mask, or null if the overlay can only be applied with apply.
+         */
+        default OverlayMask mask() { return null; }
     }
 
     private static class PaintTools {
@@ -177,6 +187,11 @@ public class OverlayBuilder {
                 return applyHorizontalStripes(original, p1, p2);
             }
 
+            @Override
+            public OverlayMask mask() {
+                return OverlayMask.horizontalStripes();
+            }
+
             @Override
             public String toString() {
                 return "Horizontal stripes";
@@ -198,6 +213,11 @@ public class OverlayBuilder {
                 return applyVerticalStripes(original, p1, p2);
             }
 
+            @Override
+            public OverlayMask mask() {
+                return OverlayMask.verticalStripes();
+            }
+
             @Override
             public String toString() {
                 return "Vertical stripes";
@@ -217,6 +237,11 @@ public class OverlayBuilder {
                 return applyRectangles(original, p1, p2, true);
             }
 
+            @Override
+            public OverlayMask mask() {
+                return OverlayMask.rectangles(true);
+            }
+
             @Override
             public String toString() {
                 return "Squares";
@@ -236,6 +261,11 @@ public class OverlayBuilder {
                 return applyRectangles(original, p1, p2, false);
             }
 
+            @Override
+            public OverlayMask mask() {
+                return OverlayMask.rectangles(false);
+            }
+
             @Override
             public String toString() {
                 return "Rectangles";
@@ -255,6 +285,11 @@ public class OverlayBuilder {
                 return applyDiagonal(original, p1, p2, false);
             }
 
+            @Override
+            public OverlayMask mask() {
+                return OverlayMask.diagonal(false);
+            }
+
             @Override
             public String toString() {
                 return "Diagonal down";
@@ -274,6 +309,11 @@ public class OverlayBuilder {
                 return applyDiagonal(original, p1, p2, true);
             }
 
+            @Override
+            public OverlayMask mask() {
+                return OverlayMask.diagonal(true);
+            }
+
             @Override
             public String toString() {
                 return "Diagonal up";
@@ -0,0 +1,145 @@
+/**
+ *  Copyright 2020-2021 Lorenzo Bossi
+ *
+ *  This file is part of ALPS (Another Light Painting Stick).
+ *
+ *  ALPS is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  ALPS is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with ALPS.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.github.lorentz83.alps.utils;
+
+import androidx.annotation.NonNull;
+
+/**
+ * The black pattern of an overlay, as a function of the pixel coordinates.
+ * <p>
+ * Unlike drawing on a Canvas it doesn't need a copy of the image, it can be applied in place or
+ * while the columns are sent.
+ */
+public interface OverlayMask {
+    /**
+     * Returns how much of the pixel is covered by the overlay.
+     *
+     * @param x  the column of the pixel, 0 is the left of the image.
+     * @param y  the row of the pixel, 0 is the top of the image.
+     * @param w  the width of the image.
+     * @param h  the height of the image.
+     * @param p1 1st parameter of the overlay (greater than 1).
+     * @param p2 2nd parameter of the overlay (greater than 1).
+     * @return 0 if the pixel is untouched, 1 if it is black, a value in between on the borders.
+     */
+    float coverage(int x, int y, int w, int h, int p1, int p2);
+
+    /**
+     * Applies the overlay to the pixels, in place.
+     *
+     * @param pixels the pixels in ARGB format, row by row.
+     * @param w      the width of the image.
+     * @param h      the height of the image.
+     * @param p1     1st parameter of the overlay (greater than 1).
+     * @param p2     2nd parameter of the overlay (greater than 1).
+     */
+    default void apply(@NonNull int[] pixels, int w, int h, int p1, int p2) {
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                float c = coverage(x, y, w, h, p1, p2);
+                if (c > 0) {
+                    pixels[y * w + x] = darken(pixels[y * w + x], c);
+                }
+            }
+        }
+    }
+
+    /**
+     * Paints opaque black over a pixel.
+     *
+     * @param argb     the color of the pixel.
+     * @param coverage how much of the pixel is painted, between 0 and 1.
+     * @return the new color.
+     */
+    static int darken(int argb, float coverage) {
+        if (coverage >= 1) {
+            return 0xff000000;
+        }
+        float keep = 1 - coverage;
+        int a = argb >>> 24;
+        // The color is scaled by the alpha of the pixel over the alpha of the result.
+        float outA = coverage * 255 + a * keep;
+        float scale = outA == 0 ? 0 : a * keep / outA;
+        int r = Math.round(((argb >> 16) & 0xff) * scale);
+        int g = Math.round(((argb >> 8) & 0xff) * scale);
+        int b = Math.round((argb & 0xff) * scale);
+        return Math.round(outA) << 24 | r << 16 | g << 8 | b;
+    }
+
+    /**
+     * Black horizontal lines p1 pixels high, with a gap of p2 pixels, starting with a gap.
+     *
+     * @return the mask.
+     */
+    static @NonNull OverlayMask horizontalStripes() {
+        return (x, y, w, h, p1, p2) -> y >= p2 && (y - p2) % (p1 + p2) < p1 ? 1 : 0;
+    }
+
+    /**
+     * Black vertical lines p1 pixels wide, with a gap of p2 pixels, starting with a gap.
+     *
+     * @return the mask.
+     */
+    static @NonNull OverlayMask verticalStripes() {
+        return (x, y, w, h, p1, p2) -> x >= p2 && (x - p2) % (p1 + p2) < p1 ? 1 : 0;
+    }
+
+    /**
+     * A checkerboard of rectangles p1 or p2 pixels wide, starting with a black one.
+     *
+     * @param square if true the black rectangles are p1 x p1, otherwise p1 x p2.
+     * @return the mask.
+     */
+    static @NonNull OverlayMask rectangles(boolean square) {
+        return (x, y, w, h, p1, p2) -> {
+            boolean evenX = x % (p1 + p2) < p1;
+            boolean evenY = y % (p1 + p2) < (square ? p1 : p2);
+            return evenX == evenY ? 1 : 0;
+        };
+    }
+
+    /**
+     * Black diagonal bands p1 pixels wide, with a gap of p2 pixels, going from a corner of the
+     * image to the opposite one.
+     *
+     * @param up if true the bands go from the bottom left to the top right.
+     * @return the mask.
+     */
+    static @NonNull OverlayMask diagonal(boolean up) {
+        return (x, y, w, h, p1, p2) -> {
+            float yc = up ? h - (y + 0.5f) : y + 0.5f;
+            // Horizontal position of the pixel relative to the 1st band, which starts at
+            // -(w + p1) on the top row and moves right by w / h every row.
+            float u = x + w + p1 - yc * w / h;
+            int period = p1 + p2;
+            int k = (int) Math.floor(u / period);
+            // The pixel [u, u+1) overlaps at most 2 bands, [k*period, k*period+p1) and the next one.
+            return overlap(u, k * period, p1) + overlap(u, (k + 1) * period, p1);
+        };
+    }
+
+    // Length of the intersection between [u, u+1) and [start, start+len).
+    static float overlap(float u, float start, float len) {
+        float from = Math.max(u, start);
+        float to = Math.min(u + 1, start + len);
+        return Math.max(0, to - from);
+    }
+}
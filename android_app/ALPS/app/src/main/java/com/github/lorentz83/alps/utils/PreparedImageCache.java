@@ -0,0 +1,216 @@
+/**
+ *  Copyright 2020-2021 Lorenzo Bossi
+ *
+ *  This file is part of ALPS (Another Light Painting Stick).
+ *
+ *  ALPS is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  ALPS is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with ALPS.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.github.lorentz83.alps.utils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.github.lorentz83.alps.communication.ColumnSource;
+import com.github.lorentz83.alps.sources.MappedColumnSource;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A disk cache of images already scaled to the stick size.
+ * <p>
+ * Each image is stored as raw RGB columns, with the alpha already applied, in the same order they
+ * are sent to the stick. Files are mapped in memory when read, so they can be sent without
+ * decoding or copying them first.
+ * When the files exceed the size budget, the least recently used ones are deleted.
+ */
+public class PreparedImageCache {
+    private final static LogUtility log = new LogUtility(PreparedImageCache.class);
+
+    private static final int MAGIC = 0x414c5053; // ALPS
+    // Magic, width and height.
+    private static final int HEADER_SIZE = 12;
+    private static final String SUFFIX = ".rgb";
+
+    private final File _dir;
+    private final long _maxBytes;
+
+    /**
+     * Creates the cache.
+     *
+     * @param dir      the directory where to store the images, it is created if missing.
+     * @param maxBytes the maximum size of all the images.
+     */
+    public PreparedImageCache(@NonNull File dir, long maxBytes) {
+        _dir = dir;
+        _maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns a key which identifies an image prepared with some settings.
+     *
+     * @param parts what the image depends on, i.e. the source and the settings used to scale it.
+     * @return the key.
+     */
+    public static @NonNull String key(@NonNull Object... parts) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            for (Object p : parts) {
+                md.update(String.valueOf(p).getBytes(StandardCharsets.UTF_8));
+                md.update((byte) 0);
+            }
+            StringBuilder sb = new StringBuilder();
+            for (byte b : md.digest()) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM must implement SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns a prepared image.
+     * <p>
+     * A file which is not a valid image is deleted. If the thread is interrupted while the file is
+     * mapped, it is kept and the interrupt flag is set again.
+     *
+     * @param key the key of the image.
+     * @return the image mapped in memory, or null if it is not in the cache or cannot be read.
+     */
+    public synchronized @Nullable MappedColumnSource get(@NonNull String key) {
+        File f = file(key);
+        if (!f.exists()) {
+            return null;
+        }
+        MappedByteBuffer buf;
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+            // The mapping stays valid after the channel is closed.
+            buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } catch (ClosedByInterruptException e) {
+            // A cancelled render, the file is fine.
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (IOException e) {
+            log.w("cannot read cache file " + f.getName(), e);
+            return null;
+        }
+        try {
+            if (buf.limit() < HEADER_SIZE || buf.getInt(0) != MAGIC) {
+                throw new IllegalArgumentException("invalid header");
+            }
+            MappedColumnSource src = new MappedColumnSource(buf, HEADER_SIZE, buf.getInt(4), buf.getInt(8));
+            f.setLastModified(System.currentTimeMillis());
+            return src;
+        } catch (IllegalArgumentException e) {
+            log.w("dropping invalid cache file " + f.getName(), e);
+            f.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Stores a prepared image.
+     *
+     * @param key the key of the image.
+     * @param src the image, its width must be known. It is read from the current position.
+     * @throws IOException if the file cannot be written.
+     * @throws IllegalArgumentException if the width of the source is unknown.
+     */
+    public synchronized void put(@NonNull String key, @NonNull ColumnSource src) throws IOException {
+        int w = src.getWidth();
+        int h = src.getHeight();
+        if (w == ColumnSource.UNKNOWN_WIDTH) {
+            throw new IllegalArgumentException("cannot cache an image of unknown width");
+        }
+        if (!_dir.isDirectory() && !_dir.mkdirs()) {
+            throw new IOException("cannot create " + _dir);
+        }
+
+        File tmp = new File(_dir, key + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp); FileChannel ch = fos.getChannel()) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(w).putInt(h).flip();
+            ch.write(header);
+
+            int[] column = new int[h];
+            ByteBuffer buf = ByteBuffer.allocate(h * 3);
+            for (int x = 0; x < w; x++) {
+                if (!src.nextColumn(column)) {
+                    throw new IOException("the source has fewer columns than its width");
+                }
+                buf.clear();
+                for (int c : column) {
+                    int alpha = c >>> 24;
+                    buf.put(premultiply((c >> 16) & 0xff, alpha));
+                    buf.put(premultiply((c >> 8) & 0xff, alpha));
+                    buf.put(premultiply(c & 0xff, alpha));
+                }
+                buf.flip();
+                ch.write(buf);
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+        if (!tmp.renameTo(file(key))) {
+            tmp.delete();
+            throw new IOException("cannot store " + key);
+        }
+        evict();
+    }
+
+    // Same rounding Protocol uses to send a transparent pixel.
+    private static byte premultiply(int c, int alpha) {
+        if (alpha == 0xff) {
+            return (byte) c;
+        }
+        return (byte) Math.round(alpha / 255.0 * c);
+    }
+
+    private File file(String key) {
+        return new File(_dir, key + SUFFIX);
+    }
+
+    private void evict() {
+        File[] files = _dir.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File f : files) {
+            total += f.length();
+        }
+        // Oldest first.
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (int i = 0; i < files.length && total > _maxBytes; i++) {
+            total -= files[i].length();
+            files[i].delete();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/**
+ *  Copyright 2020-2021 Lorenzo Bossi
+ *
+ *  This file is part of ALPS (Another Light Painting Stick).
+ *
+ *  ALPS is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  ALPS is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with ALPS.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.github.lorentz83.alps.utils;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Stores a bitmap uncompressed, in the same layout it has in memory.
+ * <p>
+ * Writing and reading it back are just a copy, without the cost of a PNG codec.
+ */
+public class RawBitmapFile {
+    private static final int MAGIC = 0x414c5052; // ALPR
+    // Magic, width, height and length of the source id.
+    private static final int HEADER_SIZE = 16;
+    // Rows copied at once, the pixels are written without copying the whole bitmap.
+    private static final int STRIP_ROWS = 32;
+
+    /**
+     * A bitmap read from a file.
+     */
+    public static class Image {
+        public final Bitmap bitmap;
+        /**
+         * The source id stored with the bitmap, it may be null.
+         */
+        public final String sourceId;
+
+        Image(@NonNull Bitmap bitmap, @Nullable String sourceId) {
+            this.bitmap = bitmap;
+            this.sourceId = sourceId;
+        }
+    }
+
+    /**
+     * Writes the bitmap.
+     * <p>
+     * The file is replaced atomically, so it is never left half written.
+     *
+     * @param f        the file to write.
+     * @param bmp      the bitmap.
+     * @param sourceId identifies where the image comes from, it may be null.
+     * @throws IOException if the file cannot be written.
+     */
+    public static void write(@NonNull File f, @NonNull Bitmap bmp, @Nullable String sourceId) throws IOException {
+        if (bmp.getConfig() != Bitmap.Config.ARGB_8888) {
+            bmp = bmp.copy(Bitmap.Config.ARGB_8888, false);
+        }
+        byte[] id = sourceId == null ? new byte[0] : sourceId.getBytes(StandardCharsets.UTF_8);
+
+        File tmp = new File(f.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp); FileChannel ch = fos.getChannel()) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + id.length);
+            header.putInt(MAGIC).putInt(bmp.getWidth()).putInt(bmp.getHeight()).putInt(sourceId == null ? -1 : id.length);
+            header.put(id).flip();
+            ch.write(header);
+
+            int w = bmp.getWidth();
+            int h = bmp.getHeight();
+            ByteBuffer pixels = ByteBuffer.allocate(w * Math.min(h, STRIP_ROWS) * 4);
+            for (int y = 0; y < h; y += STRIP_ROWS) {
+                Bitmap strip = Bitmap.createBitmap(bmp, 0, y, w, Math.min(STRIP_ROWS, h - y));
+                pixels.clear();
+                strip.copyPixelsToBuffer(pixels);
+                pixels.flip();
+                while (pixels.hasRemaining()) {
+                    ch.write(pixels);
+                }
+                if (strip != bmp) {
+                    strip.recycle();
+                }
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+        if (!tmp.renameTo(f)) {
+            tmp.delete();
+            throw new IOException("cannot write " + f);
+        }
+    }
+
+    /**
+     * Reads a bitmap written by write, mapping the file in memory.
+     *
+     * @param f the file to read.
+     * @return the image.
+     * @throws IOException if the file cannot be read or it is not valid.
+     */
+    public static @NonNull Image read(@NonNull File f) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+            MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            if (buf.limit() < HEADER_SIZE || buf.getInt() != MAGIC) {
+                throw new IOException("invalid header in " + f);
+            }
+            int w = buf.getInt();
+            int h = buf.getInt();
+            int idLen = buf.getInt();
+            if (w <= 0 || h <= 0 || idLen > buf.remaining()) {
+                throw new IOException("invalid header in " + f);
+            }
+            String sourceId = null;
+            if (idLen >= 0) {
+                byte[] id = new byte[idLen];
+                buf.get(id);
+                sourceId = new String(id, StandardCharsets.UTF_8);
+            }
+            if (buf.remaining() != (long) w * h * 4) {
+                throw new IOException("truncated file " + f);
+            }
+            Bitmap bmp = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
+            bmp.copyPixelsFromBuffer(buf);
+            return new Image(bmp, sourceId);
+        }
+    }
+}
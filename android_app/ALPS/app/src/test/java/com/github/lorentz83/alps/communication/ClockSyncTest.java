@@ -0,0 +1,67 @@
+package com.github.lorentz83.alps.communication;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClockSyncTest {
+
+    @Test
+    void toStick_symmetricRoundTrip() {
+        ClockSync c = new ClockSync();
+        assertFalse(c.isSynchronized());
+        // The stick is 1000 ms behind, the answer is in the middle of the round trip.
+        c.addSample(5000, 4010, 5020);
+        assertTrue(c.isSynchronized());
+        assertEquals(4010, c.toStick(5010));
+        assertEquals(20, c.roundTrip());
+        assertEquals(0, c.drift());
+    }
+
+    @Test
+    void toStick_ignoresSlowRoundTrips() {
+        ClockSync c = new ClockSync();
+        c.addSample(1000, 100_005, 1010);
+        c.addSample(1100, 100_105, 1110);
+        // The answer got stuck on the way back.
+        c.addSample(1200, 100_205, 1600);
+        assertEquals(10, c.roundTrip());
+        assertEquals(100_000, c.toStick(1000));
+    }
+
+    @Test
+    void drift_estimatedOverLongSpans() {
+        ClockSync c = new ClockSync();
+        // The stick clock gains 1 ms every second.
+        for (long t = 0; t <= 10_000; t += 500) {
+            c.addSample(t, Math.round(t * 1.001) + 10, t + 20);
+        }
+        assertEquals(0.001, c.drift(), 1e-6);
+        assertEquals(Math.round(20_000 * 1.001), c.toStick(20_000), 1);
+    }
+
+    @Test
+    void drift_notEstimatedOverShortSpans() {
+        ClockSync c = new ClockSync();
+        c.addSample(0, 0, 10);
+        c.addSample(100, 110, 110);
+        assertEquals(0, c.drift());
+    }
+
+    @Test
+    void reset_forgetsTheSamples() {
+        ClockSync c = new ClockSync();
+        c.addSample(0, 500, 10);
+        c.reset();
+        assertFalse(c.isSynchronized());
+        assertEquals(42, c.toStick(42));
+    }
+
+    @Test
+    void addSample_rejectsNegativeRoundTrips() {
+        assertThrows(IllegalArgumentException.class, () -> new ClockSync().addSample(10, 0, 5));
+    }
+}
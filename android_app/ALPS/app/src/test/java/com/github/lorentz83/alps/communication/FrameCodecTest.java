@@ -0,0 +1,89 @@
+package com.github.lorentz83.alps.communication;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FrameCodecTest {
+
+    private static byte[] frame(int seq, byte[] payload) {
+        byte[] out = new byte[FrameCodec.maxFrameLength(payload.length)];
+        int len = FrameCodec.encode(seq, payload, payload.length, false, out);
+        return Arrays.copyOf(out, len);
+    }
+
+    @Test
+    void encode_escapesTheFlags() throws IOException {
+        byte[] payload = {'o', 0x7E, 0x7D, 1, 2};
+        byte[] f = frame(3, payload);
+
+        assertEquals(FrameCodec.FLAG, f[0]);
+        assertEquals(FrameCodec.FLAG, f[f.length - 1]);
+        for (int i = 1; i < f.length - 1; i++) {
+            assertNotEquals(FrameCodec.FLAG, f[i] & 0xFF, "unescaped flag");
+        }
+
+        byte[] got = new byte[5];
+        assertEquals(3, FrameCodec.readFrame(new ByteArrayInputStream(f), got));
+        assertArrayEquals(payload, got);
+    }
+
+    @Test
+    void readFrame_skipsBrokenFrames() throws IOException {
+        byte[] good = frame(7, new byte[]{'o', 1, 2, 3, 4});
+        byte[] truncated = frame(5, new byte[]{'o', 9, 9, 9, 9});
+        truncated = Arrays.copyOf(truncated, truncated.length - 3);
+        byte[] corrupted = frame(6, new byte[]{'o', 8, 8, 8, 8});
+        corrupted[2] ^= 1; // The length doesn't match the check byte.
+
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        wire.write(new byte[]{1, 2, 3}); // Garbage.
+        wire.write(truncated);
+        wire.write(corrupted);
+        wire.write(good);
+
+        byte[] got = new byte[5];
+        assertEquals(7, FrameCodec.readFrame(new ByteArrayInputStream(wire.toByteArray()), got));
+        assertArrayEquals(new byte[]{'o', 1, 2, 3, 4}, got);
+    }
+
+    @Test
+    void readFrame_failsAtTheEndOfTheStream() {
+        byte[] f = frame(1, new byte[]{'o', 1, 2, 3, 4});
+        ByteArrayInputStream in = new ByteArrayInputStream(Arrays.copyOf(f, f.length - 1));
+        assertThrows(EOFException.class, () -> FrameCodec.readFrame(in, new byte[5]));
+    }
+
+    @Test
+    void encode_rejectsLongPayloads() {
+        int len = FrameCodec.MAX_PAYLOAD + 1;
+        assertThrows(IllegalArgumentException.class, () -> FrameCodec.encode(0, new byte[len], len, true, new byte[FrameCodec.maxFrameLength(len)]));
+    }
+
+    @Test
+    void encode_appendsTheCrc() {
+        byte[] payload = {'o', 0, 0, 0, 0};
+        byte[] out = new byte[FrameCodec.maxFrameLength(payload.length)];
+        int len = FrameCodec.encode(0, payload, payload.length, true, out);
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        long want = crc.getValue();
+        // Before the flag, in little endian. None of these bytes need to be escaped.
+        for (int i = 0; i < 4; i++) {
+            assertEquals((byte) want, out[len - 5 + i]);
+            want >>= 8;
+        }
+        assertEquals(6 + payload.length + 4, len);
+    }
+}
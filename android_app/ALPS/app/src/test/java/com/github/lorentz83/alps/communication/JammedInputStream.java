@@ -0,0 +1,80 @@
+package com.github.lorentz83.alps.communication;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Set;
+
+// Corrupts the answers of the stick, like JammedOutputStream does with the messages of the host.
+class JammedInputStream extends InputStream {
+    private final InputStream _inner;
+    private final Set<Integer> _skipBytes = new HashSet<>();
+    private final Set<Integer> _flipBytes = new HashSet<>();
+    private int _bytesRead;
+    private int _flagsRead;
+    // The opening flag of the answer to break, and how many bytes were read after it.
+    private int _breakFlag = -1;
+    private int _afterBreakFlag = -1;
+
+    JammedInputStream(InputStream in) {
+        _inner = in;
+    }
+
+    public void skipRange(int from, int to) {
+        for (; from < to; from++)
+            _skipBytes.add(from);
+    }
+
+    public void flip(int b) {
+        _flipBytes.add(b);
+    }
+
+    // Flips the check byte of the n-th answer from now on, starting from 1: the host skips it
+    // as if it got lost.
+    public void breakAnswer(int n) {
+        _breakFlag = _flagsRead + 2 * n - 1;
+    }
+
+    @Override
+    public int read() throws IOException {
+        while (true) {
+            int b = _inner.read();
+            if (b < 0) {
+                return b;
+            }
+            _bytesRead++;
+            if (_skipBytes.contains(_bytesRead)) {
+                System.out.println("skipping byte");
+                continue;
+            }
+            if (_afterBreakFlag >= 0 && ++_afterBreakFlag == 4) {
+                System.out.println("breaking answer");
+                _afterBreakFlag = -1;
+                b ^= 1;
+            }
+            if (b == FrameCodec.FLAG && ++_flagsRead == _breakFlag) {
+                _afterBreakFlag = 0;
+            }
+            if (_flipBytes.contains(_bytesRead)) {
+                System.out.println("flipping byte");
+                b ^= 1;
+            }
+            return b;
+        }
+    }
+
+    @Override
+    public int available() throws IOException {
+        // Otherwise a skipped byte at the end of an answer would look available.
+        while (_skipBytes.contains(_bytesRead + 1) && _inner.available() > 0) {
+            _inner.read();
+            _bytesRead++;
+            System.out.println("skipping byte");
+        }
+        return _inner.available();
+    }
+
+    public int getBytesRead() {
+        return _bytesRead;
+    }
+}
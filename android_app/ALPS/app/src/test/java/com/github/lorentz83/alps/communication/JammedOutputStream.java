@@ -0,0 +1,75 @@
+package com.github.lorentz83.alps.communication;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+class JammedOutputStream extends OutputStream {
+    private final OutputStream _inner;
+    private final Set<Integer> _skipBytes = new HashSet<>();
+    private final Set<Integer> _flipBytes = new HashSet<>();
+    private boolean _corruptFrames = false;
+    private int _actualBytesSent, _bytesSent;
+
+    JammedOutputStream(OutputStream out) {
+        _inner = out;
+    }
+
+    public void skip(int b) {
+        _skipBytes.add(b);
+    }
+
+    public void skipRange(int from, int to) {
+        for (; from < to; from++)
+            _skipBytes.add(from);
+    }
+
+    public void flip(int b) {
+        _flipBytes.add(b);
+    }
+
+    // Flips the last crc byte of every frame, the stick answers with a nack.
+    public void corruptEveryFrame() {
+        _corruptFrames = true;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (_corruptFrames) {
+            b = Arrays.copyOfRange(b, off, off + len);
+            off = 0;
+            b[len - 2] ^= 1;
+        }
+        super.write(b, off, len);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        _bytesSent++;
+        if (_skipBytes.contains(_bytesSent)) {
+            System.out.println("skipping byte");
+            return;
+        }
+        if (_flipBytes.contains(_bytesSent)) {
+            System.out.println("flipping byte");
+            b ^= 1;
+        }
+        _actualBytesSent++;
+        _inner.write(b);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        _inner.flush();
+    }
+
+    public int getActualBytesSent() {
+        return _actualBytesSent;
+    }
+
+    public int getBytesSent() {
+        return _bytesSent;
+    }
+}
@@ -0,0 +1,230 @@
+package com.github.lorentz83.alps.communication;
+
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+class LzssCodecTest {
+
+    private static final int STICK_PIXELS = 144;
+
+    /**
+     * Sends the columns in batches through 2 codecs, like the host and the stick do, and checks
+     * the stick gets them back.
+     *
+     * @return how many bytes are sent for the columns.
+     */
+    private static long roundTrip(byte[] columns, int colLen, int batch) throws ProtocolException {
+        LzssCodec host = new LzssCodec(colLen);
+        LzssCodec stick = new LzssCodec(colLen);
+        byte[] packed = new byte[batch * colLen];
+        byte[] got = new byte[columns.length];
+        long sent = 0;
+        int total = columns.length / colLen;
+        for (int c = 0; c < total; c += batch) {
+            int cols = Math.min(batch, total - c);
+            int off = c * colLen;
+            int len = host.compress(columns, off, cols, colLen, packed, 0);
+            if (len < 0) {
+                System.arraycopy(columns, off, got, off, cols * colLen);
+                stick.uncompressed(got, off, cols, colLen);
+                sent += cols * colLen;
+            } else {
+                assertEquals(len, stick.decompress(packed, 0, len, cols, colLen, got, off));
+                sent += len;
+            }
+        }
+        assertArrayEquals(columns, got);
+        return sent;
+    }
+
+    // Columns of smooth gradients, with some noise.
+    private static byte[] smooth(Random rnd, int cols, int colLen) {
+        byte[] b = new byte[cols * colLen];
+        for (int c = 0; c < cols; c++) {
+            for (int i = 0; i < colLen; i++) {
+                b[c * colLen + i] = (byte) (rnd.nextInt(20) == 0 ? rnd.nextInt(256) : (i / 3 + c / 4) * (i % 3 + 1));
+            }
+        }
+        return b;
+    }
+
+    @Test
+    void compress_identicalColumnsShrink() throws ProtocolException {
+        int colLen = STICK_PIXELS * 3;
+        byte[] column = smooth(new Random(1), 1, colLen);
+        byte[] columns = new byte[10 * colLen];
+        for (int c = 0; c < 10; c++) {
+            System.arraycopy(column, 0, columns, c * colLen, colLen);
+        }
+        // Even one column at a time, like the Arduino, each one refers to the previous batch.
+        long sent = roundTrip(columns, colLen, 1);
+        assertTrue(sent < columns.length / 4, "sent " + sent + " bytes");
+    }
+
+    @Test
+    void roundTrip_mixesCompressedAndUncompressedBatches() throws ProtocolException {
+        Random rnd = new Random(2);
+        for (int colLen : new int[]{3, 30, STICK_PIXELS * 3, 254 * 3}) {
+            byte[] columns = smooth(rnd, 37, colLen);
+            // Noise in the middle, which is sent as it is.
+            for (int i = 10 * colLen; i < 20 * colLen; i++) {
+                columns[i] = (byte) rnd.nextInt(256);
+            }
+            for (int batch = 1; batch <= 6; batch++) {
+                roundTrip(columns, colLen, batch);
+            }
+        }
+    }
+
+    @Test
+    void compress_failsIfItDoesNotShrink() {
+        byte[] noise = new byte[2 * 30];
+        new Random(3).nextBytes(noise);
+        assertEquals(-1, new LzssCodec(30).compress(noise, 0, 2, 30, new byte[noise.length], 0));
+    }
+
+    @Test
+    void reset_startsFromBlack() throws ProtocolException {
+        byte[] column = {1, 2, 3, 1, 2, 3, 1, 2, 3, 1, 2, 3};
+        LzssCodec host = new LzssCodec(column.length);
+        byte[] packed = new byte[column.length];
+        int first = host.compress(column, 0, 1, column.length, packed, 0);
+        // The same column again is a single match.
+        assertEquals(3, host.compress(column, 0, 1, column.length, packed, 0));
+        host.reset();
+        assertEquals(first, host.compress(column, 0, 1, column.length, packed, 0));
+
+        // Black columns are a match of the column before the 1st one.
+        byte[] black = new byte[column.length];
+        assertEquals(3, new LzssCodec(black.length).compress(black, 0, 1, black.length, packed, 0));
+    }
+
+    @Test
+    void decompress_rejectsInvalidData() {
+        LzssCodec stick = new LzssCodec(6);
+        byte[] got = new byte[6];
+        // A match going back further than the column before.
+        assertThrows(ProtocolException.class, () -> stick.decompress(new byte[]{0, 7, 0}, 0, 3, 1, 6, got, 0));
+        // A match past the end of the column.
+        assertThrows(ProtocolException.class, () -> stick.decompress(new byte[]{0, 1, 0x40}, 0, 3, 1, 6, got, 0));
+        // Not enough literals.
+        assertThrows(ProtocolException.class, () -> stick.decompress(new byte[]{(byte) 0xFF, 1, 2}, 0, 3, 1, 6, got, 0));
+    }
+
+    // Loads a gallery image, scaled to the height of the stick like the app does, in columns of RGB bytes.
+    private static byte[] galleryColumns(File f) throws IOException {
+        BufferedImage src = ImageIO.read(f);
+        assertNotNull(src, f.getName());
+        int w = src.getWidth() * STICK_PIXELS / src.getHeight();
+        BufferedImage img = new BufferedImage(w, STICK_PIXELS, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = img.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(src, 0, 0, w, STICK_PIXELS, null);
+        g.dispose();
+
+        byte[] b = new byte[w * STICK_PIXELS * 3];
+        int idx = 0;
+        for (int x = 0; x < w; x++) {
+            // The 1st pixel of the stick is the bottom one.
+            for (int y = STICK_PIXELS - 1; y >= 0; y--) {
+                int argb = img.getRGB(x, y);
+                b[idx++] = (byte) (argb >> 16);
+                b[idx++] = (byte) (argb >> 8);
+                b[idx++] = (byte) argb;
+            }
+        }
+        return b;
+    }
+
+    // The images of the gallery, looked for above the test classes and the working directory, the
+    // tests may run from the module or from the project directory.
+    private static File[] galleryFiles() throws URISyntaxException {
+        File[] starts = {
+                new File(LzssCodecTest.class.getProtectionDomain().getCodeSource().getLocation().toURI()),
+                new File("").getAbsoluteFile(),
+        };
+        for (File start : starts) {
+            for (File d = start; d != null; d = d.getParentFile()) {
+                File[] files = new File(d, "src/main/res/mipmap-nodpi").listFiles((dir, name) -> name.startsWith("pre_"));
+                if (files == null) {
+                    files = new File(d, "app/src/main/res/mipmap-nodpi").listFiles((dir, name) -> name.startsWith("pre_"));
+                }
+                if (files != null && files.length > 0) {
+                    Arrays.sort(files);
+                    return files;
+                }
+            }
+        }
+        return fail("gallery not found");
+    }
+
+    @Test
+    void compress_galleryImages() throws IOException, URISyntaxException {
+        // Batch sizes: Arduino, Teensy when scheduled, Teensy.
+        int[] batches = {1, 3, 6};
+        long raw = 0;
+        long[] sent = new long[batches.length];
+        for (File f : galleryFiles()) {
+            byte[] columns = galleryColumns(f);
+            raw += columns.length;
+            for (int i = 0; i < batches.length; i++) {
+                long s = roundTrip(columns, STICK_PIXELS * 3, batches[i]);
+                sent[i] += s;
+                // Even the noisiest image, the fire, shrinks.
+                assertTrue(s < columns.length * 8 / 10, f.getName() + ": sent " + s + " of " + columns.length + " bytes");
+            }
+        }
+        // Most of the gallery is made of smooth gradients and repeated columns.
+        for (long s : sent) {
+            assertTrue(s < raw * 4 / 10, "sent " + s + " of " + raw + " bytes");
+        }
+    }
+
+    @Disabled("Benchmark, run it by hand")
+    @Test
+    void benchmark_galleryImages() throws IOException, URISyntaxException {
+        int[] batches = {1, 3, 6};
+        long raw = 0;
+        long[] sent = new long[batches.length];
+        long nanos = 0;
+
+        System.out.printf("%-20s %8s %8s %8s %8s\n", "image", "bytes", "batch 1", "batch 3", "batch 6");
+        for (File f : galleryFiles()) {
+            byte[] columns = galleryColumns(f);
+            raw += columns.length;
+            StringBuilder ratios = new StringBuilder();
+            for (int i = 0; i < batches.length; i++) {
+                long start = System.nanoTime();
+                long s = roundTrip(columns, STICK_PIXELS * 3, batches[i]);
+                nanos += System.nanoTime() - start;
+                sent[i] += s;
+                ratios.append(String.format(" %7.1f%%", 100.0 * s / columns.length));
+            }
+            System.out.printf("%-20s %8d%s\n", f.getName(), columns.length, ratios);
+        }
+        StringBuilder ratios = new StringBuilder();
+        for (long s : sent) {
+            ratios.append(String.format(" %7.1f%%", 100.0 * s / raw));
+        }
+        System.out.printf("%-20s %8d%s\n", "total", raw, ratios);
+        System.out.printf("compressed and decompressed %.1f MB/s\n", raw * batches.length / (nanos / 1e3));
+    }
+}
@@ -2,21 +2,22 @@ package com.github.lorentz83.alps.communication;
 
 import org.junit.Assert;
 import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.Timeout;
 import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
 import org.junit.jupiter.params.provider.ValueSource;
 
-import java.io.File;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Iterator;
+import java.util.Random;
 
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class Protocol_IntegrationTest {
 
@@ -77,6 +78,140 @@ class Protocol_IntegrationTest {
         }
     }
 
+    @Test
+    public void showImage_changeSettings() throws IOException, InterruptedException {
+        try (Tester tester = new Tester("tester_1",
+                Tester.Flags.PIXELS_TO_STDERR)){
+            Protocol p = new Protocol();
+            p.initializeConnection(tester.getInputStream(), tester.getOutputStream());
+
+            int w = 3;
+            int h = 1;
+            // Different columns, otherwise they are sent together.
+            int []pixels = new int[]{0XFFFFFFFF, 0XFFFEFEFE, 0XFFFFFFFF};
+
+            // Brightness and delay change after the 1st batch.
+            Iterator<ShowSettings> settings = Arrays.asList(
+                    new ShowSettings(1, 0),
+                    new ShowSettings(.5F, 10),
+                    new ShowSettings(.5F, 10)).iterator();
+
+            p.showImage(w, h, pixels, settings::next, false, null);
+
+            byte f = (byte) 0xFF;
+            byte s = (byte) 0x80; // scaled by brightness.
+            byte e = (byte) 0x7F; // 0xFE scaled by brightness.
+            byte []want = new byte[]{
+                    f, f, f,
+                    'S', 'H', 'O', 'W',
+                    e, e, e,
+                    'S', 'H', 'O', 'W',
+                    s, s, s,
+                    'S', 'H', 'O', 'W',
+                    'O', 'F', 'F',
+            };
+
+            byte[] got = tester.stopAndGetStderr();
+
+            printByteArray("got", got);
+            Assert.assertArrayEquals(want, got);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"tester_1", "tester_3"})
+    public void showImage_unknownWidth(String testerCmd) throws IOException, InterruptedException {
+        try (Tester tester = new Tester(testerCmd,
+                Tester.Flags.PIXELS_TO_STDERR)){
+            Protocol p = new Protocol();
+            p.initializeConnection(tester.getInputStream(), tester.getOutputStream());
+
+            // 4 columns, which are not aligned with the batch size of tester_3.
+            ColumnSource source = new ColumnSource() {
+                int x = 0;
+
+                @Override
+                public int getHeight() {
+                    return 1;
+                }
+
+                @Override
+                public int getWidth() {
+                    return UNKNOWN_WIDTH;
+                }
+
+                @Override
+                public boolean nextColumn(int[] column) {
+                    if (x == 4) {
+                        return false;
+                    }
+                    column[0] = 0XFF000000 | ++x;
+                    return true;
+                }
+
+                @Override
+                public void rewind() {
+                    x = 0;
+                }
+            };
+
+            p.showImage(source, () -> new ShowSettings(1, 0), false, null);
+
+            byte []want = new byte[]{
+                    0, 0, 1,
+                    'S', 'H', 'O', 'W',
+                    0, 0, 2,
+                    'S', 'H', 'O', 'W',
+                    0, 0, 3,
+                    'S', 'H', 'O', 'W',
+                    0, 0, 4,
+                    'S', 'H', 'O', 'W',
+                    'O', 'F', 'F',
+            };
+
+            byte[] got = tester.stopAndGetStderr();
+
+            printByteArray("got", got);
+            Assert.assertArrayEquals(want, got);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"tester_1", "tester_3"})
+    public void showImage_scheduled(String testerCmd) throws IOException, InterruptedException {
+        try (Tester tester = new Tester(testerCmd,
+                Tester.Flags.PIXELS_TO_STDERR)){
+            Protocol p = new Protocol();
+            p.initializeConnection(tester.getInputStream(), tester.getOutputStream());
+
+            int w = 8;
+            int delay = 30;
+            int[] pixels = new int[w];
+            for (int i = 0; i < w; i++) {
+                pixels[i] = 0XFF000000 | (i + 1);
+            }
+
+            long start = System.nanoTime();
+            p.showImage(w, 1, pixels, 1, delay, false, null);
+            long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+            // The last batch is acknowledged while at most 2 columns are still waiting to be shown.
+            assertTrue(elapsedMs >= (w - 2) * delay, "columns shown too fast: " + elapsedMs + "ms");
+            Thread.sleep(3 * delay);
+
+            ByteArrayOutputStream want = new ByteArrayOutputStream();
+            for (int i = 0; i < w; i++) {
+                want.write(new byte[]{0, 0, (byte) (i + 1), 'S', 'H', 'O', 'W'});
+            }
+            want.write(new byte[]{'O', 'F', 'F'});
+
+            byte[] got = tester.stopAndGetStderr();
+
+            printByteArray("got", got);
+            Assert.assertArrayEquals(want.toByteArray(), got);
+        }
+    }
+
     @ParameterizedTest
     @ValueSource(strings = {"tester_1", "tester_3"})
     public void showImage_big(String testerCmd) throws IOException, InterruptedException {
@@ -97,6 +232,394 @@ class Protocol_IntegrationTest {
         }
     }
 
+    @ParameterizedTest
+    @ValueSource(booleans = {true, false})
+    @Timeout(value = 5, unit = SECONDS)
+    public void recoversAfterLostBytes(boolean framing) throws IOException, InterruptedException {
+        try (Tester tester = new Tester("tester_3")) {
+            Protocol p = new Protocol();
+            if (!framing) {
+                p.disableFraming();
+            }
+            // The skipped bytes must be in the columns.
+            p.disableSubsampling();
+            JammedOutputStream out = new JammedOutputStream(tester.getOutputStream());
+            p.initializeConnection(tester.getInputStream(), out);
+
+            int w = 6;
+            int h = 10;
+            int[] pixels = new int[w * h];
+            for (int i = 0; i < pixels.length; i++) {
+                pixels[i] = 0XFF102030 | (i / h);
+            }
+            // Some pixels of the 1st batch get lost.
+            int sent = out.getBytesSent();
+            out.skipRange(sent + 20, sent + 23);
+
+            long start = System.nanoTime();
+            if (framing) {
+                // The batch is sent again.
+                p.showImage(w, h, pixels, 1, 0, false, null);
+                assertEquals(1, p.getStats().getRetries());
+            } else {
+                assertThrows(ProtocolException.class, () -> p.showImage(w, h, pixels, 1, 0, false, null));
+            }
+            p.off();
+            long recoveryMs = (System.nanoTime() - start) / 1_000_000;
+
+            System.out.printf("recovery with%s framing: %d ms\n", framing ? "" : "out", recoveryMs);
+            if (framing) {
+                // A single round trip instead of the stick timeout (1 second).
+                assertTrue(recoveryMs < 500, "recovery took " + recoveryMs + "ms");
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @CsvSource({"true, 30, 300", "false, 30, 300", "true, 0, 300", "false, 0, 300", "false, 0, 200"})
+    @Timeout(value = 5, unit = SECONDS)
+    public void showImage_sendsBrokenBatchesAgain(boolean lost, int delay, int offset) throws IOException, InterruptedException {
+        try (Tester tester = new Tester("tester_3",
+                Tester.Flags.PIXELS_TO_STDERR)) {
+            Protocol p = new Protocol();
+            // The compressed batches are much shorter, see showImage_sendsCompressedBatchesAgain.
+            p.disableCompression();
+            p.disableSubsampling();
+            JammedOutputStream out = new JammedOutputStream(tester.getOutputStream());
+            p.initializeConnection(tester.getInputStream(), out);
+
+            int w = 6;
+            int h = 30;
+            int[] pixels = new int[w * h];
+            for (int i = 0; i < pixels.length; i++) {
+                pixels[i] = 0XFF000000 | (i / h + 1);
+            }
+            // Batches of 2 columns take ~190 bytes, this hits the pixels of the 1st or the 2nd
+            // column of the 2nd batch. When scheduled, the 1st batch is being shown.
+            int sent = out.getBytesSent();
+            if (lost) {
+                out.skipRange(sent + offset, sent + offset + 3);
+            } else {
+                out.flip(sent + offset);
+            }
+
+            p.showImage(w, h, pixels, 1, delay, false, null);
+            Thread.sleep(3 * delay);
+
+            assertEquals(1, p.getStats().getRetries());
+            assertEquals(0, p.getStats().getFailures());
+
+            // The columns are dropped by the stick if their batch is broken, none of them is
+            // shown twice or corrupted.
+            ByteArrayOutputStream want = new ByteArrayOutputStream();
+            for (int x = 0; x < w; x++) {
+                for (int y = 0; y < h; y++) {
+                    want.write(new byte[]{0, 0, (byte) (x + 1)});
+                }
+                want.write(new byte[]{'S', 'H', 'O', 'W'});
+            }
+            want.write(new byte[]{'O', 'F', 'F'});
+            Assert.assertArrayEquals(want.toByteArray(), tester.stopAndGetStderr());
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"tester_1", "tester_3"})
+    @Timeout(value = 5, unit = SECONDS)
+    public void showImage_compressed(String testerCmd) throws IOException, InterruptedException {
+        try (Tester tester = new Tester(testerCmd,
+                Tester.Flags.PIXELS_TO_STDERR)) {
+            Protocol p = new Protocol();
+            p.initializeConnection(tester.getInputStream(), tester.getOutputStream());
+
+            // A gradient which moves by 4 pixels every column, and a noisy column which doesn't shrink.
+            int w = 20;
+            int h = 40;
+            int[] pixels = new int[w * h];
+            Random rnd = new Random(1);
+            for (int x = 0; x < w; x++) {
+                for (int y = 0; y < h; y++) {
+                    int c = x == 9 ? rnd.nextInt() : (x * 4 + y) * 0x010203;
+                    pixels[x * h + y] = 0XFF000000 | c;
+                }
+            }
+
+            p.showImage(w, h, pixels, 1, 0, false, null);
+
+            ByteArrayOutputStream want = new ByteArrayOutputStream();
+            for (int x = 0; x < w; x++) {
+                for (int y = 0; y < h; y++) {
+                    int c = pixels[x * h + y];
+                    want.write(new byte[]{(byte) (c >> 16), (byte) (c >> 8), (byte) c});
+                }
+                want.write(new byte[]{'S', 'H', 'O', 'W'});
+            }
+            want.write(new byte[]{'O', 'F', 'F'});
+            Assert.assertArrayEquals(want.toByteArray(), tester.stopAndGetStderr());
+
+            LinkStats stats = p.getStats();
+            System.out.println(stats);
+            // Each column starts with its repeat count.
+            assertEquals(w * (h * 3 + 1), stats.getPixelBytes());
+            assertTrue(stats.getWireBytes() < stats.getPixelBytes() / 2, stats.toString());
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"tester_1", "tester_3"})
+    @Timeout(value = 5, unit = SECONDS)
+    public void showImage_repeatsIdenticalColumns(String testerCmd) throws IOException, InterruptedException {
+        try (Tester tester = new Tester(testerCmd,
+                Tester.Flags.PIXELS_TO_STDERR)) {
+            Protocol p = new Protocol();
+            p.initializeConnection(tester.getInputStream(), tester.getOutputStream());
+
+            // 4 columns stretched 3 times, and a last one longer than a repeat count.
+            int[] repeats = {3, 3, 3, 3, 300};
+            int h = 2;
+            int w = Arrays.stream(repeats).sum();
+            int[] pixels = new int[w * h];
+            ByteArrayOutputStream want = new ByteArrayOutputStream();
+            int x = 0;
+            for (int c = 0; c < repeats.length; c++) {
+                for (int r = 0; r < repeats[c]; r++, x++) {
+                    Arrays.fill(pixels, x * h, x * h + h, 0XFF000000 | (c + 1));
+                    for (int y = 0; y < h; y++) {
+                        want.write(new byte[]{0, 0, (byte) (c + 1)});
+                    }
+                    want.write(new byte[]{'S', 'H', 'O', 'W'});
+                }
+            }
+            want.write(new byte[]{'O', 'F', 'F'});
+
+            p.showImage(w, h, pixels, 1, 1, false, null);
+            Thread.sleep(100);
+
+            Assert.assertArrayEquals(want.toByteArray(), tester.stopAndGetStderr());
+            // The 4 columns and the last one split in 255 + 45, each once.
+            assertEquals(6 * (h * 3 + 1), p.getStats().getPixelBytes());
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {true, false})
+    @Timeout(value = 5, unit = SECONDS)
+    public void showImage_subsampled(boolean compressed) throws IOException, InterruptedException {
+        try (Tester tester = new Tester("tester_3",
+                Tester.Flags.PIXELS_TO_STDERR)) {
+            Protocol p = new Protocol();
+            if (!compressed) {
+                p.disableCompression();
+            }
+            p.initializeConnection(tester.getInputStream(), tester.getOutputStream());
+
+            // Batches of 2 columns: blocks of 3 pixels, then a gradient, then details. The mode
+            // changes with every batch.
+            int w = 6;
+            int h = 28;
+            int[] pixels = new int[w * h];
+            for (int x = 0; x < w; x++) {
+                for (int y = 0; y < h; y++) {
+                    int c;
+                    if (x < 2) {
+                        c = (y / 3 * 20 + x) * 0x010101;
+                    } else if (x < 4) {
+                        c = (y * 8 + x) * 0x010000;
+                    } else {
+                        c = (y % 2 == 0 ? 200 : 10) + x;
+                    }
+                    pixels[x * h + y] = 0XFF000000 | c;
+                }
+            }
+
+            long messages = p.getStats().getMessages();
+            p.showImage(w, h, pixels, 1, 0, false, null);
+
+            // The batches and the end of the image: the mode is in the header of each batch,
+            // changing it costs no extra message.
+            assertEquals(w / 2 + 1, p.getStats().getMessages() - messages);
+
+            ByteArrayOutputStream want = new ByteArrayOutputStream();
+            for (int x = 0; x < w; x++) {
+                for (int y = 0; y < h; y++) {
+                    int c = pixels[x * h + y];
+                    want.write(new byte[]{(byte) (c >> 16), (byte) (c >> 8), (byte) c});
+                }
+                want.write(new byte[]{'S', 'H', 'O', 'W'});
+            }
+            want.write(new byte[]{'O', 'F', 'F'});
+            Assert.assertArrayEquals(want.toByteArray(), tester.stopAndGetStderr());
+
+            LinkStats stats = p.getStats();
+            System.out.println(stats);
+            if (!compressed) {
+                // 1/3, 1/3 and the full columns.
+                int colLen = h * 3 + 1;
+                int subsampledLen = (h + 2) / 3 * 3 + 1;
+                assertEquals(w * colLen, stats.getPixelBytes());
+                assertEquals(4 * subsampledLen + 2 * colLen, stats.getWireBytes());
+            }
+        }
+    }
+
+    @Test
+    @Timeout(value = 5, unit = SECONDS)
+    public void showImage_sendsCompressedBatchesAgain() throws IOException, InterruptedException {
+        try (Tester tester = new Tester("tester_3",
+                Tester.Flags.PIXELS_TO_STDERR)) {
+            Protocol p = new Protocol();
+            JammedOutputStream out = new JammedOutputStream(tester.getOutputStream());
+            p.initializeConnection(tester.getInputStream(), out);
+
+            int w = 6;
+            int h = 30;
+            int[] pixels = new int[w * h];
+            for (int i = 0; i < pixels.length; i++) {
+                pixels[i] = 0XFF000000 | (i / h + 1);
+            }
+            // Compressed, each batch of 3 columns takes ~50 bytes, this hits the 2nd one.
+            int sent = out.getBytesSent();
+            out.flip(sent + 70);
+
+            p.showImage(w, h, pixels, 1, 0, false, null);
+
+            // The broken batch is dropped, the stick still remembers the last column of the
+            // previous one.
+            assertEquals(1, p.getStats().getRetries());
+            assertEquals(0, p.getStats().getFailures());
+
+            ByteArrayOutputStream want = new ByteArrayOutputStream();
+            for (int x = 0; x < w; x++) {
+                for (int y = 0; y < h; y++) {
+                    want.write(new byte[]{0, 0, (byte) (x + 1)});
+                }
+                want.write(new byte[]{'S', 'H', 'O', 'W'});
+            }
+            want.write(new byte[]{'O', 'F', 'F'});
+            Assert.assertArrayEquals(want.toByteArray(), tester.stopAndGetStderr());
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2, 3, 4, 5})
+    @Timeout(value = 5, unit = SECONDS)
+    public void showImage_sendsBrokenFrameStartsAgain(int offset) throws IOException, InterruptedException {
+        try (Tester tester = new Tester("tester_3",
+                Tester.Flags.PIXELS_TO_STDERR)) {
+            Protocol p = new Protocol();
+            JammedOutputStream out = new JammedOutputStream(tester.getOutputStream());
+            p.initializeConnection(tester.getInputStream(), out);
+
+            int w = 2;
+            int h = 30;
+            int[] pixels = new int[w * h];
+            for (int i = 0; i < pixels.length; i++) {
+                pixels[i] = 0XFF000000 | (i / h + 1);
+            }
+            // The flag, the sequence number, the length or the check byte of the 1st frame: the
+            // stick cannot trust its sequence number, but it must answer it anyway.
+            out.flip(out.getBytesSent() + offset);
+
+            p.showImage(w, h, pixels, 1, 0, false, null);
+
+            assertEquals(1, p.getStats().getRetries());
+            assertEquals(0, p.getStats().getFailures());
+
+            ByteArrayOutputStream want = new ByteArrayOutputStream();
+            for (int x = 0; x < w; x++) {
+                for (int y = 0; y < h; y++) {
+                    want.write(new byte[]{0, 0, (byte) (x + 1)});
+                }
+                want.write(new byte[]{'S', 'H', 'O', 'W'});
+            }
+            want.write(new byte[]{'O', 'F', 'F'});
+            Assert.assertArrayEquals(want.toByteArray(), tester.stopAndGetStderr());
+        }
+    }
+
+    @ParameterizedTest
+    @CsvSource({"false, 1", "false, 2", "false, 5", "false, 6", "true, 1"})
+    @Timeout(value = 5, unit = SECONDS)
+    public void off_sendsAgainWhenTheAnswerIsBroken(boolean lost, int offset) throws IOException {
+        try (Tester tester = new Tester("tester_1")) {
+            Protocol p = new Protocol();
+            JammedInputStream in = new JammedInputStream(tester.getInputStream());
+            p.initializeConnection(in, tester.getOutputStream());
+
+            // The flag, the header or the 1st byte of the ack: the stick did its job, but the
+            // host cannot know it. It must not wait forever.
+            int read = in.getBytesRead();
+            if (lost) {
+                in.skipRange(read + offset, read + offset + 6);
+            } else {
+                in.flip(read + offset);
+            }
+
+            p.off();
+
+            assertEquals(1, p.getStats().getRetries());
+            assertEquals(0, p.getStats().getFailures());
+        }
+    }
+
+    @ParameterizedTest
+    @CsvSource({"0, 2", "0, 3", "30, 3", "30, 4", "30, 5"})
+    @Timeout(value = 5, unit = SECONDS)
+    public void showImage_doesntRepeatBatchesWhenTheAckIsLost(int delay, int answer) throws IOException, InterruptedException {
+        try (Tester tester = new Tester("tester_3",
+                Tester.Flags.PIXELS_TO_STDERR)) {
+            Protocol p = new Protocol();
+            JammedInputStream in = new JammedInputStream(tester.getInputStream());
+            p.initializeConnection(in, tester.getOutputStream());
+
+            int w = 6;
+            int h = 30;
+            int[] pixels = new int[w * h];
+            for (int i = 0; i < pixels.length; i++) {
+                pixels[i] = 0XFF000000 | (i / h + 1);
+            }
+            // The answers are the ack of the brightness, then the acks of 2 batches of 3
+            // columns. When scheduled: the time sync, the ack of the anchor, and the acks of
+            // 3 batches of 2 columns.
+            in.breakAnswer(answer);
+
+            p.showImage(w, h, pixels, 1, delay, false, null);
+            Thread.sleep(3 * delay);
+
+            assertEquals(1, p.getStats().getRetries());
+            assertEquals(0, p.getStats().getFailures());
+
+            // The stick already handled the messages sent again, it acks them without showing
+            // the columns again.
+            ByteArrayOutputStream want = new ByteArrayOutputStream();
+            for (int x = 0; x < w; x++) {
+                for (int y = 0; y < h; y++) {
+                    want.write(new byte[]{0, 0, (byte) (x + 1)});
+                }
+                want.write(new byte[]{'S', 'H', 'O', 'W'});
+            }
+            want.write(new byte[]{'O', 'F', 'F'});
+            Assert.assertArrayEquals(want.toByteArray(), tester.stopAndGetStderr());
+        }
+    }
+
+    @Test
+    @Timeout(value = 5, unit = SECONDS)
+    public void showImage_failsWhenRetriesAreOver() throws IOException {
+        try (Tester tester = new Tester("tester_1")) {
+            Protocol p = new Protocol();
+            JammedOutputStream out = new JammedOutputStream(tester.getOutputStream());
+            p.initializeConnection(tester.getInputStream(), out);
+
+            // Every message sent from now on is corrupted.
+            out.corruptEveryFrame();
+
+            assertThrows(ProtocolException.class, () -> p.off());
+            assertEquals(3, p.getStats().getRetries());
+            assertEquals(1, p.getStats().getFailures());
+        }
+    }
+
     private void printByteArray(String prefix, byte[] arr) {
         System.out.printf("%s = [", prefix);
         for ( byte b : arr ){
@@ -168,165 +691,3 @@ class Protocol_IntegrationTest {
     }
     */
 }
-
-class Tester implements AutoCloseable {
-    static final String testingDir = "../../../testing/";
-    private final Process _testing;
-    private final StreamReader _stderr;
-    private boolean _throwIfTerminated = true;
-
-    public enum Flags {
-        DEBUG_TO_STDERR("--debug_to_stderr"),
-        PIXELS_TO_STDERR("--pixels_to_stderr");
-
-        Flags(String val) {
-            this.val = val;
-        };
-        @Override public String toString() {
-            return val;
-        }
-        private String val;
-    }
-
-    public Tester(String cmd, Flags ...flags) throws IOException {
-        cmd = "./"+cmd;
-        String[] args= new String[flags.length +1];
-        args[0] = cmd;
-        boolean errorRedirected = false;
-        for ( int i = 0 ; i < flags.length ; i++ ) {
-            args[i+1] = flags[i].toString();
-            errorRedirected = true;
-        }
-        ProcessBuilder pb = new ProcessBuilder(args)
-                .directory(new File(testingDir));
-
-        if ( !errorRedirected ) {
-            pb = pb.redirectError(ProcessBuilder.Redirect.INHERIT);
-        }
-        _testing = pb.start();
-        _stderr = new StreamReader(_testing.getErrorStream());
-    }
-
-    public static int make() throws InterruptedException, IOException {
-        Process make = new ProcessBuilder("make", "all")
-                .directory(new File(testingDir))
-                .inheritIO()
-                .start();
-
-        return make.waitFor();
-    }
-
-    public byte[] stopAndGetStderr() throws InterruptedException, IOException {
-        Thread.sleep(100); // Give some time to flush stderr.
-        close();
-        return _stderr.getAll();
-    }
-
-    public void close() throws IOException {
-        if ( !_testing.isAlive() && _throwIfTerminated) { // TODO better an exception?
-            throw new IOException("testing program terminated (probably a segfault)");
-        }
-        _throwIfTerminated = false;
-        _testing.destroy();
-    }
-
-    public InputStream getInputStream() {
-        return _testing.getInputStream();
-    }
-
-    public OutputStream getOutputStream() {
-        return _testing.getOutputStream();
-    }
-}
-
-class StreamReader {
-    private final InputStream _inner;
-    private byte[] _buf;
-    private Thread _t;
-    private IOException _err;
-    private int _read;
-
-    public StreamReader(InputStream in) {
-        _inner = in;
-        if (_inner == null)
-            return;
-        _buf = new byte[1024];
-        _read = 0;
-
-        _t = new Thread(()->{
-            try {
-                while (true) {
-                    int m = _buf.length - _read;
-                    synchronized (_buf) {
-                        int b = _inner.read(_buf, _read, m);
-                        if (b == -1) { // EOF
-                            return;
-                        }
-                        _read += b;
-                    }
-                    // Increase the size if required.
-                    if (_read == _buf.length) {
-                        _buf = Arrays.copyOf(_buf,_read*2);
-                    }
-                }
-            } catch (IOException e) {
-                _err = e;
-            }
-        });
-        _t.start();
-    }
-
-    public byte[] getAll() throws IOException {
-        if (_inner == null)
-            throw new IOException("Error stream not redirected.");
-        if (_err != null) {
-            throw _err;
-        }
-        synchronized (_buf) {
-            return Arrays.copyOf(_buf, _read);
-        }
-    }
-}
-
-class JammedOutputStream extends OutputStream {
-    private final OutputStream _inner;
-    private final Set<Integer> _skipBytes = new HashSet<>();
-    private int _actualBytesSent, _bytesSent;
-
-    JammedOutputStream(OutputStream out) {
-        _inner = out;
-    }
-
-    public void skip(int b) {
-        _skipBytes.add(b);
-    }
-
-    public void skipRange(int from, int to) {
-        for (; from < to; from++)
-            _skipBytes.add(from);
-    }
-
-    @Override
-    public void write(int b) throws IOException {
-        _bytesSent++;
-        if (_skipBytes.contains(_bytesSent)) {
-            System.out.println("skipping byte");
-            return;
-        }
-        _actualBytesSent++;
-        _inner.write(b);
-    }
-
-    @Override
-    public void flush() throws IOException {
-        _inner.flush();
-    }
-
-    public int getActualBytesSent() {
-        return _actualBytesSent;
-    }
-
-    public int getBytesSent() {
-        return _bytesSent;
-    }
-}
\ No newline at end of file
@@ -0,0 +1,143 @@
+package com.github.lorentz83.alps.communication;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class StickGroupTest {
+
+    @BeforeAll
+    static void makeTestHelper() throws IOException, InterruptedException {
+        assertEquals(0, Tester.make(), "Cannot make tester");
+    }
+
+    // 3 columns of 4 pixels, each pixel has a different blue level.
+    private static ColumnSource image() {
+        int[] pixels = new int[12];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xff000000 | (i + 1);
+        }
+        return new ArrayColumnSource(3, 4, pixels);
+    }
+
+    private static Protocol connect(Tester t) throws IOException {
+        Protocol p = new Protocol();
+        p.initializeConnection(t.getInputStream(), t.getOutputStream());
+        return p;
+    }
+
+    // A stick which answers to info, with the given number of pixels, and then disconnects.
+    private static Protocol brokenStick(int maxPixels) throws IOException {
+        Protocol p = new Protocol();
+        p.initializeConnection(new ByteArrayInputStream(new byte[]{'!', 0, 0, (byte) maxPixels, 1}), new ByteArrayOutputStream());
+        return p;
+    }
+
+    @Test
+    @Timeout(value = 5, unit = SECONDS)
+    void showImage_slices() throws IOException, InterruptedException {
+        try (Tester t1 = new Tester("tester_1", Tester.Flags.PIXELS_TO_STDERR);
+             Tester t3 = new Tester("tester_3", Tester.Flags.PIXELS_TO_STDERR)) {
+            Protocol p1 = connect(t1);
+            StickGroup g = new StickGroup(p1);
+            g.setSticks(Arrays.asList(p1, connect(t3)), StickGroup.Layout.SLICES);
+            assertEquals(2, g.size());
+
+            AtomicInteger progress = new AtomicInteger();
+            g.showImage(image(), () -> new ShowSettings(1, 0), false, progress::set);
+            assertEquals(3, progress.get());
+
+            byte[] bottom = new byte[]{
+                    0, 0, 1, 0, 0, 2, 'S', 'H', 'O', 'W',
+                    0, 0, 5, 0, 0, 6, 'S', 'H', 'O', 'W',
+                    0, 0, 9, 0, 0, 10, 'S', 'H', 'O', 'W',
+                    'O', 'F', 'F',
+            };
+            byte[] top = new byte[]{
+                    0, 0, 3, 0, 0, 4, 'S', 'H', 'O', 'W',
+                    0, 0, 7, 0, 0, 8, 'S', 'H', 'O', 'W',
+                    0, 0, 11, 0, 0, 12, 'S', 'H', 'O', 'W',
+                    'O', 'F', 'F',
+            };
+            assertArrayEquals(bottom, t1.stopAndGetStderr());
+            assertArrayEquals(top, t3.stopAndGetStderr());
+        }
+    }
+
+    @Test
+    @Timeout(value = 5, unit = SECONDS)
+    void showImage_mirror() throws IOException, InterruptedException {
+        try (Tester t1 = new Tester("tester_1", Tester.Flags.PIXELS_TO_STDERR);
+             Tester t3 = new Tester("tester_3", Tester.Flags.PIXELS_TO_STDERR)) {
+            Protocol p1 = connect(t1);
+            StickGroup g = new StickGroup(p1);
+            g.setSticks(Arrays.asList(p1, connect(t3)), StickGroup.Layout.MIRROR);
+
+            g.showImage(image(), () -> new ShowSettings(1, 0), false, null);
+
+            byte[] want = new byte[]{
+                    0, 0, 1, 0, 0, 2, 0, 0, 3, 0, 0, 4, 'S', 'H', 'O', 'W',
+                    0, 0, 5, 0, 0, 6, 0, 0, 7, 0, 0, 8, 'S', 'H', 'O', 'W',
+                    0, 0, 9, 0, 0, 10, 0, 0, 11, 0, 0, 12, 'S', 'H', 'O', 'W',
+                    'O', 'F', 'F',
+            };
+            assertArrayEquals(want, t1.stopAndGetStderr());
+            assertArrayEquals(want, t3.stopAndGetStderr());
+        }
+    }
+
+    @Test
+    @Timeout(value = 5, unit = SECONDS)
+    void startLine_anchorsAllTheSticksToTheLatestDue() throws Exception {
+        StartLine start = new StartLine(3);
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<Long> fast = pool.submit(() -> start.await(100));
+            Future<Long> unscheduled = pool.submit(() -> start.await(StartLine.UNSCHEDULED));
+            assertEquals(250, start.await(250));
+            assertEquals(250, fast.get());
+            assertEquals(250, unscheduled.get());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    @Timeout(value = 5, unit = SECONDS)
+    void showImage_failsIfAStickDisconnects() throws IOException {
+        try (Tester t1 = new Tester("tester_1")) {
+            Protocol p1 = connect(t1);
+            StickGroup g = new StickGroup(p1);
+            g.setSticks(Arrays.asList(p1, brokenStick(144)), StickGroup.Layout.MIRROR);
+
+            assertThrows(IOException.class, () -> g.showImage(image(), () -> new ShowSettings(1, 0), true, null));
+        }
+    }
+
+    @Test
+    @Timeout(value = 5, unit = SECONDS)
+    void showImage_doesNotWaitForAStickWhichCannotStart() throws IOException {
+        try (Tester t1 = new Tester("tester_1")) {
+            Protocol p1 = connect(t1);
+            StickGroup g = new StickGroup(p1);
+            // The slice of the 2nd stick doesn't fit.
+            g.setSticks(Arrays.asList(p1, brokenStick(1)), StickGroup.Layout.SLICES);
+
+            assertThrows(ProtocolException.class, () -> g.showImage(image(), () -> new ShowSettings(1, 0), false, null));
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.github.lorentz83.alps.communication;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+class StreamReader {
+    private final InputStream _inner;
+    private byte[] _buf;
+    private Thread _t;
+    private IOException _err;
+    private int _read;
+
+    public StreamReader(InputStream in) {
+        _inner = in;
+        if (_inner == null)
+            return;
+        _buf = new byte[1024];
+        _read = 0;
+
+        _t = new Thread(()->{
+            try {
+                while (true) {
+                    int m = _buf.length - _read;
+                    synchronized (_buf) {
+                        int b = _inner.read(_buf, _read, m);
+                        if (b == -1) { // EOF
+                            return;
+                        }
+                        _read += b;
+                    }
+                    // Increase the size if required.
+                    if (_read == _buf.length) {
+                        _buf = Arrays.copyOf(_buf,_read*2);
+                    }
+                }
+            } catch (IOException e) {
+                _err = e;
+            }
+        });
+        _t.start();
+    }
+
+    public byte[] getAll() throws IOException {
+        if (_inner == null)
+            throw new IOException("Error stream not redirected.");
+        if (_err != null) {
+            throw _err;
+        }
+        synchronized (_buf) {
+            return Arrays.copyOf(_buf, _read);
+        }
+    }
+}
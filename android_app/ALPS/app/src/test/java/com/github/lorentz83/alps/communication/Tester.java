@@ -0,0 +1,76 @@
+package com.github.lorentz83.alps.communication;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+class Tester implements AutoCloseable {
+    static final String testingDir = "../../../testing/";
+    private final Process _testing;
+    private final StreamReader _stderr;
+    private boolean _throwIfTerminated = true;
+
+    public enum Flags {
+        DEBUG_TO_STDERR("--debug_to_stderr"),
+        PIXELS_TO_STDERR("--pixels_to_stderr");
+
+        Flags(String val) {
+            this.val = val;
+        };
+        @Override public String toString() {
+            return val;
+        }
+        private String val;
+    }
+
+    public Tester(String cmd, Flags ...flags) throws IOException {
+        cmd = "./"+cmd;
+        String[] args= new String[flags.length +1];
+        args[0] = cmd;
+        boolean errorRedirected = false;
+        for ( int i = 0 ; i < flags.length ; i++ ) {
+            args[i+1] = flags[i].toString();
+            errorRedirected = true;
+        }
+        ProcessBuilder pb = new ProcessBuilder(args)
+                .directory(new File(testingDir));
+
+        if ( !errorRedirected ) {
+            pb = pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+        }
+        _testing = pb.start();
+        _stderr = new StreamReader(_testing.getErrorStream());
+    }
+
+    public static int make() throws InterruptedException, IOException {
+        Process make = new ProcessBuilder("make", "all")
+                .directory(new File(testingDir))
+                .inheritIO()
+                .start();
+
+        return make.waitFor();
+    }
+
+    public byte[] stopAndGetStderr() throws InterruptedException, IOException {
+        Thread.sleep(100); // Give some time to flush stderr.
+        close();
+        return _stderr.getAll();
+    }
+
+    public void close() throws IOException {
+        if ( !_testing.isAlive() && _throwIfTerminated) { // TODO better an exception?
+            throw new IOException("testing program terminated (probably a segfault)");
+        }
+        _throwIfTerminated = false;
+        _testing.destroy();
+    }
+
+    public InputStream getInputStream() {
+        return _testing.getInputStream();
+    }
+
+    public OutputStream getOutputStream() {
+        return _testing.getOutputStream();
+    }
+}
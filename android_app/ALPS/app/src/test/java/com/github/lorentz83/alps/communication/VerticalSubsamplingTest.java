@@ -0,0 +1,78 @@
+package com.github.lorentz83.alps.communication;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class VerticalSubsamplingTest {
+
+    // A column of gray pixels.
+    private static byte[] gray(int... levels) {
+        byte[] b = new byte[levels.length * 3];
+        for (int i = 0; i < levels.length; i++) {
+            Arrays.fill(b, 3 * i, 3 * i + 3, (byte) levels[i]);
+        }
+        return b;
+    }
+
+    private static int choose(int... levels) {
+        return VerticalSubsampling.choose(gray(levels), 0, 1, levels.length * 3, levels.length);
+    }
+
+    @Test
+    void choose_repeatsBlocksOfPixels() {
+        assertEquals(3, choose(10, 10, 10, 200, 200, 200, 7));
+        assertEquals(2, choose(10, 10, 200, 200, 7, 7));
+        // The last sample is repeated till the end.
+        assertEquals(3, choose(10, 10, 10, 200, 200));
+    }
+
+    @Test
+    void choose_interpolatesGradients() {
+        assertEquals(3 | VerticalSubsampling.INTERPOLATE, choose(0, 10, 20, 30, 40, 50, 60));
+        // 1 off, but bright enough to not see it.
+        assertEquals(2 | VerticalSubsampling.INTERPOLATE, choose(50, 101, 150, 200, 250));
+        // Dark pixels must be exact.
+        assertEquals(VerticalSubsampling.NONE, choose(0, 2, 2, 2));
+    }
+
+    @Test
+    void choose_keepsTheDetails() {
+        assertEquals(VerticalSubsampling.NONE, choose(10, 200, 10, 200, 10, 200));
+        // Every column of the batch must fit.
+        byte[] cols = new byte[2 * 4 * 3];
+        System.arraycopy(gray(5, 5, 9, 9), 0, cols, 0, 12);
+        System.arraycopy(gray(5, 9, 5, 9), 0, cols, 12, 12);
+        assertEquals(VerticalSubsampling.NONE, VerticalSubsampling.choose(cols, 0, 2, 12, 4));
+        assertEquals(2, VerticalSubsampling.choose(cols, 0, 1, 12, 4));
+    }
+
+    @Test
+    void pack_keepsTheSamplesAndTheExtraBytes() {
+        // 2 columns of 5 pixels, each preceded by its repeat count.
+        byte[] buf = new byte[2 * 16];
+        buf[0] = 7;
+        System.arraycopy(gray(1, 1, 1, 2, 2), 0, buf, 1, 15);
+        buf[16] = 8;
+        System.arraycopy(gray(3, 3, 3, 4, 4), 0, buf, 17, 15);
+
+        assertEquals(2 * 7, VerticalSubsampling.pack(buf, 0, 2, 1, 5, 3));
+        byte[] want = {7, 1, 1, 1, 2, 2, 2, 8, 3, 3, 3, 4, 4, 4};
+        assertArrayEquals(want, Arrays.copyOf(buf, want.length));
+        assertEquals(2, VerticalSubsampling.samples(5, 3));
+    }
+
+    @Test
+    void rebuild_roundsLikeTheStick() {
+        byte[] samples = gray(0, 255);
+        int mode = 3 | VerticalSubsampling.INTERPOLATE;
+        // round(255 / 3) and round(2 * 255 / 3).
+        assertEquals(85, VerticalSubsampling.rebuild(samples, 0, 3, 2, 1, 0, mode));
+        assertEquals(170, VerticalSubsampling.rebuild(samples, 0, 3, 2, 2, 0, mode));
+        assertEquals(255, VerticalSubsampling.rebuild(samples, 0, 3, 2, 4, 0, mode));
+        assertEquals(0, VerticalSubsampling.rebuild(samples, 0, 3, 2, 2, 0, 3));
+    }
+}
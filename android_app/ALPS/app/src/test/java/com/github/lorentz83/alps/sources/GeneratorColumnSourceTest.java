@@ -0,0 +1,107 @@
+package com.github.lorentz83.alps.sources;
+
+import com.github.lorentz83.alps.communication.ColumnSource;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GeneratorColumnSourceTest {
+
+    @Test
+    void width_dependsOnStickAndMultiplier() {
+        PatternGenerator p = PatternGenerator.solid(0xff000000);
+        assertEquals(400, new GeneratorColumnSource(() -> p, 100, 2, 2).getWidth());
+        assertEquals(ColumnSource.UNKNOWN_WIDTH, new GeneratorColumnSource(() -> p, 100, 1, Double.POSITIVE_INFINITY).getWidth());
+    }
+
+    @Test
+    void nextColumn_stopsAtTheEndAndRewinds() {
+        GeneratorColumnSource src = new GeneratorColumnSource(() -> PatternGenerator.solid(0xff123456), 2, 1, 1);
+        int[] column = new int[2];
+        assertTrue(src.nextColumn(column));
+        assertArrayEquals(new int[]{0xff123456, 0xff123456}, column);
+        assertTrue(src.nextColumn(column));
+        assertFalse(src.nextColumn(column));
+        src.rewind();
+        assertTrue(src.nextColumn(column));
+    }
+
+    @Test
+    void nextColumn_infiniteNeverStops() {
+        GeneratorColumnSource src = new GeneratorColumnSource(() -> PatternGenerator.rainbow(1), 4, 1, Double.POSITIVE_INFINITY);
+        int[] column = new int[4];
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(src.nextColumn(column));
+        }
+    }
+
+    @Test
+    void nextColumn_readsThePatternEveryColumn() {
+        AtomicReference<PatternGenerator> p = new AtomicReference<>(PatternGenerator.solid(0xffff0000));
+        GeneratorColumnSource src = new GeneratorColumnSource(p::get, 1, 1, 10);
+        int[] column = new int[1];
+        src.nextColumn(column);
+        assertEquals(0xffff0000, column[0]);
+        p.set(PatternGenerator.solid(0xff00ff00));
+        src.nextColumn(column);
+        assertEquals(0xff00ff00, column[0]);
+    }
+
+    @Test
+    void hsv_primaryColors() {
+        assertEquals(0xffff0000, PatternGenerator.hsv(0, 1, 1));
+        assertEquals(0xff00ff00, PatternGenerator.hsv(1 / 3.0, 1, 1));
+        assertEquals(0xff0000ff, PatternGenerator.hsv(2 / 3.0, 1, 1));
+        assertEquals(0xffffffff, PatternGenerator.hsv(0.5, 0, 1));
+        assertEquals(0xff000000, PatternGenerator.hsv(0.5, 1, 0));
+    }
+
+    @Test
+    void horizontalGradient_goesBackAtTheEndOfThePeriod() {
+        PatternGenerator p = PatternGenerator.horizontalGradient(0xff000000, 0xffffffff, 2);
+        int[] column = new int[1];
+        p.column(0, column);
+        assertEquals(0xff000000, column[0]);
+        p.column(1, column);
+        assertEquals(0xffffffff, column[0]);
+        p.column(2, column);
+        assertEquals(0xff000000, column[0]);
+    }
+
+    @Test
+    void verticalGradient_startsFromTheBottom() {
+        int[] column = new int[2];
+        PatternGenerator.verticalGradient(0xff000000, 0xffffffff).column(0, column);
+        assertEquals(0xff404040, column[0]);
+        assertEquals(0xffbfbfbf, column[1]);
+    }
+
+    @Test
+    void stripes_alternateColors() {
+        PatternGenerator p = PatternGenerator.stripes(new int[]{1, 2, 3}, 0.5, true);
+        int[] column = new int[1];
+        int[] expected = {1, 2, 3, 1};
+        for (int i = 0; i < expected.length; i++) {
+            p.column(i * 0.5 + 0.25, column);
+            assertEquals(expected[i], column[0]);
+        }
+    }
+
+    @Test
+    void noise_repeatsAfterThePeriod() {
+        PatternGenerator p = PatternGenerator.noise(0xffffffff, 0.1, 2, 42);
+        int[] a = new int[50];
+        int[] b = new int[50];
+        for (double t = 0; t < 2; t += 0.07) {
+            p.column(t, a);
+            p.column(t + 2, b);
+            assertArrayEquals(a, b);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.github.lorentz83.alps.sources;
+
+import com.github.lorentz83.alps.utils.GifDecoderTest;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static com.github.lorentz83.alps.utils.GifDecoderTest.BLUE;
+import static com.github.lorentz83.alps.utils.GifDecoderTest.GREEN;
+import static com.github.lorentz83.alps.utils.GifDecoderTest.RED;
+import static com.github.lorentz83.alps.utils.GifDecoderTest.WHITE;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GifColumnSourceTest {
+
+    private static final byte[] GIF = new GifDecoderTest.GifWriter(2, 2)
+            .frame(0, 0, 2, 2, 1, -1, new byte[]{0, 1, 2, 3})
+            .frame(0, 0, 2, 2, 1, -1, new byte[]{3, 3, 3, 3})
+            .bytes();
+
+    @Test
+    void nextColumn_sendsTheFramesOneAfterTheOther() throws IOException {
+        try (GifColumnSource src = new GifColumnSource(GifDecoderTest.opener(GIF), 2, 2, 2, 1)) {
+            assertEquals(2, src.getFrameWidth());
+            int[] column = new int[2];
+            int[][] expected = {{BLUE, RED}, {WHITE, GREEN}, {WHITE, WHITE}, {WHITE, WHITE}};
+            for (int[] e : expected) {
+                assertTrue(src.nextColumn(column));
+                assertArrayEquals(e, column);
+            }
+            assertFalse(src.nextColumn(column));
+
+            src.rewind();
+            assertTrue(src.nextColumn(column));
+            assertArrayEquals(expected[0], column);
+        }
+    }
+
+    @Test
+    void nextColumn_scalesTheFrames() throws IOException {
+        try (GifColumnSource src = new GifColumnSource(GifDecoderTest.opener(GIF), 2, 2, 4, 2)) {
+            assertEquals(8, src.getFrameWidth());
+            int[] column = new int[4];
+            int n = 0;
+            while (src.nextColumn(column)) {
+                n++;
+            }
+            assertEquals(16, n);
+        }
+    }
+
+    @Test
+    void nextColumn_reportsDecodingErrors() throws IOException {
+        try (GifColumnSource src = new GifColumnSource(GifDecoderTest.opener(new byte[]{'G', 'I'}), 2, 2, 2, 1)) {
+            assertThrows(IOException.class, () -> src.nextColumn(new int[2]));
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.github.lorentz83.alps.sources;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TextColumnSourceTest {
+
+    // Renders each character as (codePoint - 'a' + 1) columns filled with the code point.
+    private static class FakeRenderer implements TextColumnSource.GlyphRenderer {
+        final int h;
+        final List<Integer> rendered = new ArrayList<>();
+
+        FakeRenderer(int h) {
+            this.h = h;
+        }
+
+        @Override
+        public int[] render(int codePoint) {
+            rendered.add(codePoint);
+            int[] g = new int[(codePoint - 'a' + 1) * h];
+            for (int i = 0; i < g.length; i++) {
+                g[i] = codePoint;
+            }
+            return g;
+        }
+    }
+
+    private static List<Integer> readAll(TextColumnSource src, int h) {
+        List<Integer> cols = new ArrayList<>();
+        int[] column = new int[h];
+        while (src.nextColumn(column)) {
+            for (int i = 1; i < h; i++) {
+                assertEquals(column[0], column[i]);
+            }
+            cols.add(column[0]);
+        }
+        return cols;
+    }
+
+    @Test
+    void columnsFollowTheText() {
+        FakeRenderer r = new FakeRenderer(3);
+        TextColumnSource src = new TextColumnSource("bac", 3, r);
+
+        assertEquals(6, src.getWidth());
+        assertEquals(3, src.getHeight());
+        List<Integer> expected = new ArrayList<>();
+        expected.add((int) 'b');
+        expected.add((int) 'b');
+        expected.add((int) 'a');
+        expected.add((int) 'c');
+        expected.add((int) 'c');
+        expected.add((int) 'c');
+        assertEquals(expected, readAll(src, 3));
+    }
+
+    @Test
+    void everyCharacterIsRenderedOnce() {
+        FakeRenderer r = new FakeRenderer(2);
+        TextColumnSource src = new TextColumnSource("abababba", 2, r);
+
+        assertEquals(12, src.getWidth());
+        assertEquals(12, readAll(src, 2).size());
+        src.rewind();
+        assertEquals(12, readAll(src, 2).size());
+
+        assertEquals(2, r.rendered.size());
+    }
+
+    @Test
+    void emptyGlyphsAreSkipped() {
+        TextColumnSource src = new TextColumnSource("a b", 1, codePoint -> codePoint == ' ' ? new int[0] : new int[]{codePoint});
+
+        assertEquals(2, src.getWidth());
+        int[] column = new int[1];
+        assertTrue(src.nextColumn(column));
+        assertArrayEquals(new int[]{'a'}, column);
+        assertTrue(src.nextColumn(column));
+        assertArrayEquals(new int[]{'b'}, column);
+        assertFalse(src.nextColumn(column));
+    }
+}
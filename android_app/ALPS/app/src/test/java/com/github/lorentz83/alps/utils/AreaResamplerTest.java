@@ -0,0 +1,111 @@
+package com.github.lorentz83.alps.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AreaResamplerTest {
+
+    @Test
+    void axis_weightsSumToOne() {
+        AreaResampler.Axis axis = new AreaResampler.Axis(1000, 144);
+        for (int i = 0; i < 144; i++) {
+            float sum = 0;
+            for (int k = 0; k < axis.count[i]; k++) {
+                sum += axis.weights[axis.offset[i] + k];
+            }
+            assertEquals(1f, sum, 1e-4f);
+        }
+    }
+
+    @Test
+    void resample_averagesPixels() {
+        int[] src = {
+                0xff000000, 0xff0000ff, 0xffff0000, 0xffff0000,
+                0xff00ff00, 0xff000000, 0xffff0000, 0xffff0000,
+        };
+        int[] got = AreaResampler.resample(src, 4, 2, 2, 1);
+        // (0 + 0xff + 0 + 0) / 4 rounded.
+        assertArrayEquals(new int[]{0xff004040, 0xffff0000}, got);
+    }
+
+    @Test
+    void resample_transparentPixelsDontDarken() {
+        int[] src = {0x00000000, 0xffffffff};
+        int[] got = AreaResampler.resample(src, 2, 1, 1, 1);
+        assertArrayEquals(new int[]{0x80ffffff}, got);
+    }
+
+    @Test
+    void resample_upscales() {
+        int[] src = {0xff112233, 0xff445566};
+        int[] got = AreaResampler.resample(src, 2, 1, 4, 2);
+        assertArrayEquals(new int[]{
+                0xff112233, 0xff112233, 0xff445566, 0xff445566,
+                0xff112233, 0xff112233, 0xff445566, 0xff445566,
+        }, got);
+    }
+
+    @Test
+    void resample_sameResultWithAnyNumberOfThreads() {
+        int w = 1234;
+        int h = 567;
+        int[] src = new int[w * h];
+        Random rnd = new Random(42);
+        for (int i = 0; i < src.length; i++) {
+            src[i] = rnd.nextInt() | 0xff000000;
+        }
+        int[] single = AreaResampler.resample(src, w, h, 311, 144, new ForkJoinPool(1));
+        int[] multi = AreaResampler.resample(src, w, h, 311, 144, new ForkJoinPool(4));
+        assertArrayEquals(single, multi);
+    }
+
+    @Test
+    void resampleStrip_sameAsTheWholeImage() {
+        int w = 1000;
+        int h = 300;
+        int[] src = new int[w * h];
+        Random rnd = new Random(42);
+        for (int i = 0; i < src.length; i++) {
+            src[i] = rnd.nextInt() | 0xff000000;
+        }
+        int dstW = 333;
+        int dstH = 144;
+        int[] whole = AreaResampler.resample(src, w, h, dstW, dstH);
+
+        int[] got = new int[dstW * dstH];
+        for (int from = 0; from < dstW; from += 64) {
+            int to = Math.min(dstW, from + 64);
+            // Cut the columns the strip needs, with one more on each side.
+            int left = Math.max(0, from * w / dstW - 1);
+            int right = Math.min(w, to * w / dstW + 2);
+            int[] strip = new int[(right - left) * h];
+            for (int y = 0; y < h; y++) {
+                System.arraycopy(src, y * w + left, strip, y * (right - left), right - left);
+            }
+            int[] cols = AreaResampler.resampleStrip(strip, left, right - left, h, w, dstW, dstH, from, to);
+            for (int y = 0; y < dstH; y++) {
+                System.arraycopy(cols, y * (to - from), got, y * dstW + from, to - from);
+            }
+        }
+        assertArrayEquals(whole, got);
+    }
+
+    @Test
+    void resampleStrip_missingColumns() {
+        // The 2nd output column needs the source columns [2, 4).
+        assertThrows(IllegalArgumentException.class, () -> AreaResampler.resampleStrip(new int[2], 2, 1, 2, 4, 2, 1, 1, 2));
+        assertThrows(IllegalArgumentException.class, () -> AreaResampler.resampleStrip(new int[2], 3, 1, 2, 4, 2, 1, 1, 2));
+    }
+
+    @Test
+    void resample_invalidSize() {
+        assertThrows(IllegalArgumentException.class, () -> AreaResampler.resample(new int[4], 2, 2, 0, 1));
+        assertThrows(IllegalArgumentException.class, () -> AreaResampler.resample(new int[3], 2, 2, 1, 1));
+    }
+}
@@ -0,0 +1,44 @@
+package com.github.lorentz83.alps.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BitmapLoaderTest {
+
+    @Test
+    void sampleSizeForStick() {
+        // 48MP photo on a 144 pixels stick: 6000 / 16 = 375 >= 288.
+        assertEquals(16, BitmapLoader.sampleSizeForStick(8000, 6000, 144, 1));
+        // Stretching it needs more pixels.
+        assertEquals(4, BitmapLoader.sampleSizeForStick(8000, 6000, 144, 3));
+        // Squeezing it doesn't need less.
+        assertEquals(16, BitmapLoader.sampleSizeForStick(8000, 6000, 144, 0.5f));
+        // Small images are never subsampled.
+        assertEquals(1, BitmapLoader.sampleSizeForStick(100, 100, 144, 1));
+    }
+
+    @Test
+    void sampleSizeForAnyStick() {
+        // 6000 / 8 = 750 >= 508, it is still good for 254 pixels after changing the settings.
+        assertEquals(8, BitmapLoader.sampleSizeForAnyStick(8000, 6000));
+        // Rotated, the short side ends up on the stick.
+        assertEquals(8, BitmapLoader.sampleSizeForAnyStick(6000, 8000));
+        assertEquals(1, BitmapLoader.sampleSizeForAnyStick(1000, 600));
+    }
+
+    @Test
+    void sampleSizeForMaxSize() {
+        assertEquals(1, BitmapLoader.sampleSizeForMaxSize(4096, 4096));
+        assertEquals(2, BitmapLoader.sampleSizeForMaxSize(4097, 4096));
+        assertEquals(8, BitmapLoader.sampleSizeForMaxSize(30000, 4096));
+    }
+
+    @Test
+    void sampleSizeForPreview() {
+        // Panorama: 3000 / 8 = 375 >= 254, and 30000 / 8 = 3750 columns.
+        assertEquals(8, BitmapLoader.sampleSizeForPreview(30000, 3000));
+        // Very wide, the columns limit it more than the height.
+        assertEquals(32, BitmapLoader.sampleSizeForPreview(100000, 1000));
+    }
+}
@@ -0,0 +1,51 @@
+package com.github.lorentz83.alps.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+class ColumnExtractorTest {
+
+    // Returns the pixels of the image rotated 90 degrees clockwise, read row by row.
+    // This is what the sender used to do before.
+    private int[] rotated(int[] rows, int w, int h) {
+        int[] out = new int[w * h];
+        for (int x = 0; x < w; x++) {
+            for (int y = 0; y < h; y++) {
+                out[x * h + (h - 1 - y)] = rows[y * w + x];
+            }
+        }
+        return out;
+    }
+
+    @Test
+    void columns_matchesRotation() {
+        // Image bigger than a tile and not aligned to it, to check the borders.
+        int w = ColumnExtractor.TILE_SIZE * 2 + 7;
+        int h = ColumnExtractor.TILE_SIZE + 3;
+        int[] rows = new int[w * h];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = i;
+        }
+
+        // Same as Bitmap.getPixels.
+        ColumnExtractor.PixelReader bitmap = (pixels, offset, stride, x0, y0, tileW, tileH) -> {
+            for (int y = 0; y < tileH; y++) {
+                System.arraycopy(rows, (y0 + y) * w + x0, pixels, offset + y * stride, tileW);
+            }
+        };
+
+        assertArrayEquals(rotated(rows, w, h), ColumnExtractor.columns(bitmap, w, h));
+    }
+
+    @Test
+    void rows_isTheInverseOfTheRotation() {
+        int w = 5;
+        int h = 3;
+        int[] rows = new int[w * h];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = i;
+        }
+        assertArrayEquals(rows, ColumnExtractor.rows(rotated(rows, w, h), w, h));
+    }
+}
@@ -0,0 +1,129 @@
+package com.github.lorentz83.alps.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+class DebouncedRendererTest {
+
+    @Test
+    void request_rendersOnlyTheLast() throws InterruptedException {
+        List<Integer> rendered = Collections.synchronizedList(new ArrayList<>());
+        List<String> results = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(1);
+
+        DebouncedRenderer<Integer, String> r = new DebouncedRenderer<>(50, k -> {
+            rendered.add(k);
+            return "v" + k;
+        }, Runnable::run, v -> {
+            results.add(v);
+            done.countDown();
+        }, e -> fail(e));
+
+        r.request(1);
+        r.request(2);
+        r.request(3);
+        assertTrue(r.isPending());
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        r.shutdown();
+
+        assertEquals(Collections.singletonList(3), rendered);
+        assertEquals(Collections.singletonList("v3"), results);
+    }
+
+    @Test
+    void request_sameKeyIsNotRenderedAgain() throws InterruptedException {
+        AtomicInteger renders = new AtomicInteger();
+        List<String> results = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch first = new CountDownLatch(1);
+
+        DebouncedRenderer<Integer, String> r = new DebouncedRenderer<>(0, k -> {
+            renders.incrementAndGet();
+            return "v" + k;
+        }, Runnable::run, v -> {
+            results.add(v);
+            first.countDown();
+        }, e -> fail(e));
+
+        r.request(1);
+        assertTrue(first.await(5, TimeUnit.SECONDS));
+        // The memoized result is delivered synchronously by the result executor.
+        r.request(1);
+        assertFalse(r.isPending());
+        r.shutdown();
+
+        assertEquals(1, renders.get());
+        assertEquals(2, results.size());
+        assertEquals("v1", results.get(1));
+    }
+
+    @Test
+    void request_staleResultIsDropped() throws InterruptedException {
+        CountDownLatch slowStarted = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        List<String> results = Collections.synchronizedList(new ArrayList<>());
+
+        DebouncedRenderer<Integer, String> r = new DebouncedRenderer<>(0, k -> {
+            if (k == 1) {
+                slowStarted.countDown();
+                // Ignores the interruption, like a render that cannot be stopped.
+                long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+                while (System.nanoTime() < end) {
+                    Thread.yield();
+                }
+            }
+            return "v" + k;
+        }, Runnable::run, v -> {
+            results.add(v);
+            done.countDown();
+        }, e -> fail(e));
+
+        r.request(1);
+        assertTrue(slowStarted.await(5, TimeUnit.SECONDS));
+        r.request(2);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        r.shutdown();
+
+        assertEquals(Collections.singletonList("v2"), results);
+    }
+
+    @Test
+    void request_failureIsDeliveredAndNotKept() throws InterruptedException {
+        AtomicInteger renders = new AtomicInteger();
+        List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch failed = new CountDownLatch(2);
+
+        DebouncedRenderer<Integer, String> r = new DebouncedRenderer<>(0, k -> {
+            renders.incrementAndGet();
+            throw new OutOfMemoryError("too big");
+        }, Runnable::run, v -> fail("unexpected result " + v), e -> {
+            failures.add(e);
+            failed.countDown();
+        });
+
+        r.request(1);
+        // The failure is not memoized, the same key is rendered again. A request sent before
+        // the failure is delivered would make it stale.
+        while (failures.isEmpty()) {
+            Thread.sleep(1);
+        }
+        assertFalse(r.isPending());
+        r.request(1);
+        assertTrue(failed.await(5, TimeUnit.SECONDS));
+        assertFalse(r.isPending());
+        r.shutdown();
+
+        assertEquals(2, renders.get());
+        assertTrue(failures.get(0) instanceof OutOfMemoryError);
+    }
+}
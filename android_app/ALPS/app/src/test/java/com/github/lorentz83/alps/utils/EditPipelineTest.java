@@ -0,0 +1,98 @@
+package com.github.lorentz83.alps.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EditPipelineTest {
+
+    // 3x2 image:
+    // 1 2 3
+    // 4 5 6
+    private static final int[] IMG = {1, 2, 3, 4, 5, 6};
+
+    @Test
+    void rotateClockwise() {
+        EditPipeline p = new EditPipeline();
+        p.rotateClockwise();
+        assertTrue(p.swapsAxes());
+        assertArrayEquals(new int[]{
+                4, 1,
+                5, 2,
+                6, 3,
+        }, p.render(IMG, 3, 2));
+    }
+
+    @Test
+    void rotateCounterclockwise() {
+        EditPipeline p = new EditPipeline();
+        p.rotateCounterclockwise();
+        assertArrayEquals(new int[]{
+                3, 6,
+                2, 5,
+                1, 4,
+        }, p.render(IMG, 3, 2));
+    }
+
+    @Test
+    void mirrors() {
+        EditPipeline p = new EditPipeline();
+        p.mirrorHorizontally();
+        assertArrayEquals(new int[]{3, 2, 1, 6, 5, 4}, p.render(IMG, 3, 2));
+
+        p.reset();
+        p.mirrorVertically();
+        assertArrayEquals(new int[]{4, 5, 6, 1, 2, 3}, p.render(IMG, 3, 2));
+    }
+
+    @Test
+    void rotateThenMirror() {
+        EditPipeline p = new EditPipeline();
+        p.rotateClockwise();
+        p.mirrorHorizontally();
+        assertArrayEquals(new int[]{
+                1, 4,
+                2, 5,
+                3, 6,
+        }, p.render(IMG, 3, 2));
+
+        p.mirrorVertically();
+        assertArrayEquals(new int[]{
+                3, 6,
+                2, 5,
+                1, 4,
+        }, p.render(IMG, 3, 2));
+    }
+
+    @Test
+    void identity() {
+        EditPipeline p = new EditPipeline();
+        assertTrue(p.isIdentity());
+        p.rotateClockwise();
+        p.rotateCounterclockwise();
+        p.mirrorVertically();
+        p.mirrorVertically();
+        assertTrue(p.isIdentity());
+        assertArrayEquals(IMG, p.render(IMG, 3, 2));
+    }
+
+    @Test
+    void overlaysAfterOrientation() {
+        int w = 0xffffffff;
+        int b = 0xff000000;
+        int[] img = {w, w, w, w, w, w};
+        EditPipeline p = new EditPipeline();
+        p.rotateClockwise();
+        // 1 black row every 2 rows, then 1 black column every 2 columns.
+        p.addOverlay(OverlayMask.horizontalStripes(), 1, 1);
+        p.addOverlay(OverlayMask.verticalStripes(), 1, 1);
+        assertFalse(p.isIdentity());
+        assertArrayEquals(new int[]{
+                w, b,
+                b, b,
+                w, b,
+        }, p.render(img, 3, 2));
+    }
+}
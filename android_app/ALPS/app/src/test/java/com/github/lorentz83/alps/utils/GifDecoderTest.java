@@ -0,0 +1,262 @@
+package com.github.lorentz83.alps.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class GifDecoderTest {
+    public static final int RED = 0xffff0000;
+    public static final int GREEN = 0xff00ff00;
+    public static final int BLUE = 0xff0000ff;
+    public static final int WHITE = 0xffffffff;
+
+    /**
+     * Writes minimal animated GIFs with a 4 colors palette: red, green, blue and white.
+     */
+    public static class GifWriter {
+        private final ByteArrayOutputStream _out = new ByteArrayOutputStream();
+
+        public GifWriter(int w, int h) {
+            ascii("GIF89a");
+            shortLE(w);
+            shortLE(h);
+            _out.write(0x81); // global color table of 4 colors
+            _out.write(0);
+            _out.write(0);
+            int[] palette = {RED, GREEN, BLUE, WHITE};
+            for (int c : palette) {
+                _out.write(c >> 16 & 0xff);
+                _out.write(c >> 8 & 0xff);
+                _out.write(c & 0xff);
+            }
+        }
+
+        public GifWriter frame(int x, int y, int w, int h, int disposal, int transparent, byte[] indexes) {
+            _out.write(0x21);
+            _out.write(0xf9);
+            _out.write(4);
+            _out.write(disposal << 2 | (transparent >= 0 ? 1 : 0));
+            shortLE(10);
+            _out.write(Math.max(transparent, 0));
+            _out.write(0);
+
+            _out.write(0x2c);
+            shortLE(x);
+            shortLE(y);
+            shortLE(w);
+            shortLE(h);
+            _out.write(0);
+            _out.write(2);
+            byte[] data = lzw(indexes, 2);
+            for (int off = 0; off < data.length; off += 255) {
+                int len = Math.min(255, data.length - off);
+                _out.write(len);
+                _out.write(data, off, len);
+            }
+            _out.write(0);
+            return this;
+        }
+
+        public byte[] bytes() {
+            _out.write(0x3b);
+            return _out.toByteArray();
+        }
+
+        private void ascii(String s) {
+            for (char c : s.toCharArray()) {
+                _out.write(c);
+            }
+        }
+
+        private void shortLE(int v) {
+            _out.write(v & 0xff);
+            _out.write(v >> 8 & 0xff);
+        }
+    }
+
+    static byte[] lzw(byte[] indexes, int minCodeSize) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int clear = 1 << minCodeSize;
+        int[] state = {0, 0}; // pending bits, number of pending bits
+        int size = minCodeSize + 1;
+        int next = clear + 2;
+        Map<Long, Integer> dict = new HashMap<>();
+
+        emit(out, state, clear, size);
+        int prefix = -1;
+        for (byte b : indexes) {
+            int k = b & 0xff;
+            if (prefix == -1) {
+                prefix = k;
+                continue;
+            }
+            long key = (long) prefix << 8 | k;
+            Integer code = dict.get(key);
+            if (code != null) {
+                prefix = code;
+                continue;
+            }
+            emit(out, state, prefix, size);
+            if (next < 4096) {
+                dict.put(key, next++);
+                // The decoder adds its code one step later.
+                if (next > (1 << size) && size < 12) {
+                    size++;
+                }
+            } else {
+                emit(out, state, clear, size);
+                dict.clear();
+                size = minCodeSize + 1;
+                next = clear + 2;
+            }
+            prefix = k;
+        }
+        emit(out, state, prefix, size);
+        emit(out, state, clear + 1, size);
+        if (state[1] > 0) {
+            out.write(state[0]);
+        }
+        return out.toByteArray();
+    }
+
+    private static void emit(ByteArrayOutputStream out, int[] state, int code, int size) {
+        state[0] |= code << state[1];
+        state[1] += size;
+        while (state[1] >= 8) {
+            out.write(state[0] & 0xff);
+            state[0] >>>= 8;
+            state[1] -= 8;
+        }
+    }
+
+    public static GifDecoder.StreamOpener opener(byte[] gif) {
+        return () -> new ByteArrayInputStream(gif);
+    }
+
+    @Test
+    void nextFrame_composesTheFrames() throws IOException {
+        byte[] gif = new GifWriter(2, 2)
+                .frame(0, 0, 2, 2, 1, -1, new byte[]{0, 1, 2, 3})
+                // Only the top right pixel changes, the white one is transparent.
+                .frame(1, 0, 1, 2, 1, 3, new byte[]{0, 3})
+                .bytes();
+        GifDecoder d = new GifDecoder(opener(gif));
+        assertEquals(2, d.getWidth());
+        assertEquals(2, d.getHeight());
+
+        assertTrue(d.nextFrame());
+        assertArrayEquals(new int[]{RED, GREEN, BLUE, WHITE}, d.getPixels());
+        assertEquals(10, d.getDelay());
+        assertTrue(d.nextFrame());
+        assertArrayEquals(new int[]{RED, RED, BLUE, WHITE}, d.getPixels());
+        assertFalse(d.nextFrame());
+
+        d.rewind();
+        assertTrue(d.nextFrame());
+        assertArrayEquals(new int[]{RED, GREEN, BLUE, WHITE}, d.getPixels());
+    }
+
+    @Test
+    void isAnimated() throws IOException {
+        byte[] still = new GifWriter(2, 1)
+                .frame(0, 0, 2, 1, 0, -1, new byte[]{0, 1})
+                .bytes();
+        assertFalse(GifDecoder.isAnimated(opener(still)));
+
+        byte[] animated = new GifWriter(2, 1)
+                .frame(0, 0, 2, 1, 0, -1, new byte[]{0, 1})
+                .frame(0, 0, 2, 1, 0, -1, new byte[]{1, 0})
+                .bytes();
+        assertTrue(GifDecoder.isAnimated(opener(animated)));
+    }
+
+    @Test
+    void nextFrame_disposes() throws IOException {
+        byte[] gif = new GifWriter(2, 1)
+                .frame(0, 0, 2, 1, 1, -1, new byte[]{0, 0})
+                // Restored to the previous frame.
+                .frame(0, 0, 1, 1, 3, -1, new byte[]{1})
+                // Cleared to transparent.
+                .frame(1, 0, 1, 1, 2, -1, new byte[]{2})
+                .frame(0, 0, 1, 1, 0, 3, new byte[]{3})
+                .bytes();
+        GifDecoder d = new GifDecoder(opener(gif));
+        d.nextFrame();
+        assertArrayEquals(new int[]{RED, RED}, d.getPixels());
+        d.nextFrame();
+        assertArrayEquals(new int[]{GREEN, RED}, d.getPixels());
+        d.nextFrame();
+        assertArrayEquals(new int[]{RED, BLUE}, d.getPixels());
+        d.nextFrame();
+        assertArrayEquals(new int[]{RED, 0}, d.getPixels());
+    }
+
+    @Test
+    void nextFrame_decodesLongCodes() throws IOException {
+        // Enough random pixels to fill the LZW table and restart it.
+        int w = 200;
+        int h = 150;
+        Random rnd = new Random(1);
+        byte[] indexes = new byte[w * h];
+        int[] expected = new int[w * h];
+        int[] palette = {RED, GREEN, BLUE, WHITE};
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = (byte) (rnd.nextInt(10) == 0 ? rnd.nextInt(4) : i / w % 4);
+            expected[i] = palette[indexes[i]];
+        }
+        GifDecoder d = new GifDecoder(opener(new GifWriter(w, h).frame(0, 0, w, h, 0, -1, indexes).bytes()));
+        assertTrue(d.nextFrame());
+        assertArrayEquals(expected, d.getPixels());
+    }
+
+    @Test
+    void nextFrame_readsImageIoGifs() throws IOException {
+        // An independent encoder, with 256 colors.
+        byte[] r = new byte[256];
+        byte[] g = new byte[256];
+        byte[] b = new byte[256];
+        for (int i = 0; i < 256; i++) {
+            r[i] = (byte) i;
+            g[i] = (byte) (255 - i);
+            b[i] = (byte) (i * 7);
+        }
+        IndexColorModel cm = new IndexColorModel(8, 256, r, g, b);
+        BufferedImage img = new BufferedImage(123, 77, BufferedImage.TYPE_BYTE_INDEXED, cm);
+        Random rnd = new Random(2);
+        for (int y = 0; y < img.getHeight(); y++) {
+            for (int x = 0; x < img.getWidth(); x++) {
+                int i = rnd.nextInt(4) == 0 ? rnd.nextInt(256) : (x * y) % 256;
+                img.getRaster().setSample(x, y, 0, i);
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(ImageIO.write(img, "gif", out));
+
+        GifDecoder d = new GifDecoder(opener(out.toByteArray()));
+        assertTrue(d.nextFrame());
+        int[] expected = img.getRGB(0, 0, img.getWidth(), img.getHeight(), null, 0, img.getWidth());
+        assertArrayEquals(expected, d.getPixels());
+        assertFalse(d.nextFrame());
+        assertFalse(GifDecoder.isAnimated(opener(out.toByteArray())));
+    }
+
+    @Test
+    void constructor_rejectsOtherFormats() {
+        assertThrows(IOException.class, () -> new GifDecoder(opener("\u0089PNG\r\n\u001a\n....".getBytes())));
+    }
+}
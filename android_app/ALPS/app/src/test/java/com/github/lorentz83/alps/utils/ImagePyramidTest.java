@@ -0,0 +1,54 @@
+package com.github.lorentz83.alps.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ImagePyramidTest {
+
+    @Test
+    void levelFor_smallestBiggerLevel() {
+        ImagePyramid p = new ImagePyramid(4000, 3000, () -> null);
+        assertEquals(2000, p.levelWidth(1));
+        assertEquals(188, p.levelHeight(4));
+        assertEquals(94, p.levelHeight(5));
+        assertEquals(4, p.levelFor(192, 144));
+        assertEquals(0, p.levelFor(4000, 1501));
+        assertEquals(0, p.levelFor(5000, 5000));
+        // The last level is 1x1.
+        assertEquals(12, p.levelFor(1, 1));
+        assertEquals(1, p.levelWidth(12));
+        assertEquals(1, p.levelHeight(12));
+    }
+
+    @Test
+    void resample_readsTheBaseOnlyOnce() {
+        int w = 640;
+        int h = 480;
+        AtomicInteger reads = new AtomicInteger();
+        ImagePyramid p = new ImagePyramid(w, h, () -> {
+            reads.incrementAndGet();
+            int[] px = new int[w * h];
+            Arrays.fill(px, 0xff336699);
+            return px;
+        });
+
+        int[] expected30 = new int[40 * 30];
+        Arrays.fill(expected30, 0xff336699);
+        assertArrayEquals(expected30, p.resample(40, 30));
+
+        int[] expected72 = new int[96 * 72];
+        Arrays.fill(expected72, 0xff336699);
+        assertArrayEquals(expected72, p.resample(96, 72));
+
+        int[] expected144 = new int[192 * 144];
+        Arrays.fill(expected144, 0xff336699);
+        assertArrayEquals(expected144, p.resample(192, 144));
+
+        assertEquals(1, reads.get());
+    }
+}
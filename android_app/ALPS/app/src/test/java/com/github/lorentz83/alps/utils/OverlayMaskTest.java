@@ -0,0 +1,70 @@
+package com.github.lorentz83.alps.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class OverlayMaskTest {
+
+    private static final int W = 0xffffffff;
+    private static final int B = 0xff000000;
+
+    private int[] white(int n) {
+        int[] px = new int[n];
+        Arrays.fill(px, W);
+        return px;
+    }
+
+    @Test
+    void horizontalStripes() {
+        int[] px = white(2 * 6);
+        // Gap of 2 rows, then 1 black row.
+        OverlayMask.horizontalStripes().apply(px, 2, 6, 1, 2);
+        assertArrayEquals(new int[]{
+                W, W,
+                W, W,
+                B, B,
+                W, W,
+                W, W,
+                B, B,
+        }, px);
+    }
+
+    @Test
+    void squares() {
+        int[] px = white(4 * 4);
+        OverlayMask.rectangles(true).apply(px, 4, 4, 1, 3);
+        assertArrayEquals(new int[]{
+                B, W, W, W,
+                W, B, B, B,
+                W, B, B, B,
+                W, B, B, B,
+        }, px);
+    }
+
+    @Test
+    void diagonal_coversEveryRowOnce() {
+        // A single band as wide as the gap: every row is half black.
+        int w = 40;
+        int h = 10;
+        OverlayMask m = OverlayMask.diagonal(false);
+        for (int y = 0; y < h; y++) {
+            float sum = 0;
+            for (int x = 0; x < w; x++) {
+                sum += m.coverage(x, y, w, h, 4, 4);
+            }
+            assertEquals(w / 2f, sum, 1.5f);
+        }
+    }
+
+    @Test
+    void darken() {
+        assertEquals(0xff808080, OverlayMask.darken(0xffffffff, 0.5f));
+        assertEquals(B, OverlayMask.darken(0xffffffff, 1));
+        // Black over a transparent pixel.
+        assertEquals(0x80000000, OverlayMask.darken(0x00ffffff, 0.5f));
+    }
+}
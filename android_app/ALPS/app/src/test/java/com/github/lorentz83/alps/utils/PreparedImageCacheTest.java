@@ -0,0 +1,93 @@
+package com.github.lorentz83.alps.utils;
+
+import com.github.lorentz83.alps.communication.ArrayColumnSource;
+import com.github.lorentz83.alps.sources.MappedColumnSource;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PreparedImageCacheTest {
+
+    @TempDir
+    File dir;
+
+    private int[] readAll(MappedColumnSource src) {
+        int[] out = new int[src.getWidth() * src.getHeight()];
+        int[] column = new int[src.getHeight()];
+        for (int x = 0; src.nextColumn(column); x++) {
+            System.arraycopy(column, 0, out, x * column.length, column.length);
+        }
+        return out;
+    }
+
+    @Test
+    void key_dependsOnAllParts() {
+        assertEquals(PreparedImageCache.key("a", 144, 1.5f), PreparedImageCache.key("a", 144, 1.5f));
+        assertNotEquals(PreparedImageCache.key("a", 144, 1.5f), PreparedImageCache.key("a", 72, 1.5f));
+        assertNotEquals(PreparedImageCache.key("a1", 44), PreparedImageCache.key("a", 144));
+    }
+
+    @Test
+    void put_get() throws IOException {
+        PreparedImageCache cache = new PreparedImageCache(dir, 1024);
+        assertNull(cache.get("k"));
+
+        cache.put("k", new ArrayColumnSource(2, 2, new int[]{
+                0xff010203, 0xff040506,
+                0x80ffffff, 0x00ffffff,
+        }));
+
+        MappedColumnSource got = cache.get("k");
+        assertNotNull(got);
+        assertEquals(2, got.getWidth());
+        assertEquals(2, got.getHeight());
+        // Transparent pixels are stored as the stick shows them.
+        assertArrayEquals(new int[]{
+                0xff010203, 0xff040506,
+                0xff808080, 0xff000000,
+        }, readAll(got));
+    }
+
+    @Test
+    void put_evictsLeastRecentlyUsed() throws IOException {
+        // Each image is 12 bytes of header and 300 of pixels.
+        PreparedImageCache cache = new PreparedImageCache(dir, 700);
+        cache.put("a", new ArrayColumnSource(10, 10, new int[100]));
+        new File(dir, "a.rgb").setLastModified(1000);
+        cache.put("b", new ArrayColumnSource(10, 10, new int[100]));
+        new File(dir, "b.rgb").setLastModified(2000);
+        cache.put("c", new ArrayColumnSource(10, 10, new int[100]));
+
+        assertNull(cache.get("a"));
+        assertNotNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertFalse(new File(dir, "a.rgb").exists());
+    }
+
+    @Test
+    void get_keepsTheFileIfInterrupted() throws IOException {
+        PreparedImageCache cache = new PreparedImageCache(dir, 1024);
+        cache.put("k", new ArrayColumnSource(2, 2, new int[4]));
+
+        Thread.currentThread().interrupt();
+        try {
+            assertNull(cache.get("k"));
+            assertTrue(Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+        }
+        assertTrue(new File(dir, "k.rgb").exists());
+        assertNotNull(cache.get("k"));
+    }
+}
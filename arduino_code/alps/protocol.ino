@@ -22,12 +22,16 @@
 // Status is used together the [[nodiscard]] attribute to generate warnings when an error is ignored.
 class Status {};
 
+// Each column is its subsampling mode, the number of times to show it, and the pixels as they
+// are received.
 template<int maxPixels, int maxCols>
 class ColumnBuffer {
-    byte buf[maxCols][maxPixels*3];
-    size_t currWCol;
+    byte buf[maxCols][maxPixels*3 + 2];
     size_t currRCol;
-    bool isEmpty;
+    // Columns which can be read.
+    size_t readable;
+    // Columns written after the readable ones, which can't be read until they are committed.
+    size_t staged;
 
   public:
     ColumnBuffer() {
@@ -35,33 +39,72 @@ class ColumnBuffer {
     }
 
     void reset() {
-      currWCol = 0;
       currRCol = 0;
-      isEmpty = true;
+      readable = 0;
+      staged = 0;
     }
 
     bool canWrite() {
-      return isEmpty || currWCol != currRCol;
+      return readable + staged < maxCols;
     }
 
     bool canRead() {
-      return !isEmpty;
+      return readable > 0;
     }
 
-    byte* readNextColumn() {
-      byte* r = buf[currRCol];
+    // Returns the next column to read, which stays in the buffer until doneColumn.
+    byte* nextColumn() {
+      return buf[currRCol];
+    }
+
+    void doneColumn() {
       currRCol = ( currRCol + 1 ) % maxCols;
-      isEmpty = currRCol == currWCol;
-      return r;
+      readable--;
+    }
+
+    // Returns the i-th column waiting to be read.
+    byte* column(size_t i) {
+      return buf[( currRCol + i ) % maxCols];
+    }
+
+    // Returns how many columns are waiting to be read.
+    size_t size() {
+      return readable;
+    }
+
+    // Returns how many columns are written but not committed yet.
+    size_t stagedSize() {
+      return staged;
     }
 
     byte* writeBuffer() {
-      return buf[currWCol];
+      return buf[( currRCol + readable + staged ) % maxCols];
+    }
+
+    // Returns the last column written, which may be read already.
+    byte* lastWritten() {
+      return buf[( currRCol + readable + staged + maxCols - 1 ) % maxCols];
     }
 
+    // Stages the column in writeBuffer, it can be read only after commit.
     void advanceColumn() {
-      currWCol = ( currWCol + 1 ) % maxCols;
-      isEmpty = false;
+      staged++;
+    }
+
+    // Makes the staged columns readable.
+    void commit() {
+      readable += staged;
+      staged = 0;
+    }
+
+    void dropStaged() {
+      staged = 0;
+    }
+
+    // Removes the last n readable columns, which must not be read yet. There must be no staged
+    // columns.
+    void dropLast(size_t n) {
+      readable -= n;
     }
 };
 
@@ -74,8 +117,55 @@ class Protocol {
       off   = 'o',
       newImage = 'n',
       continueImage = 'c',
+      brightness = 'b',
+      timeSync = 't',
+      anchor = 'a',
+      framing = 'f',
+      packedNewImage = 'N',
+      packedContinueImage = 'C',
+      repeatCounts = 'r',
+      subsampling = 'v',
+    };
+
+    // Bitset returned by info to describe the supported extensions.
+    enum feature : byte {
+      // Bit 0 is reserved for the SD card.
+      featureBrightness = 1 << 1,
+      featureTimeSync = 1 << 2,
+      featureFraming = 1 << 3,
+      featureCompression = 1 << 4,
+      featureRepeatCounts = 1 << 5,
+      featureSubsampling = 1 << 6,
     };
 
+    // Subsampling mode: the factor in the low 4 bits, and this flag to interpolate the missing
+    // pixels instead of repeating the samples (see VerticalSubsampling.java).
+    static const byte subsampleInterpolate = 0x10;
+    static const byte maxSubsampling = 3;
+
+    // V3 framing: every message is enclosed between 2 flags, which never appear inside the
+    // frame because they are escaped. After an error the stick can find the next message without
+    // waiting for a timeout.
+    static const byte frameFlag = 0x7E;
+    static const byte frameEscape = 0x7D;
+    static const int frameEnd = -2; // Returned by readFrameByte when it finds a flag.
+
+    enum frameStatus : byte {
+      betweenFrames, // The next byte should be a flag, or a V2 info of a new host.
+      flagSeen,      // The next byte starts the header, or is another flag.
+      inFrame,       // The payload is being read.
+      hunting,       // After an error, everything is discarded up to the next flag.
+    };
+
+    // Compressed batches: a control byte every 8 tokens, each a literal byte or a match of
+    // 2 bytes, 12 bits of distance and 4 bits of length - minMatch (see LzssCodec.java).
+    static const int minMatch = 3;
+
+    // When columns are scheduled, a batch is acknowledged as soon as it is received if there is
+    // space in the buffer for another one of this size, so the host can send it while the
+    // buffered columns are drawn.
+    static const int scheduledBatch = (maxCols + 1) / 2;
+
     CRC32 crc;
 
     LedControl<maxPixels> *callbacks;
@@ -85,6 +175,8 @@ class Protocol {
     static const int blen = 5; // This is the maximum size of a header.
     byte buf[blen];
     ColumnBuffer<maxPixels, maxCols> colBuf;
+    // The last column of the previous batch, compressed batches can refer to it.
+    byte history[maxPixels*3 + 1];
 
     // Protocol related
     byte currentMessage = noCommand;
@@ -93,7 +185,43 @@ class Protocol {
     uint8_t delayBetweenCols = 0;
     unsigned long lastColDrawnTs = 0;
     uint8_t numCols = 0;
+    // Columns of the current batch already in colBuf.
+    uint8_t batchCols = 0;
     bool lastBatchOfCols = false;
+    uint8_t brightnessScale = 255;
+
+    // If each column on the wire starts with the number of times to show it.
+    bool repeats = false;
+    // How many times the next column in colBuf has been shown already.
+    uint8_t shown = 0;
+    // If the header of each batch ends with its subsampling mode.
+    bool subsampled = false;
+    // The mode of the last batch, applied to its columns.
+    byte subsampleMode = 1;
+
+    // If the columns of the current batch are compressed.
+    bool packed = false;
+    byte packCtrl = 0;
+    // Tokens left in packCtrl.
+    uint8_t packBits = 0;
+
+    // If true, the columns are drawn at nextColTs, every delayBetweenCols ms, instead of as soon
+    // as they arrive.
+    bool scheduled = false;
+    // Set by the anchor message, applies to the next new image.
+    bool anchorPending = false;
+    unsigned long anchorTs = 0;
+    unsigned long nextColTs = 0;
+
+    bool framed = false;
+    byte frameState = betweenFrames;
+    byte frameSeq = 0;
+    // The sequence number of the last frame answered, the host sends it again if the answer
+    // got lost. Not valid until the 1st frame is answered.
+    byte answeredSeq = 0;
+    bool answered = false;
+    // Bytes of the payload not read yet.
+    uint16_t frameLeft = 0;
 
 
     [[nodiscard]] Status error(const char code[4]) { // TODO it would be nice to validate the size at compile time
@@ -101,12 +229,19 @@ class Protocol {
       for ( int i = 0 ; i < 4 ; i++ ) {
         buf[i + 1] = code [i];
       }
-      io.write(buf, 5);
+      if ( framed ) {
+        // The rest of the frame is skipped, the next one starts after a flag.
+        if ( frameState == inFrame ) {
+          frameState = hunting;
+        }
+      } else {
+        // flush input, before answering, otherwise the next message of the host can be flushed too.
+        int b = io.available();
+        while (b-- > 0)
+          io.read();
+      }
 
-      // flush input
-      int b = io.available();
-      while (b-- > 0)
-        io.read();
+      reply();
 
       // reset processing message.
       currentMessage = noCommand;
@@ -115,9 +250,16 @@ class Protocol {
     }
 
     [[nodiscard]] Status ack() {
-      buf[0] = 'o';
-      
       uint32_t v = crc.finalize();
+      if ( framed && frameState == inFrame && !closeFrame() ) {
+        return error("frmE");
+      }
+
+      if ( framed ) {
+        markAnswered();
+      }
+
+      buf[0] = 'o';
       buf[1] = v & 0xFF;
       v >>= 8;
       buf[2] = v & 0xFF;
@@ -125,59 +267,417 @@ class Protocol {
       buf[3] = v & 0xFF;
       v >>= 8;
       buf[4] = v & 0xFF;
-      
-      io.write(buf, 5);
+
+      reply();
       return Status{};
     }
 
+    // Sends the 5 bytes answer in buf, in a frame if the framing is enabled.
+    void reply() {
+      if ( !framed ) {
+        io.write(buf, 5);
+        return;
+      }
+      byte header[] = {frameSeq, 5, 0, headerCheck(frameSeq, 5, 0)};
+      io.write(frameFlag);
+      writeEscaped(header, 4);
+      writeEscaped(buf, 5);
+      io.write(frameFlag);
+    }
+
+    void writeEscaped(const byte *b, size_t len) {
+      for ( size_t i = 0 ; i < len ; i++ ) {
+        if ( b[i] == frameFlag || b[i] == frameEscape ) {
+          io.write(frameEscape);
+          io.write(b[i] ^ 0x20);
+        } else {
+          io.write(b[i]);
+        }
+      }
+    }
+
+    static byte headerCheck(byte seq, byte len0, byte len1) {
+      return ~(seq + len0 + len1);
+    }
+
+    // Reads a byte of a frame and unescapes it.
+    // Returns -1 in case of timeout, or frameEnd if it finds a flag.
+    int readFrameByte() {
+      byte c;
+      if ( io.readBytes(&c, 1) != 1 ) {
+        return -1;
+      }
+      if ( c == frameEscape ) {
+        if ( io.readBytes(&c, 1) != 1 ) {
+          return -1;
+        }
+        if ( c != frameFlag ) {
+          return c ^ 0x20;
+        }
+      }
+      if ( c == frameFlag ) {
+        return frameEnd;
+      }
+      return c;
+    }
+
+    // Reads the message bytes, from the frame if the framing is enabled.
+    size_t readBytes(byte *buf, size_t len) {
+      if ( !framed ) {
+        return io.readBytes(buf, len);
+      }
+      size_t r = 0;
+      while ( r < len && frameLeft > 0 ) {
+        int c = readFrameByte();
+        if ( c == frameEnd ) {
+          // The frame is shorter than its header says, some bytes got lost. The flag is the end
+          // of this frame, or the beginning of the next one.
+          frameState = flagSeen;
+          break;
+        }
+        if ( c < 0 ) {
+          break;
+        }
+        buf[r++] = c;
+        frameLeft--;
+      }
+      return r;
+    }
+
+    // Returns true if the whole payload has been read, it matches the crc32 at the end of the
+    // frame, and the frame ends there.
+    bool closeFrame() {
+      if ( frameLeft != 0 ) {
+        return false;
+      }
+      uint32_t want = crc.finalize();
+      for ( int i = 0 ; i < 4 ; i++ ) {
+        int c = readFrameByte();
+        if ( c == frameEnd ) {
+          frameState = flagSeen;
+          return false;
+        }
+        if ( c != (int) (want & 0xFF) ) {
+          return false;
+        }
+        want >>= 8;
+      }
+      if ( readFrameByte() != frameEnd ) {
+        return false;
+      }
+      frameState = betweenFrames;
+      return true;
+    }
+
+    // Drops the columns of a broken batch which are not shown yet, so that the host can send it
+    // again without repeating them. With the framing they are all of them, because they are
+    // staged until the frame is checked.
+    void dropBatch() {
+      size_t received = batchCols - colBuf.stagedSize();
+      colBuf.dropStaged();
+      size_t buffered = colBuf.size();
+      if ( received > 0 && received >= buffered ) {
+        // The column being repeated is dropped too.
+        shown = 0;
+      }
+      colBuf.dropLast(received < buffered ? received : buffered);
+      batchCols = 0;
+      numCols = 0;
+      // It will be set again by the batch sent again.
+      lastBatchOfCols = false;
+      if ( scheduled && (currentMessage == newImage || currentMessage == packedNewImage) ) {
+        // The anchor is already answered, the host sends it again but it is a duplicate.
+        anchorPending = true;
+      }
+    }
+
+    // Returns true if the frame was already answered, the host sent it again because it
+    // didn't receive the answer. Older frames are duplicates too, the host sends again all
+    // the messages of the failed exchange.
+    bool isDuplicate(byte seq) {
+      return answered && (byte) (answeredSeq - seq) < 0x80;
+    }
+
+    // Remembers that the current frame is answered, unless it is a duplicate of an older one.
+    void markAnswered() {
+      if ( !isDuplicate(frameSeq) ) {
+        answeredSeq = frameSeq;
+        answered = true;
+      }
+    }
+
+    // Reads the duplicate frame, and acks it again without handling it.
+    void ackDuplicate() {
+      byte b[16];
+      while ( frameLeft > 0 ) {
+        size_t len = frameLeft < sizeof(b) ? frameLeft : sizeof(b);
+        if ( waitAndCRCBytes(b, len) != len ) {
+          break;
+        }
+      }
+      if ( !closeFrame() ) {
+        (void) error("frmE"); // Ignore [[nodiscard]]
+        return;
+      }
+      (void) ack(); // Ignore [[nodiscard]]
+      currentMessage = noCommand;
+    }
+
+    // Reads the header of the next frame, and returns the message it contains or noCommand if
+    // there is nothing to handle yet.
+    byte readFrameHeader() {
+      // If the last frame ended right, the host sends the next one with the next sequence
+      // number. A broken header is answered with it, the host would skip any other.
+      bool afterFrame = frameState == betweenFrames;
+      while ( frameState != flagSeen ) {
+        if ( io.available() == 0 ) {
+          return noCommand;
+        }
+        int c = io.read();
+        if ( c == frameFlag ) {
+          frameState = flagSeen;
+        } else if ( c == info && frameState == betweenFrames ) {
+          // A new host, which doesn't know about the framing yet.
+          framed = false;
+          return info;
+        } else if ( frameState == betweenFrames ) {
+          // The flag starting this frame is broken, the rest of it is skipped.
+          frameSeq++;
+          frameState = hunting;
+          (void) error("hdrE"); // Ignore [[nodiscard]]
+          return noCommand;
+        }
+        // Anything else is what is left of a broken frame.
+      }
+
+      byte header[4];
+      for ( int i = 0 ; i < 4 ; ) {
+        int c = readFrameByte();
+        if ( c == frameEnd ) {
+          // Consecutive flags, the frame starts after the last one.
+          i = 0;
+          continue;
+        }
+        if ( c < 0 ) {
+          frameState = hunting;
+          return noCommand;
+        }
+        header[i++] = c;
+      }
+      bool valid = header[3] == headerCheck(header[0], header[1], header[2]);
+      frameSeq = valid || !afterFrame ? header[0] : frameSeq + 1;
+      frameLeft = header[1] | header[2] << 8;
+      frameState = inFrame;
+
+      byte msg;
+      if ( !valid || readBytes(&msg, 1) != 1 ) {
+        (void) error("hdrE"); // Ignore [[nodiscard]]
+        return noCommand;
+      }
+      if ( isDuplicate(frameSeq) ) {
+        crc.reset();
+        crc.update(msg);
+        ackDuplicate();
+        return noCommand;
+      }
+      return msg;
+    }
+
     size_t waitAndCRCBytes(byte *buf, size_t len) {
-      size_t r = io.readBytes(buf, len);
+      size_t r = readBytes(buf, len);
       crc.update(buf, r);
       return r;
     }
 
     Status handleInfo() {
+      if ( framed && !closeFrame() ) {
+        return error("frmE");
+      }
       buf[0] = '!';
-      buf[1] = 0; // no extensions.
+      buf[1] = featureBrightness | featureTimeSync | featureFraming | featureCompression | featureRepeatCounts | featureSubsampling;
       buf[2] = 0; // not used.
       buf[3] = maxPixels;
       buf[4] = maxCols;
 
-      io.write(buf, 5);
+      reply();
+      currentMessage = noCommand;
+      // A new host is connecting, let's restore the defaults.
+      answered = false;
+      brightnessScale = 255;
+      scheduled = false;
+      anchorPending = false;
+      repeats = false;
+      subsampled = false;
+      subsampleMode = 1;
+      return Status{};
+    }
+
+    Status handleTimeSync() {
+      if ( framed && !closeFrame() ) {
+        return error("frmE");
+      }
+      // Like info, the answer is not an ack, it carries the current time.
+      markAnswered();
+      unsigned long now = millis();
+      buf[0] = 'T';
+      for ( int i = 1 ; i <= 4 ; i++ ) {
+        buf[i] = now & 0xFF;
+        now >>= 8;
+      }
+      reply();
       currentMessage = noCommand;
       return Status{};
     }
 
+    Status handleAnchor() {
+      if ( waitAndCRCBytes(buf, 4) != 4 ) {
+        return error("noan");
+      }
+      anchorTs = 0;
+      for ( int i = 3 ; i >= 0 ; i-- ) {
+        anchorTs = (anchorTs << 8) | buf[i];
+      }
+      anchorPending = true;
+      currentMessage = noCommand;
+      return ack();
+    }
+
+    Status handleFraming() {
+      if ( waitAndCRCBytes(buf, 1) != 1 ) {
+        return error("nofr");
+      }
+      if ( buf[0] != 3 ) {
+        return error("verE");
+      }
+      currentMessage = noCommand;
+      // The ack is still in the old framing.
+      Status s = ack();
+      framed = true;
+      frameState = betweenFrames;
+      answered = false;
+      return s;
+    }
+
+    Status handleRepeatCounts() {
+      if ( waitAndCRCBytes(buf, 1) != 1 ) {
+        return error("norp");
+      }
+      repeats = buf[0];
+      currentMessage = noCommand;
+      return ack();
+    }
+
+    Status handleSubsampling() {
+      if ( waitAndCRCBytes(buf, 1) != 1 ) {
+        return error("nosb");
+      }
+      subsampled = buf[0];
+      subsampleMode = 1;
+      currentMessage = noCommand;
+      return ack();
+    }
+
+    // Applies the subsampling mode of the batch, at the end of its header.
+    // Returns false if the mode is not valid.
+    bool startSubsampling(byte mode) {
+      if ( !subsampled ) {
+        return true;
+      }
+      byte factor = mode & 0x0F;
+      if ( factor == 0 || factor > maxSubsampling ) {
+        return false;
+      }
+      if ( mode != subsampleMode ) {
+        // The columns change length, this batch doesn't refer to the previous one.
+        memset(history, 0, sizeof(history));
+        subsampleMode = mode;
+      }
+      return true;
+    }
+
+    Status handleBrightness() {
+      if ( waitAndCRCBytes(buf, 1) != 1 ) {
+        return error("nobr");
+      }
+      brightnessScale = buf[0];
+      currentMessage = noCommand;
+      return ack();
+    }
+
+    // Returns round(c * brightnessScale / 255) without a division, which is slow on AVR.
+    byte scale(byte c) {
+      // On AVR int has 16 bits, 255 * 255 would overflow it.
+      uint16_t x = (uint16_t) c * brightnessScale + 128;
+      return (x + (x >> 8)) >> 8;
+    }
+
     Status handleOff() {
       if ( waitAndCRCBytes(buf, 4) != 4 ) {
         return error("noof");
       }
       callbacks->off();
+      colBuf.reset();
+      shown = 0;
+      scheduled = false;
+      anchorPending = false;
+      lastBatchOfCols = false;
       currentMessage = noCommand;
       return ack();
     }
 
     Status handleNewImage() {
-      if ( waitAndCRCBytes(buf, 3) != 3 ) {
+      size_t len = subsampled ? 4 : 3;
+      if ( waitAndCRCBytes(buf, len) != len ) {
         return error("nada");
       }
+      if ( buf[2] > maxCols ) {
+        // Corrupted, such a batch would never fit in colBuf.
+        return error("colE");
+      }
+      if ( !startSubsampling(buf[3]) ) {
+        return error("subE");
+      }
 
+      if ( pxPerCol != buf[0] ) {
+        // Scheduled columns of another image may still be buffered.
+        colBuf.reset();
+        shown = 0;
+      }
       pxPerCol = buf[0];
       delayBetweenCols = buf[1];
       lastColDrawnTs = 0;
       numCols = buf[2];
+      batchCols = 0;
       lastBatchOfCols = false;
+      startBatch();
+      // The 1st batch of an image refers to a black column.
+      memset(history, 0, sizeof(history));
+      scheduled = anchorPending;
+      anchorPending = false;
+      // The anchor is the time of the 1st column of this batch, the columns still buffered are
+      // drawn right before it.
+      nextColTs = anchorTs - pendingDraws() * delayBetweenCols;
 
       return handleColumn();
     }
 
     Status handleContinueImage() {
-      if ( waitAndCRCBytes(buf, 2) != 2 ) {
+      size_t len = subsampled ? 3 : 2;
+      if ( waitAndCRCBytes(buf, len) != len ) {
         return error("noci");
       }
+      if ( buf[1] > maxCols ) {
+        // Corrupted, such a batch would never fit in colBuf.
+        return error("colE");
+      }
+      if ( !startSubsampling(buf[2]) ) {
+        return error("subE");
+      }
 
       lastBatchOfCols = buf[0];
       numCols = buf[1];
+      batchCols = 0;
+      startBatch();
 
       return handleColumn();
     }
@@ -187,54 +687,212 @@ class Protocol {
     Status handleColumn() {
       // Do I have data in the stream to read and buffer to put it into?
       if ( numCols > 0 && colBuf.canWrite() ) {
+        // Without repeat counts the column is shown once, and the wire data starts from the pixels.
+        size_t skip = repeats ? 1 : 2;
         byte* buf = colBuf.writeBuffer();
+        buf[0] = subsampleMode;
+        buf[1] = 1;
         // For now let's read it in full. I'm not sure that reading it in pieces can increase performances.
-        size_t want = pxPerCol * 3;
-        if ( waitAndCRCBytes(buf, want) != want ) {
-          numCols = 0;
-          colBuf.reset();
+        size_t want = samples(subsampleMode) * 3 + 2 - skip;
+        if ( packed ) {
+          const byte* prev = batchCols == 0 ? history : colBuf.lastWritten() + skip;
+          if ( !readPackedColumn(buf + skip, prev, want) ) {
+            dropBatch();
+            return error("pckE");
+          }
+        } else if ( waitAndCRCBytes(buf + skip, want) != want ) {
+          dropBatch();
           return error("noco");
         }
+        if ( buf[1] == 0 ) {
+          dropBatch();
+          return error("rptE");
+        }
         numCols--;
         colBuf.advanceColumn();
-      }
-
-      // Do I have data in the buffer to show on the stick?
-      if ( !callbacks->busy() && colBuf.canRead() ) {
-        if ( millis() > lastColDrawnTs + delayBetweenCols ) { // I honestly hope no one will keep the stick on so long to overflow millis().
-          byte* buf = colBuf.readNextColumn();
-          for ( int n = 0 ; n < pxPerCol ; n++ ) {
-            byte r = *buf;
-            buf++;
-            byte g = *buf;
-            buf++;
-            byte b = *buf;
-            buf++;
-            callbacks->setPixelColor(n, r, g, b);
+        batchCols++;
+        if ( !framed ) {
+          // Without the crc32 there is nothing to wait for, the column can be shown right away.
+          colBuf.commit();
+        }
+        if ( numCols == 0 ) {
+          // The columns are shown only if the frame is valid, a broken batch can be sent again
+          // without showing any of them twice.
+          if ( framed && !closeFrame() ) {
+            dropBatch();
+            return error("frmE");
           }
-          // We assume that the last image called off correctly, hence the rest of pixels should be already black.
-          
-          callbacks->show();
-          
-          // If we use the neopixel library, delayBetweenCols is *extra* delay between cols, which is easier to reason about.
-          // If we use WS2812Serial, we are capped by the bluetooth speed, so this may smooth out the transition, even if smaller values of delays may be useless.
-          lastColDrawnTs = millis();
+          colBuf.commit();
+          memcpy(history, colBuf.lastWritten() + skip, want);
         }
       }
 
+      drawNextColumn();
+
       // If nothing left on the wire and all the columns has been sent to the stick.
       if ( numCols == 0 && !colBuf.canRead() ) {
         if ( lastBatchOfCols ) {
           // TODO add delay before turning off.
           callbacks->off();
+          lastBatchOfCols = false;
+          scheduled = false;
         }
         currentMessage = noCommand; // We can wait for the new command.
         return ack();
       }
+      // Scheduled columns are drawn by checkChannel, in between the messages.
+      if ( numCols == 0 && scheduled && colBuf.size() <= maxCols - scheduledBatch ) {
+        currentMessage = noCommand;
+        return ack();
+      }
       // Otherwise let's wait the next cycle.
       return Status{};
     }
 
+    void startBatch() {
+      packed = currentMessage == packedNewImage || currentMessage == packedContinueImage;
+      packBits = 0;
+    }
+
+    // Decodes a compressed column in dst, prev is the column before.
+    // Returns false if the data is not received or it is invalid.
+    bool readPackedColumn(byte *dst, const byte *prev, size_t len) {
+      size_t p = 0;
+      while ( p < len ) {
+        if ( packBits == 0 ) {
+          if ( waitAndCRCBytes(&packCtrl, 1) != 1 ) {
+            return false;
+          }
+          packBits = 8;
+        }
+        bool literal = packCtrl & 1;
+        packCtrl >>= 1;
+        packBits--;
+        if ( literal ) {
+          if ( waitAndCRCBytes(dst + p, 1) != 1 ) {
+            return false;
+          }
+          p++;
+          continue;
+        }
+        byte m[2];
+        if ( waitAndCRCBytes(m, 2) != 2 ) {
+          return false;
+        }
+        size_t dist = m[0] | (m[1] & 0x0F) << 8;
+        size_t n = (m[1] >> 4) + minMatch;
+        // It can go back up to the beginning of the previous column, and not past this one.
+        if ( dist == 0 || dist > p + len || n > len - p ) {
+          return false;
+        }
+        for ( ; n > 0 ; n--, p++ ) {
+          dst[p] = dist <= p ? dst[p - dist] : prev[len + p - dist];
+        }
+      }
+      return true;
+    }
+
+    // Shows the next buffered column, if it is its time.
+    void drawNextColumn() {
+      if ( callbacks->busy() || !colBuf.canRead() ) {
+        return;
+      }
+      if ( scheduled ) {
+        long late = (long) (millis() - nextColTs); // Signed, to survive the overflow of millis().
+        if ( late < 0 ) {
+          return;
+        }
+        if ( late > delayBetweenCols ) {
+          // The column arrived too late, we slip the schedule instead of rushing the next ones.
+          nextColTs = millis();
+        }
+        nextColTs += delayBetweenCols;
+      } else if ( millis() <= lastColDrawnTs + delayBetweenCols ) { // I honestly hope no one will keep the stick on so long to overflow millis().
+        return;
+      }
+
+      byte* buf = colBuf.nextColumn();
+      byte mode = buf[0];
+      byte times = buf[1];
+      const byte* sample = buf + 2;
+      byte factor = mode & 0x0F;
+      bool interpolate = mode & subsampleInterpolate;
+      uint8_t numSamples = samples(mode);
+      // The pixel is the sample k, or between the samples k and k+1.
+      uint8_t k = 0;
+      uint8_t between = 0;
+      for ( int n = 0 ; n < pxPerCol ; n++ ) {
+        byte r = sample[0];
+        byte g = sample[1];
+        byte b = sample[2];
+        if ( between != 0 && interpolate && k + 1 < numSamples ) {
+          r = interpolateChannel(sample[0], sample[3], between, factor);
+          g = interpolateChannel(sample[1], sample[4], between, factor);
+          b = interpolateChannel(sample[2], sample[5], between, factor);
+        }
+        if ( ++between == factor ) {
+          between = 0;
+          k++;
+          sample += 3;
+        }
+        if ( brightnessScale != 255 ) {
+          r = scale(r);
+          g = scale(g);
+          b = scale(b);
+        }
+        callbacks->setPixelColor(n, r, g, b);
+      }
+      // We assume that the last image called off correctly, hence the rest of pixels should be already black.
+
+      callbacks->show();
+      if ( ++shown >= times ) {
+        shown = 0;
+        colBuf.doneColumn();
+      }
+
+      // If we use the neopixel library, delayBetweenCols is *extra* delay between cols, which is easier to reason about.
+      // If we use WS2812Serial, we are capped by the bluetooth speed, so this may smooth out the transition, even if smaller values of delays may be useless.
+      lastColDrawnTs = millis();
+    }
+
+    // Returns how many pixels of each column are received with the given subsampling mode.
+    uint8_t samples(byte mode) {
+      byte factor = mode & 0x0F;
+      return (pxPerCol + factor - 1) / factor;
+    }
+
+    // Returns round((a * (factor - i) + b * i) / factor) without a division, which is slow on AVR.
+    static byte interpolateChannel(byte a, byte b, byte i, byte factor) {
+      uint16_t x = a * (factor - i) + b * i + factor / 2;
+      if ( factor == 2 ) {
+        return x >> 1;
+      }
+      // Exact for x / 3 up to 1535.
+      return (uint32_t) x * 683 >> 11;
+    }
+
+    // Returns how many times the buffered columns are going to be shown.
+    unsigned long pendingDraws() {
+      unsigned long n = 0;
+      for ( size_t i = 0 ; i < colBuf.size() ; i++ ) {
+        n += colBuf.column(i)[1];
+      }
+      return n > shown ? n - shown : 0;
+    }
+
+    // Draws the scheduled columns already acknowledged, while no message is being handled.
+    void drawScheduled() {
+      if ( !scheduled ) {
+        return;
+      }
+      drawNextColumn();
+      if ( lastBatchOfCols && numCols == 0 && !colBuf.canRead() ) {
+        callbacks->off();
+        lastBatchOfCols = false;
+        scheduled = false;
+      }
+    }
+
   public:
 
     Protocol(LedControl<maxPixels> *callbacks, Stream& io): callbacks(callbacks), io(io), colBuf() {
@@ -249,11 +907,19 @@ class Protocol {
     void checkChannel() {
 
       if ( currentMessage == noCommand ) { // We are waiting for something do do.
+        drawScheduled();
         if ( io.available() == 0 ) {
           return; // nothing to do.
         }
-        currentMessage = io.read();
-        
+        if ( framed ) {
+          currentMessage = readFrameHeader();
+          if ( currentMessage == noCommand ) {
+            return;
+          }
+        } else {
+          currentMessage = io.read();
+        }
+
         crc.reset();
         crc.update(currentMessage);
 
@@ -266,11 +932,33 @@ class Protocol {
             handleInfo();
             break;
           case newImage:
+          // fallthrough;
+          case packedNewImage:
             handleNewImage();
             break;
           case continueImage:
+          // fallthrough;
+          case packedContinueImage:
             handleContinueImage();
             break;
+          case brightness:
+            handleBrightness();
+            break;
+          case timeSync:
+            handleTimeSync();
+            break;
+          case anchor:
+            handleAnchor();
+            break;
+          case framing:
+            handleFraming();
+            break;
+          case repeatCounts:
+            handleRepeatCounts();
+            break;
+          case subsampling:
+            handleSubsampling();
+            break;
           default:
             currentMessage = noCommand;
             (void) error("cmdE"); // Ignore [[nodiscard]]
@@ -282,6 +970,10 @@ class Protocol {
           case newImage:
           // fallthrough;
           case continueImage:
+          // fallthrough;
+          case packedNewImage:
+          // fallthrough;
+          case packedContinueImage:
             handleColumn();
             break;
           default:
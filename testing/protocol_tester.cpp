@@ -20,6 +20,7 @@
 #include <bitset>
 #include <chrono>
 #include <condition_variable>
+#include <cstring>
 #include <iostream>
 #include <mutex>
 #include <queue>
@@ -42,10 +43,11 @@ enum PrintFormat { BIN, OCT, DEC, HEX };
 
 void delay(int) {}
 
-long int millis() {
+// Like on the boards, the time is counted from the start, not from the epoch.
+unsigned long millis() {
   using namespace std::chrono;
-  return duration_cast<milliseconds>(system_clock::now().time_since_epoch())
-      .count();
+  static const steady_clock::time_point start = steady_clock::now();
+  return duration_cast<milliseconds>(steady_clock::now() - start).count();
 }
 
 class NonBlockingInput {